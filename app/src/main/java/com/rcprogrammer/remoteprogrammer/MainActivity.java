@@ -33,6 +33,9 @@ import com.google.android.material.navigation.NavigationView;
 import com.rcprogrammer.remoteprogrammer.chat.ChatRecyclerViewAdapter;
 import com.rcprogrammer.remoteprogrammer.codeeditor.codeview.CodeFormat;
 import com.rcprogrammer.remoteprogrammer.connection.DeviceConnector;
+import com.rcprogrammer.remoteprogrammer.connection.DeviceTransports;
+import com.rcprogrammer.remoteprogrammer.connection.LinkQuality;
+import com.rcprogrammer.remoteprogrammer.deploy.DeployActivity;
 import com.rcprogrammer.remoteprogrammer.functionlist.FunctionListActivity;
 import com.rcprogrammer.remoteprogrammer.settings.SettingsActivity;
 
@@ -58,6 +61,7 @@ public class MainActivity extends AppCompatActivity {
     private ArrayAdapter<String> commandListAdapter;
 
     private DeviceConnector connector;
+    private String connectionTransport = DeviceTransports.VOLLEY;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -86,13 +90,23 @@ public class MainActivity extends AppCompatActivity {
                 if(connectedToRCDevice) {
                     if (!commandText.getText().toString().equals("")) {
                         String command = commandText.getText().toString();
-                        connector.sendCommand(getSpeechRecognitionLanguageKey(), command);
+                        long commandId = connector.sendCommand(getSpeechRecognitionLanguageKey(), command);
 
                         commandText.setText("");
 
-                        chatContent.addOutgoingMessage(command);
+                        chatContent.addOutgoingMessage(command, commandId);
                     }
                 } else {
+                    // Without a connection, the command waits in the outbox, and is sent once the device is connected
+                    if (!commandText.getText().toString().equals("")) {
+                        String command = commandText.getText().toString();
+                        long commandId = connector.queueCommand(getSpeechRecognitionLanguageKey(), command);
+
+                        commandText.setText("");
+
+                        chatContent.addOutgoingMessage(command, commandId);
+                    }
+
                     connectToRCDevice();
                 }
             }
@@ -193,6 +207,10 @@ public class MainActivity extends AppCompatActivity {
                         Intent functionIntent = new Intent(MainActivity.this, FunctionListActivity.class);
                         MainActivity.this.startActivity(functionIntent);
                         break;
+                    case(R.id.nav_deploy):
+                        Intent deployIntent = new Intent(MainActivity.this, DeployActivity.class);
+                        MainActivity.this.startActivity(deployIntent);
+                        break;
                     case(R.id.nav_help):
                         showHelp();
                         break;
@@ -228,12 +246,38 @@ public class MainActivity extends AppCompatActivity {
 
         connector.setCommandResponseListener(new DeviceConnector.CommandResponseListener() {
             @Override
-            public void onResponse(String response) {
+            public void onResponse(long commandId, String response) {
                 if(chatContent != null){
-                    chatContent.addIncomingMessage(response);
+                    chatContent.addIncomingMessage(response, commandId);
+                }
+            }
+        });
+
+        connector.setFunctionUploadListener(new DeviceConnector.FunctionUploadListener() {
+            @Override
+            public void onFunctionUploaded(String functionName, boolean succeeded) {
+                if(!succeeded){
+                    Toast.makeText(MainActivity.this, getString(R.string.err_failed_to_upload_function, functionName), Toast.LENGTH_SHORT).show();
                 }
             }
         });
+
+        connector.setOutboxListener(new DeviceConnector.OutboxListener() {
+            @Override
+            public void onOutboxChanged(int size, long oldestEntryTime) {
+                updateSubtitle();
+            }
+        });
+
+        connector.setLinkListener(new DeviceConnector.LinkListener() {
+            @Override
+            public void onLinkChanged(LinkQuality quality) {
+                updateSubtitle();
+            }
+        });
+
+        // The editor pushes saved functions through this connector
+        DeviceConnector.setShared(connector);
     }
 
 
@@ -242,10 +286,24 @@ public class MainActivity extends AppCompatActivity {
     public void onResume(){
         super.onResume();
 
+        updateSubtitle();
+
         connectToRCDevice();
     }
 
 
+    @Override
+    protected void onDestroy(){
+        if(DeviceConnector.getShared() == connector){
+            DeviceConnector.setShared(null);
+        }
+
+        connector.close();
+
+        super.onDestroy();
+    }
+
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu){
         getMenuInflater().inflate(R.menu.bar_main_menu,menu);
@@ -384,6 +442,27 @@ public class MainActivity extends AppCompatActivity {
     }
 
 
+    /* Shows how many commands and uploads wait for the device, and for how long, below the title.
+     * If nothing is waiting, the quality of the link to the device is shown instead.*/
+    private void updateSubtitle(){
+        int size = connector.getOutboxSize();
+        LinkQuality quality = connector.getLinkQuality();
+
+        if(size > 0){
+            long ageInMinutes = Math.max(0, System.currentTimeMillis() - connector.getOldestOutboxEntryTime()) / 60000;
+
+            getSupportActionBar().setSubtitle(getString(R.string.txt_outbox_backlog, size, ageInMinutes));
+        } else if(quality.getState() == LinkQuality.State.RECONNECTING){
+            getSupportActionBar().setSubtitle(getString(R.string.txt_link_reconnecting, quality.getReconnectAttempts()));
+        } else if(quality.getState() == LinkQuality.State.CONNECTED && quality.getSmoothedRtt() >= 0){
+            getSupportActionBar().setSubtitle(getString(R.string.txt_link_quality, quality.getSmoothedRtt(), quality.getRttVariance(),
+                    Math.round(quality.getLossRate() * 100)));
+        } else {
+            getSupportActionBar().setSubtitle(null);
+        }
+    }
+
+
     private void showRCDeviceFileManager(){
         AlertDialog.Builder fileManagerDialog = new AlertDialog.Builder(MainActivity.this);
         fileManagerDialog.setTitle("RC Device functions:");
@@ -484,10 +563,19 @@ public class MainActivity extends AppCompatActivity {
             connectionTimeout = 3000;
         }
 
+        String transport = prefs.getString("connection_transport", DeviceTransports.VOLLEY);
+
+        if(!transport.equals(connectionTransport)){
+            connector.setTransport(DeviceTransports.create(this, transport));
+            connectionTransport = transport;
+        }
+
         connector.setBaseURL(baseURLString);
         connector.setConnectionTimeout(connectionTimeout);
+        connector.setCodeLanguage(CodeFormat.getCodeLanguage(this));
 
-        if(!connector.isConnecting()){
+        // A connection to another device is replaced right away, instead of waiting for it to finish
+        if(!connector.isConnecting() || !baseURLString.equals(connector.getConnectingURL())){
             connector.connect();
         }
     }
@@ -21,10 +21,12 @@ public class ChatRecyclerViewAdapter extends RecyclerView.Adapter<ChatRecyclerVi
     private static class ChatEntry{
         String text = "";
         boolean isIncoming = false;
+        long commandId;
 
-        ChatEntry(String text, boolean isIncoming){
+        ChatEntry(String text, boolean isIncoming, long commandId){
             this.text = text;
             this.isIncoming = isIncoming;
+            this.commandId = commandId;
         }
     }
 
@@ -35,17 +37,25 @@ public class ChatRecyclerViewAdapter extends RecyclerView.Adapter<ChatRecyclerVi
         this.context = context;
     }
 
-    private void addMessage(String text, boolean isIncoming) {
-        chatData.add(0, new ChatEntry(text, isIncoming));
-        notifyDataSetChanged();
+    public void addOutgoingMessage(String text, long commandId){
+        chatData.add(0, new ChatEntry(text, false, commandId));
+        notifyItemInserted(0);
     }
 
-    public void addOutgoingMessage(String text){
-        addMessage(text, false);
-    }
+    /* Responses are shown right below the command they belong to, and below its earlier responses,
+     * even if other commands were sent in the meantime. The newest entry is at position 0.*/
+    public void addIncomingMessage(String text, long commandId){
+        int position = 0;
+
+        for(int i = 0; i < chatData.size(); i++){
+            if(chatData.get(i).commandId == commandId){
+                position = i;
+                break;
+            }
+        }
 
-    public void addIncomingMessage(String text){
-        addMessage(text, true);
+        chatData.add(position, new ChatEntry(text, true, commandId));
+        notifyItemInserted(position);
     }
 
     @Override
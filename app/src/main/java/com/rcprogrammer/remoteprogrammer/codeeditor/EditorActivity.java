@@ -23,6 +23,7 @@ import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.rcprogrammer.remoteprogrammer.R;
 import com.rcprogrammer.remoteprogrammer.codeeditor.codeview.CodeFormat;
 import com.rcprogrammer.remoteprogrammer.codeeditor.codeview.CodeView;
+import com.rcprogrammer.remoteprogrammer.connection.DeviceConnector;
 
 import org.json.JSONArray;
 
@@ -33,7 +34,6 @@ import java.io.FileWriter;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
 import java.util.Stack;
 
 public class EditorActivity extends AppCompatActivity {
@@ -71,14 +71,7 @@ public class EditorActivity extends AppCompatActivity {
         }
 
 
-        boolean overrideLanguage = prefs.getBoolean("override_code_language", false);
-        String language = Locale.getDefault().getLanguage();
-
-        if(overrideLanguage){
-            language = prefs.getString("code_language", language);
-        }
-
-        CodeFormat.setLanguage(language);
+        CodeFormat.setLanguage(CodeFormat.getCodeLanguage(this));
 
 
 
@@ -402,6 +395,12 @@ public class EditorActivity extends AppCompatActivity {
             writer.close();
 
             Toast.makeText(this, R.string.msg_save_successful, Toast.LENGTH_SHORT).show();
+
+            // Sends the function to the connected device right away, instead of on the next connection
+            DeviceConnector connector = DeviceConnector.getShared();
+            if(connector != null){
+                connector.pushFunction(functionName);
+            }
         } catch(Exception e){
             Toast.makeText(this, R.string.err_failed_to_save, Toast.LENGTH_SHORT).show();
 
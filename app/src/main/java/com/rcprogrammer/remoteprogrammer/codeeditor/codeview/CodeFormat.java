@@ -1,6 +1,10 @@
 package com.rcprogrammer.remoteprogrammer.codeeditor.codeview;
 
 import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.JsonReader;
+import android.util.JsonToken;
 
 import androidx.annotation.Nullable;
 import androidx.collection.ArrayMap;
@@ -18,10 +22,15 @@ import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 
 public class CodeFormat {
+    public static final String FORMATS_FILE_NAME = "codeFormats.json";
+    public static final String TRANSLATIONS_FILE_NAME = "codeFormatTranslations.json";
+    public static final String CATEGORIES_FILE_NAME = "codeFormatCategories.json";
+
     private static JSONObject translations;
     private static String language;
 
@@ -66,8 +75,17 @@ public class CodeFormat {
     }
 
 
+    /* Forgets all formats, translations and categories, e.g. before the ones of another device are loaded.*/
+    public static void clearAll(){
+        formats = null;
+        translations = null;
+        categories = null;
+        categoryColorHues = null;
+    }
+
+
     public static void saveFormats(Context context) throws IOException, JSONException{
-        File file = new File(context.getFilesDir() + File.separator + "codeFormats.json");
+        File file = new File(context.getFilesDir() + File.separator + FORMATS_FILE_NAME);
         if(file.isDirectory()){
             file.delete();
         }
@@ -93,7 +111,7 @@ public class CodeFormat {
 
     public static void loadFormats(Context context) throws IOException, JSONException{
         //Read file to string
-        File file = new File(context.getFilesDir() + File.separator + "codeFormats.json");
+        File file = new File(context.getFilesDir() + File.separator + FORMATS_FILE_NAME);
         if(!file.exists() || file.isDirectory()){
             return;
         }
@@ -121,7 +139,7 @@ public class CodeFormat {
 
 
     public static void saveTranslations(Context context) throws IOException{
-        File file = new File(context.getFilesDir() + File.separator + "codeFormatTranslations.json");
+        File file = new File(context.getFilesDir() + File.separator + TRANSLATIONS_FILE_NAME);
         if(file.isDirectory()){
             file.delete();
         }
@@ -139,7 +157,7 @@ public class CodeFormat {
     }
 
     public static void loadTranslations(Context context) throws IOException, JSONException{
-        File file = new File(context.getFilesDir() + File.separator + "codeFormatTranslations.json");
+        File file = new File(context.getFilesDir() + File.separator + TRANSLATIONS_FILE_NAME);
         if(!file.exists() || file.isDirectory()){
             return;
         }
@@ -188,6 +206,33 @@ public class CodeFormat {
         }
     }
 
+    /* Replaces all translations with the given ones. Languages in availableLanguages, that weren't given,
+     * are kept as empty placeholders, so they can be chosen, and downloaded once they are.*/
+    public static void setTranslations(JSONObject newTranslations, List<String> availableLanguages) throws JSONException{
+        translations = newTranslations;
+
+        for(String languageName : availableLanguages){
+            if(!translations.has(languageName)){
+                translations.put(languageName, new JSONObject());
+            }
+        }
+    }
+
+    public static boolean hasTranslations(){
+        return translations != null && translations.length() > 0;
+    }
+
+    /* Whether the words of the given language are stored, not just a placeholder for it.*/
+    public static boolean hasTranslationsFor(String languageName){
+        if(translations == null){
+            return false;
+        }
+
+        JSONObject languageJSON = translations.optJSONObject(languageName);
+
+        return languageJSON != null && languageJSON.length() > 0;
+    }
+
     public static List<String> getLanguages(){
         ArrayList<String> languages = new ArrayList<String>();
 
@@ -209,9 +254,21 @@ public class CodeFormat {
         language = newLanguage;
     }
 
+    /* The language, code is shown in: the system language, unless the "code_language" preference overrides it.*/
+    public static String getCodeLanguage(Context context){
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String codeLanguage = Locale.getDefault().getLanguage();
+
+        if(prefs.getBoolean("override_code_language", false)){
+            codeLanguage = prefs.getString("code_language", codeLanguage);
+        }
+
+        return codeLanguage;
+    }
+
 
     public static void saveCategories(Context context) throws IOException, JSONException{
-        File file = new File(context.getFilesDir() + File.separator + "codeFormatCategories.json");
+        File file = new File(context.getFilesDir() + File.separator + CATEGORIES_FILE_NAME);
         if(file.isDirectory()){
             file.delete();
         }
@@ -239,7 +296,7 @@ public class CodeFormat {
     }
 
     public static void loadCategories(Context context) throws IOException, JSONException{
-        File file = new File(context.getFilesDir() + File.separator + "codeFormatCategories.json");
+        File file = new File(context.getFilesDir() + File.separator + CATEGORIES_FILE_NAME);
         if(!file.exists() || file.isDirectory()){
             return;
         }
@@ -435,6 +492,237 @@ public class CodeFormat {
     }
 
 
+    /* Reads a JSON array of formats, in the same layout fromJSONArray() takes, without adding them yet.
+     * This allows parsing on a background thread, and adding them all at once with addAll() later.*/
+    public static List<CodeFormat> readFormats(JsonReader reader) throws IOException {
+        List<CodeFormat> readFormats = new ArrayList<>();
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            readFormats.add(readFormat(reader));
+        }
+        reader.endArray();
+
+        return readFormats;
+    }
+
+    private static CodeFormat readFormat(JsonReader reader) throws IOException {
+        String id = null;
+        String name = null;
+        boolean isDeprecated = false;
+        Integer category = null;
+        ValueType takesType = ValueType.NONE;
+        ValueType returnsType = ValueType.NONE;
+        Element[][] lines = null;
+        String desc = "";
+        String descReturnValue = "";
+        String descNotes = "";
+        ParameterDescription[] parameterDescriptions = null;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+
+            if(reader.peek() == JsonToken.NULL){
+                reader.skipValue();
+                continue;
+            }
+
+            switch(key){
+                case "id":
+                    id = reader.nextString();
+                    break;
+                case "name":
+                    name = reader.nextString();
+                    break;
+                case "isDeprecated":
+                    isDeprecated = reader.nextBoolean();
+                    break;
+                case "category":
+                    category = reader.nextInt();
+                    break;
+                case "takes":
+                    takesType = parseValueType(reader.nextString());
+                    break;
+                case "returns":
+                    returnsType = parseValueType(reader.nextString());
+                    break;
+                case "lines":
+                    lines = readLines(reader);
+                    break;
+                case "desc":
+                    desc = reader.nextString();
+                    break;
+                case "descReturnValue":
+                    descReturnValue = reader.nextString();
+                    break;
+                case "descNotes":
+                    descNotes = reader.nextString();
+                    break;
+                case "descParams":
+                    parameterDescriptions = readParameterDescriptions(reader);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        if(id == null || category == null || lines == null){
+            throw new IOException("Invalid format json.");
+        }
+
+        if(name == null){
+            name = id;
+        }
+
+        return new CodeFormat(id, isDeprecated, name, category, returnsType, takesType, lines, desc, descReturnValue, descNotes, parameterDescriptions);
+    }
+
+    private static Element[][] readLines(JsonReader reader) throws IOException {
+        List<Element[]> lines = new ArrayList<>();
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            List<Element> line = new ArrayList<>();
+
+            reader.beginArray();
+            while (reader.hasNext()) {
+                String elementType = null;
+                String value = null;
+
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String key = reader.nextName();
+
+                    if(key.equals("type")){
+                        elementType = reader.nextString();
+                    } else if(key.equals("value") && reader.peek() != JsonToken.NULL){
+                        value = reader.nextString();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+
+                if ("text".equalsIgnoreCase(elementType)){
+                    line.add(new TextParameter(value != null ? value : ""));
+                } else if ("code".equalsIgnoreCase(elementType)){
+                    IOType type = IOType.NONE;
+
+                    if(value != null){
+                        try{
+                            type = IOType.valueOf(value.toUpperCase());
+                        } catch(IllegalArgumentException e){
+                            type = IOType.NONE;
+                        }
+                    }
+
+                    line.add(new ChildParameter(type));
+                } else {
+                    throw new IOException("Invalid format json.");
+                }
+            }
+            reader.endArray();
+
+            lines.add(line.toArray(new Element[0]));
+        }
+        reader.endArray();
+
+        return lines.toArray(new Element[0][]);
+    }
+
+    private static ParameterDescription[] readParameterDescriptions(JsonReader reader) throws IOException {
+        List<ParameterDescription> descriptions = new ArrayList<>();
+        boolean isComplete = true;
+
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String type = null;
+            String desc = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String key = reader.nextName();
+
+                if(key.equals("type") && reader.peek() != JsonToken.NULL){
+                    type = reader.nextString();
+                } else if(key.equals("desc") && reader.peek() != JsonToken.NULL){
+                    desc = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if(type != null && desc != null){
+                descriptions.add(new ParameterDescription(type, desc));
+            } else {
+                isComplete = false;
+            }
+        }
+        reader.endArray();
+
+        // Like in fromJSONObject(), a single incomplete description discards all of them
+        if(!isComplete){
+            return null;
+        }
+
+        return descriptions.toArray(new ParameterDescription[0]);
+    }
+
+    private static ValueType parseValueType(String type){
+        try{
+            return ValueType.valueOf(type.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return ValueType.NONE;
+        }
+    }
+
+    public static void addAll(List<CodeFormat> newFormats){
+        if(formats == null){
+            formats = new ArrayMap<>();
+        }
+
+        for(CodeFormat format : newFormats){
+            formats.put(format.id, format);
+        }
+    }
+
+    /* Reads a JSON object of translations, in the layout addTranslationsFromJSONObject() takes.*/
+    public static JSONObject readTranslations(JsonReader reader) throws IOException {
+        JSONObject readTranslations = new JSONObject();
+
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String languageName = reader.nextName();
+                JSONObject words = new JSONObject();
+
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String wordID = reader.nextName();
+
+                    if(reader.peek() == JsonToken.NULL){
+                        reader.skipValue();
+                    } else {
+                        words.put(wordID, reader.nextString());
+                    }
+                }
+                reader.endObject();
+
+                readTranslations.put(languageName, words);
+            }
+            reader.endObject();
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+
+        return readTranslations;
+    }
+
+
     public static void setAllFormatsDeprecated(){
         if(formats != null){
             for(Map.Entry<String, CodeFormat> entry : formats.entrySet()){
@@ -444,6 +732,19 @@ public class CodeFormat {
     }
 
 
+    public static void setFormatsDeprecated(List<String> ids){
+        if(formats != null){
+            for(String id : ids){
+                CodeFormat format = formats.get(id);
+
+                if(format != null){
+                    format.isDeprecated = true;
+                }
+            }
+        }
+    }
+
+
     public static List<CodeFormat> getAllFormats(boolean onlyNonDeprecated){
         List<CodeFormat> validFormats = new ArrayList<>();
 
@@ -512,6 +813,11 @@ public class CodeFormat {
     }
 
 
+    /* Only isDeprecated changes after a format was created, so the copy shares everything else with it.*/
+    public CodeFormat copy(){
+        return new CodeFormat(id, isDeprecated, name, category, returnsType, takesType, lines, description, returnValueDescription, notes, parameterDescriptions);
+    }
+
     public String getId(){
         return id;
     }
@@ -0,0 +1,160 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/* Compact binary encoding of a function's syntax tree, for devices that can't afford parsing JSON.
+ * All numbers are unsigned LEB128 varints, all strings are UTF-8.
+ *
+ *   function := "RPA" version(1 byte) registryVersion stringTable block
+ *   stringTable := count (length bytes)*
+ *   block := count element*
+ *   element := formatRef paramCount param* blockCount block*
+ *   formatRef := 0 stringIndex | (registryIndex + 1)
+ *   param := 0 element | (stringIndex + 1)
+ *
+ * The registry index is the position of the format id among the sorted ids of all formats, that
+ * aren't deprecated. Ids outside that registry are written to the string table instead.
+ *
+ * Only elements and strings can be params. Functions with other params, e.g. null, throw a JSONException,
+ * since the device would read them back differently, and have to be sent as JSON.*/
+class BinaryAST {
+
+    static final String CONTENT_TYPE = "application/x-remoteprogrammer-ast";
+
+    private static final byte[] MAGIC = {'R', 'P', 'A'};
+    private static final int VERSION = 1;
+
+    private final Map<String, Integer> registryIndices = new HashMap<>();
+
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> stringIndices = new HashMap<>();
+
+
+    private BinaryAST(List<String> registryIds){
+        for(int i = 0; i < registryIds.size(); i++){
+            registryIndices.put(registryIds.get(i), i);
+        }
+    }
+
+
+    static byte[] encode(JSONArray function, List<String> registryIds, long registryVersion) throws JSONException{
+        BinaryAST encoder = new BinaryAST(registryIds);
+
+        // The string table has to precede the tree, so the tree is written first into its own buffer
+        ByteArrayOutputStream tree = new ByteArrayOutputStream();
+        encoder.writeBlock(tree, function);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(tree.size() + 64);
+
+        out.write(MAGIC, 0, MAGIC.length);
+        out.write(VERSION);
+        writeVarint(out, registryVersion);
+
+        writeVarint(out, encoder.strings.size());
+        for(String string : encoder.strings){
+            byte[] bytes = toUTF8(string);
+
+            writeVarint(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+
+        byte[] treeBytes = tree.toByteArray();
+        out.write(treeBytes, 0, treeBytes.length);
+
+        return out.toByteArray();
+    }
+
+
+    private void writeBlock(ByteArrayOutputStream out, JSONArray block) throws JSONException{
+        writeVarint(out, block.length());
+
+        for(int i = 0; i < block.length(); i++){
+            writeElement(out, block.getJSONObject(i));
+        }
+    }
+
+    private void writeElement(ByteArrayOutputStream out, JSONObject element) throws JSONException{
+        String formatId = element.getString("id");
+        Integer registryIndex = registryIndices.get(formatId);
+
+        if(registryIndex != null){
+            writeVarint(out, registryIndex + 1);
+        } else {
+            writeVarint(out, 0);
+            writeVarint(out, getStringIndex(formatId));
+        }
+
+        JSONArray params = element.optJSONArray("params");
+
+        if(params != null){
+            writeVarint(out, params.length());
+
+            for(int i = 0; i < params.length(); i++){
+                Object param = params.get(i);
+
+                if(param instanceof JSONObject){
+                    writeVarint(out, 0);
+                    writeElement(out, (JSONObject) param);
+                } else if(param instanceof String){
+                    writeVarint(out, getStringIndex((String) param) + 1);
+                } else {
+                    throw new JSONException("Param " + param + " of " + formatId + " can't be encoded");
+                }
+            }
+        } else {
+            writeVarint(out, 0);
+        }
+
+        JSONArray blocks = element.optJSONArray("blocks");
+
+        if(blocks != null){
+            writeVarint(out, blocks.length());
+
+            for(int i = 0; i < blocks.length(); i++){
+                writeBlock(out, blocks.getJSONArray(i));
+            }
+        } else {
+            writeVarint(out, 0);
+        }
+    }
+
+    private int getStringIndex(String string){
+        Integer index = stringIndices.get(string);
+
+        if(index == null){
+            index = strings.size();
+
+            strings.add(string);
+            stringIndices.put(string, index);
+        }
+
+        return index;
+    }
+
+
+    private static void writeVarint(ByteArrayOutputStream out, long value){
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        out.write((int) value);
+    }
+
+    private static byte[] toUTF8(String string){
+        try {
+            return string.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
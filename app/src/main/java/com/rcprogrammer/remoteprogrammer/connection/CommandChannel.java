@@ -0,0 +1,252 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/* A long-lived WebSocket connection to the "/channel" endpoint of a device.
+ * Both sides exchange JSON text messages with a "type" and the "id" of the command they belong to:
+ * the app sends "command" messages, the device answers with any number of "output" messages,
+ * followed by a single "done" message.
+ *
+ * Reading happens on its own thread, writing on a single background thread, and the listener is
+ * always called on the main thread.*/
+class CommandChannel {
+
+    static final String TYPE_COMMAND = "command";
+    static final String TYPE_OUTPUT = "output";
+    static final String TYPE_DONE = "done";
+
+    private final String baseURL;
+    private final int connectionTimeout;
+    private final Listener listener;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService writer = Executors.newSingleThreadExecutor();
+
+    private volatile Socket socket;
+    private volatile boolean isOpen = false;
+    private volatile boolean isClosed = false;
+    private boolean closeNotified = false;
+
+
+    CommandChannel(String baseURL, int connectionTimeout, Listener listener){
+        this.baseURL = baseURL;
+        this.connectionTimeout = connectionTimeout;
+        this.listener = listener;
+    }
+
+
+    void open(){
+        Thread readerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    connect();
+                    readMessages();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                } finally {
+                    closeSocket();
+                }
+            }
+        }, "CommandChannel");
+
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    boolean isOpen(){
+        return isOpen;
+    }
+
+    /* If the message can't be written, e.g. because the connection broke, the listener's onSendFailed() is called
+     * with it, so it can be sent another way.*/
+    void send(final JSONObject message){
+        if(!isOpen || isClosed){
+            notifySendFailed(message);
+            return;
+        }
+
+        try {
+            writer.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        WebSocketFrames.writeFrame(socket.getOutputStream(), WebSocketFrames.OPCODE_TEXT, message.toString().getBytes("UTF-8"), true);
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        notifySendFailed(message);
+                        closeSocket();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // The channel was closed in the meantime
+            notifySendFailed(message);
+        }
+    }
+
+    void close(){
+        isClosed = true;
+
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                Socket currentSocket = socket;
+
+                if(currentSocket != null && isOpen){
+                    try {
+                        WebSocketFrames.writeFrame(currentSocket.getOutputStream(), WebSocketFrames.OPCODE_CLOSE, new byte[0], true);
+                    } catch (IOException e) {
+                        // The connection is closed anyway
+                    }
+                }
+
+                closeSocket();
+            }
+        });
+
+        writer.shutdown();
+    }
+
+
+    private void connect() throws IOException{
+        URL url = new URL(baseURL);
+        int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+
+        Socket newSocket = new Socket();
+        newSocket.connect(new InetSocketAddress(url.getHost(), port), connectionTimeout);
+        newSocket.setTcpNoDelay(true);
+        socket = newSocket;
+
+        if(isClosed){
+            throw new IOException("Channel closed while connecting.");
+        }
+
+        String key = WebSocketFrames.createKey();
+        String path = (url.getPath().endsWith("/") ? url.getPath().substring(0, url.getPath().length() - 1) : url.getPath()) + "/channel";
+
+        String request = "GET " + path + " HTTP/1.1\r\n" +
+                "Host: " + url.getHost() + ":" + port + "\r\n" +
+                "Upgrade: websocket\r\n" +
+                "Connection: Upgrade\r\n" +
+                "Sec-WebSocket-Key: " + key + "\r\n" +
+                "Sec-WebSocket-Version: 13\r\n" +
+                "\r\n";
+
+        OutputStream out = newSocket.getOutputStream();
+        out.write(request.getBytes("UTF-8"));
+        out.flush();
+
+        newSocket.setSoTimeout(connectionTimeout);
+        String response = WebSocketFrames.readHeader(new BufferedInputStream(newSocket.getInputStream(), 1));
+        newSocket.setSoTimeout(0);
+
+        if(!response.startsWith("HTTP/1.1 101") || !WebSocketFrames.acceptKey(key).equals(WebSocketFrames.getHeaderValue(response, "Sec-WebSocket-Accept"))){
+            throw new IOException("Device refused command channel.");
+        }
+
+        isOpen = true;
+    }
+
+    private void readMessages() throws IOException{
+        WebSocketFrames.MessageReader reader = new WebSocketFrames.MessageReader(new BufferedInputStream(socket.getInputStream()));
+
+        while (!isClosed) {
+            WebSocketFrames.Message message = reader.read();
+
+            switch(message.opcode){
+                case WebSocketFrames.OPCODE_TEXT:
+                    try {
+                        final JSONObject messageJSON = new JSONObject(new String(message.payload, "UTF-8"));
+
+                        mainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                listener.onMessage(messageJSON);
+                            }
+                        });
+                    } catch (JSONException e) {
+                        e.printStackTrace();
+                    }
+                    break;
+                case WebSocketFrames.OPCODE_PING:
+                    final byte[] payload = message.payload;
+
+                    execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                WebSocketFrames.writeFrame(socket.getOutputStream(), WebSocketFrames.OPCODE_PONG, payload, true);
+                            } catch (IOException e) {
+                                closeSocket();
+                            }
+                        }
+                    });
+                    break;
+                case WebSocketFrames.OPCODE_CLOSE:
+                    return;
+            }
+        }
+    }
+
+    private void execute(Runnable task){
+        try {
+            writer.execute(task);
+        } catch (RejectedExecutionException e) {
+            // The channel was closed in the meantime
+        }
+    }
+
+    private void notifySendFailed(final JSONObject message){
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onSendFailed(message);
+            }
+        });
+    }
+
+    private synchronized void closeSocket(){
+        isOpen = false;
+
+        if(socket != null){
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing left to clean up
+            }
+        }
+
+        if(!closeNotified){
+            closeNotified = true;
+
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onClosed(CommandChannel.this);
+                }
+            });
+        }
+    }
+
+
+    interface Listener {
+        void onMessage(JSONObject message);
+        void onSendFailed(JSONObject message);
+        void onClosed(CommandChannel channel);
+    }
+}
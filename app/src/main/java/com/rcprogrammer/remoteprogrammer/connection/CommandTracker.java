@@ -0,0 +1,92 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import android.os.SystemClock;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/* Hands out command ids and keeps track of the commands, that still expect output.
+ * Ids are unique across app restarts, since they start from the current time, scaled up far enough
+ * that the counter can't catch up with a later start.
+ *
+ * Output for a command is only delivered until that command is completed, so late or duplicated
+ * responses are always dropped, no matter in which order they arrive.*/
+class CommandTracker {
+
+    private static final long MAX_PENDING_AGE = 10 * 60 * 1000;
+    private static final double LATENCY_SMOOTHING = 0.125;
+
+    private long nextId = System.currentTimeMillis() * 1000;
+
+    private final Map<Long, PendingCommand> pendingCommands = new HashMap<>();
+
+    private long averageLatency = -1;
+
+
+    long register(){
+        long now = SystemClock.elapsedRealtime();
+
+        // Commands, that never got completed (e.g. because the device went away), are forgotten eventually
+        Iterator<PendingCommand> iterator = pendingCommands.values().iterator();
+        while (iterator.hasNext()) {
+            if(now - iterator.next().sentAt > MAX_PENDING_AGE){
+                iterator.remove();
+            }
+        }
+
+        long id = nextId++;
+        pendingCommands.put(id, new PendingCommand(now));
+
+        return id;
+    }
+
+    /* Tracks a command again, that was registered before, e.g. by an earlier run of the app, and is sent now.*/
+    void reopen(long id){
+        pendingCommands.put(id, new PendingCommand(SystemClock.elapsedRealtime()));
+
+        nextId = Math.max(nextId, id + 1);
+    }
+
+    /* Returns whether output for the given command should still be delivered.*/
+    boolean onOutput(long id){
+        PendingCommand command = pendingCommands.get(id);
+
+        if(command == null){
+            return false;
+        }
+
+        if(!command.isAnswered){
+            command.isAnswered = true;
+
+            long latency = SystemClock.elapsedRealtime() - command.sentAt;
+
+            if(averageLatency < 0){
+                averageLatency = latency;
+            } else {
+                averageLatency = Math.round((1 - LATENCY_SMOOTHING) * averageLatency + LATENCY_SMOOTHING * latency);
+            }
+        }
+
+        return true;
+    }
+
+    void complete(long id){
+        pendingCommands.remove(id);
+    }
+
+    /* Smoothed time between sending a command and its first output, or -1 if there is none yet.*/
+    long getAverageLatency(){
+        return averageLatency;
+    }
+
+
+    private static class PendingCommand {
+        final long sentAt;
+        boolean isAnswered = false;
+
+        PendingCommand(long sentAt){
+            this.sentAt = sentAt;
+        }
+    }
+}
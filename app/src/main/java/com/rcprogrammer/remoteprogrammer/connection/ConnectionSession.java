@@ -0,0 +1,639 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.JsonReader;
+
+import com.rcprogrammer.remoteprogrammer.codeeditor.codeview.CodeFormat;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/* One attempt to connect to a device. It reads the device's info, downloads the parts of its code syntax, that
+ * changed, and then applies all of them at once in the commit phase, so a failed or cancelled session leaves the
+ * registry as it was. When switching to a device, whose syntax is in the RegistryCache, that copy is restored in
+ * the commit phase, and only the parts, that changed since, are downloaded. Devices supporting "lang_select" only
+ * send the translations of the code language and "default", the other languages are fetched once they are used.
+ * Complete syntax resources are requested through the ResponseCache, so a resource, that didn't change, even
+ * though its change time did, is neither downloaded nor parsed again.
+ *
+ * Each phase times out once its requests could have finished. All attempts of a request count from when the
+ * transport dispatched it, and the time it waits in the transport's queues until then is limited separately.
+ * All requests are tagged with the session, and are cancelled with it. Once a session is finished or cancelled,
+ * its listener is never called again.
+ *
+ * Must only be used from the main thread.*/
+class ConnectionSession {
+
+    // How long the requests of a phase may wait in the queues of the transport, before their first attempt starts
+    private static final int MAX_QUEUE_TIME = 10000;
+
+    // Added to the attempts of a dispatched request, for delivering its answer to the main thread
+    private static final int PHASE_TIMEOUT_MARGIN = 1000;
+
+    private final Context context;
+    private final String deviceURL;
+    private final DeviceTransport transport;
+    private final int connectionTimeout;
+    private final SyncManifest syncManifest;
+    private final RegistryCache registryCache;
+    private final ResponseCache responseCache;
+    private final String codeLanguage;
+    private final Listener listener;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private Phase phase = Phase.NEW;
+
+    // In SystemClock.uptimeMillis(), or 0 if the phase has no timeout
+    private long phaseDeadline = 0;
+
+    private FormatUpdate receivedFormats = null;
+    private JSONObject langJSONObject = null;
+    private JSONArray categoryJSONArray = null;
+
+    private boolean formatUpToDate = false;
+    private boolean langUpToDate = false;
+    private boolean categoryUpToDate = false;
+
+    private String deviceKey;
+
+    // The change times of the device's cached syntax, if it has to be restored from the RegistryCache, otherwise null
+    private Map<String, Long> cachedChangeTimes = null;
+
+    // The change time of the formats, that are applied for this device, or -1 if there are none
+    private long appliedFormatChangeTime = -1;
+
+    private long formatChangeTime = -1;
+    private long langChangeTime = -1;
+    private long categoryChangeTime = -1;
+
+    private int pendingSyntaxRequests = 0;
+
+    // All languages of the device, if it supports "lang_select", otherwise null
+    private List<String> deviceLanguages = null;
+
+    private DeviceCapabilities capabilities = DeviceCapabilities.none();
+
+    private Map<String, Long> functionSyncDates = null;
+    private String deviceFunctionRoot = null;
+
+
+    ConnectionSession(Context context, String deviceURL, DeviceTransport transport, int connectionTimeout, SyncManifest syncManifest,
+                      RegistryCache registryCache, ResponseCache responseCache, String codeLanguage, Listener listener){
+        this.context = context;
+        this.deviceURL = deviceURL;
+        this.deviceKey = deviceURL;
+        this.transport = transport;
+        this.connectionTimeout = connectionTimeout;
+        this.syncManifest = syncManifest;
+        this.registryCache = registryCache;
+        this.responseCache = responseCache;
+        this.codeLanguage = codeLanguage;
+        this.listener = listener;
+    }
+
+
+    void start(){
+        if(phase != Phase.NEW){
+            return;
+        }
+
+        enterPhase(Phase.INFO);
+        requestInfo();
+    }
+
+    /* Drops the session's requests. Nothing, that it downloaded, is applied.*/
+    void cancel(){
+        if(isFinished()){
+            return;
+        }
+
+        phase = Phase.CANCELLED;
+        stop();
+    }
+
+    boolean isFinished(){
+        return phase == Phase.SUCCEEDED || phase == Phase.FAILED || phase == Phase.CANCELLED;
+    }
+
+
+    String getDeviceURL(){
+        return deviceURL;
+    }
+
+    DeviceCapabilities getCapabilities(){
+        return capabilities;
+    }
+
+    /* -1, if the device's info couldn't be read.*/
+    long getFormatChangeTime(){
+        return formatChangeTime;
+    }
+
+    /* null, if the device didn't report its functions.*/
+    Map<String, Long> getFunctionSyncDates(){
+        return functionSyncDates;
+    }
+
+    String getDeviceFunctionRoot(){
+        return deviceFunctionRoot;
+    }
+
+
+    /* The phase times out once the requests, that are sent in it, could have finished, see send().*/
+    private void enterPhase(Phase newPhase){
+        phase = newPhase;
+        phaseDeadline = 0;
+
+        mainHandler.removeCallbacks(phaseTimeout);
+    }
+
+    /* Moves the timeout of the phase, unless it's later already.*/
+    private void extendPhase(int timeout){
+        long deadline = SystemClock.uptimeMillis() + timeout;
+
+        if(deadline > phaseDeadline){
+            phaseDeadline = deadline;
+
+            mainHandler.removeCallbacks(phaseTimeout);
+            mainHandler.postAtTime(phaseTimeout, deadline);
+        }
+    }
+
+    /* Sends a request of the current phase. The phase gets the time all attempts of the request take, once it
+     * was dispatched, and until then, the time it may wait in the queues of the transport.*/
+    private void send(final DeviceRequest<?> request){
+        final Phase requestPhase = phase;
+
+        request.setTag(this);
+        request.setDispatchListener(new Runnable() {
+            @Override
+            public void run() {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(phase == requestPhase){
+                            extendPhase(request.getTotalTimeout() + PHASE_TIMEOUT_MARGIN);
+                        }
+                    }
+                });
+            }
+        });
+
+        extendPhase(MAX_QUEUE_TIME + request.getTotalTimeout() + PHASE_TIMEOUT_MARGIN);
+
+        transport.send(request);
+    }
+
+    private final Runnable phaseTimeout = new Runnable() {
+        @Override
+        public void run() {
+            fail();
+        }
+    };
+
+    private void stop(){
+        mainHandler.removeCallbacks(phaseTimeout);
+        transport.cancelAll(this);
+    }
+
+    private void fail(){
+        if(isFinished()){
+            return;
+        }
+
+        phase = Phase.FAILED;
+        stop();
+
+        listener.onSessionFinished(this, false);
+    }
+
+
+    private void requestInfo(){
+        String subURL = deviceURL + "/info";
+
+        DeviceRequest<JSONObject> infoRequest = new DeviceRequest<>(DeviceRequest.GET, subURL, ResponseParsers.JSON_OBJECT,
+                new DeviceRequest.Listener<JSONObject>() {
+                    @Override
+                    public void onResponse(JSONObject response) {
+                        if(phase != Phase.INFO){
+                            return;
+                        }
+
+                        readInfo(response);
+                        requestSyntax();
+                    }
+
+                    @Override
+                    public void onError(int statusCode, Exception cause) {
+                        if(phase == Phase.INFO){
+                            fail();
+                        }
+                    }
+                }
+        );
+
+        infoRequest.setRetryPolicy(connectionTimeout, DeviceRequest.DEFAULT_MAX_RETRIES);
+
+        send(infoRequest);
+    }
+
+    private void readInfo(JSONObject info){
+        try {
+            formatChangeTime = info.getLong("format");
+            categoryChangeTime = info.getLong("categories");
+            langChangeTime = info.getLong("lang");
+
+            capabilities = DeviceCapabilities.fromInfo(info);
+
+            if(capabilities.supports(DeviceCapabilities.LANG_SELECT) && info.has("languages")){
+                JSONArray languageArray = info.getJSONArray("languages");
+                deviceLanguages = new ArrayList<>();
+
+                for(int i = 0; i < languageArray.length(); i++){
+                    deviceLanguages.add(languageArray.getString(i));
+                }
+            }
+
+            if(info.has("functionRoot")){
+                deviceFunctionRoot = info.getString("functionRoot");
+            }
+
+            deviceKey = RegistryCache.getDeviceKey(deviceURL, info.optString("id", null));
+
+            if(!deviceKey.equals(syncManifest.getDevice())){
+                cachedChangeTimes = registryCache.getChangeTimes(deviceKey);
+            }
+
+            // Only resources that changed since they were last applied need to be downloaded again
+            if(cachedChangeTimes != null){
+                if(cachedChangeTimes.containsKey(SyncManifest.FORMAT)){
+                    appliedFormatChangeTime = cachedChangeTimes.get(SyncManifest.FORMAT);
+                }
+
+                formatUpToDate = isCachedUpToDate(SyncManifest.FORMAT, formatChangeTime);
+                langUpToDate = isCachedUpToDate(SyncManifest.LANG, langChangeTime);
+                categoryUpToDate = isCachedUpToDate(SyncManifest.CATEGORIES, categoryChangeTime);
+            } else {
+                Long manifestFormatChangeTime = syncManifest.getChangeTimes().get(SyncManifest.FORMAT);
+
+                if(deviceKey.equals(syncManifest.getDevice()) && manifestFormatChangeTime != null && !CodeFormat.getAllFormats(false).isEmpty()){
+                    appliedFormatChangeTime = manifestFormatChangeTime;
+                }
+
+                formatUpToDate = !CodeFormat.getAllFormats(false).isEmpty()
+                        && syncManifest.isUpToDate(deviceKey, SyncManifest.FORMAT, formatChangeTime);
+                langUpToDate = CodeFormat.hasTranslations()
+                        && syncManifest.isUpToDate(deviceKey, SyncManifest.LANG, langChangeTime);
+                categoryUpToDate = CodeFormat.getNumOfCategories() > 0
+                        && syncManifest.isUpToDate(deviceKey, SyncManifest.CATEGORIES, categoryChangeTime);
+            }
+
+            if(info.has("functions")) {
+                functionSyncDates = new HashMap<>();
+                JSONObject functionSyncDatesJSON = info.getJSONObject("functions");
+
+                Iterator<String> keyList = functionSyncDatesJSON.keys();
+                while (keyList.hasNext()) {
+                    String key = keyList.next();
+
+                    functionSyncDates.put(key, functionSyncDatesJSON.getLong(key));
+                }
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private boolean isCachedUpToDate(String resource, long changeTime){
+        Long cachedChangeTime = cachedChangeTimes.get(resource);
+
+        return cachedChangeTime != null && cachedChangeTime == changeTime;
+    }
+
+    private void requestSyntax(){
+        pendingSyntaxRequests = 0;
+
+        if(!formatUpToDate){
+            pendingSyntaxRequests++;
+        }
+
+        if(!langUpToDate){
+            pendingSyntaxRequests++;
+        }
+
+        if(!categoryUpToDate){
+            pendingSyntaxRequests++;
+        }
+
+        if(pendingSyntaxRequests == 0){
+            commit();
+            return;
+        }
+
+        // All outdated resources are requested at once, and only applied once every one of them arrived
+        enterPhase(Phase.SYNTAX);
+
+        if(!formatUpToDate){
+            requestCodeFormats();
+        }
+
+        if(!langUpToDate){
+            requestCodeLanguages();
+        }
+
+        if(!categoryUpToDate){
+            requestCodeCategories();
+        }
+    }
+
+    private void onSyntaxRequestFinished(boolean succeeded){
+        if(phase != Phase.SYNTAX){
+            return;
+        }
+
+        if(!succeeded){
+            fail();
+            return;
+        }
+
+        pendingSyntaxRequests--;
+
+        if(pendingSyntaxRequests == 0){
+            commit();
+        }
+    }
+
+    private void requestCodeFormats(){
+        String subURL = deviceURL + "/code_syntax/format";
+
+        // Formats are parsed on the network thread, and only added to the registry in commit()
+        DeviceRequest.Parser<FormatUpdate> formatParser = ResponseParsers.streaming(new ResponseParsers.StreamParser<FormatUpdate>() {
+            @Override
+            public FormatUpdate parse(JsonReader reader) throws IOException {
+                return FormatUpdate.read(reader);
+            }
+        });
+
+        DeviceRequest.Listener<FormatUpdate> formatListener = new DeviceRequest.Listener<FormatUpdate>() {
+            @Override
+            public void onResponse(FormatUpdate response) {
+                if(phase == Phase.SYNTAX){
+                    receivedFormats = response;
+                    onSyntaxRequestFinished(true);
+                }
+            }
+
+            @Override
+            public void onError(int statusCode, Exception cause) {
+                onSyntaxRequestFinished(false);
+            }
+        };
+
+        DeviceRequest<FormatUpdate> formatRequest;
+
+        // Devices supporting it only send the formats, that changed since the ones, that are applied. Such a delta
+        // is different for every applied change time, so it isn't cached.
+        if(appliedFormatChangeTime >= 0 && capabilities.supports(DeviceCapabilities.FORMAT_DELTA)){
+            formatRequest = new DeviceRequest<>(DeviceRequest.GET, subURL + "?since=" + appliedFormatChangeTime, formatParser, formatListener);
+        } else {
+            formatRequest = responseCache.newRequest(subURL, formatParser, formatListener);
+        }
+
+        formatRequest.setRetryPolicy(connectionTimeout, DeviceRequest.DEFAULT_MAX_RETRIES);
+
+        send(formatRequest);
+    }
+
+    private void requestCodeLanguages(){
+        String subURL = deviceURL + "/code_syntax/lang";
+
+        if(deviceLanguages != null){
+            subURL += "?langs=" + getRequestedLanguages();
+        }
+
+        DeviceRequest<JSONObject> langRequest = responseCache.newRequest(subURL,
+                ResponseParsers.streaming(new ResponseParsers.StreamParser<JSONObject>() {
+                    @Override
+                    public JSONObject parse(JsonReader reader) throws IOException {
+                        return CodeFormat.readTranslations(reader);
+                    }
+                }),
+
+                new DeviceRequest.Listener<JSONObject>() {
+                    @Override
+                    public void onResponse(JSONObject response) {
+                        if(phase == Phase.SYNTAX){
+                            langJSONObject = response;
+                            onSyntaxRequestFinished(true);
+                        }
+                    }
+
+                    @Override
+                    public void onError(int statusCode, Exception cause) {
+                        onSyntaxRequestFinished(false);
+                    }
+                }
+        );
+
+        langRequest.setRetryPolicy(connectionTimeout, DeviceRequest.DEFAULT_MAX_RETRIES);
+
+        send(langRequest);
+    }
+
+    /* The code language, if the device has it, and "default", separated by commas.*/
+    private String getRequestedLanguages(){
+        String languages = "default";
+
+        if(codeLanguage != null && deviceLanguages.contains(codeLanguage)){
+            try {
+                languages = URLEncoder.encode(codeLanguage, "UTF-8") + "," + languages;
+            } catch (UnsupportedEncodingException e) {
+                e.printStackTrace();
+            }
+        }
+
+        return languages;
+    }
+
+    private void requestCodeCategories(){
+        String subURL = deviceURL + "/code_syntax/categories";
+
+        DeviceRequest<JSONArray> categoryRequest = responseCache.newRequest(subURL, ResponseParsers.JSON_ARRAY,
+                new DeviceRequest.Listener<JSONArray>() {
+                    @Override
+                    public void onResponse(JSONArray response) {
+                        if(phase == Phase.SYNTAX){
+                            categoryJSONArray = response;
+                            onSyntaxRequestFinished(true);
+                        }
+                    }
+
+                    @Override
+                    public void onError(int statusCode, Exception cause) {
+                        onSyntaxRequestFinished(false);
+                    }
+                }
+        );
+
+        categoryRequest.setRetryPolicy(connectionTimeout, DeviceRequest.DEFAULT_MAX_RETRIES);
+
+        send(categoryRequest);
+    }
+
+    /* Applies everything, that was downloaded, to the registry, and saves it. Runs without interruption on the
+     * main thread, so no other session can apply its results in between.*/
+    private void commit(){
+        enterPhase(Phase.COMMIT);
+
+        boolean succeeded = false;
+
+        try {
+            String previousDeviceKey = syncManifest.getDevice();
+
+            // Keeps the previous device's syntax, e.g. one that was stored before there was a cache, before it's replaced
+            if(previousDeviceKey != null && !previousDeviceKey.equals(deviceKey) && syncManifest.isComplete()){
+                registryCache.store(previousDeviceKey, syncManifest.getChangeTimes());
+            }
+
+            if(cachedChangeTimes != null){
+                restoreFromCache();
+            }
+
+            if(!formatUpToDate){
+                receivedFormats.apply();
+            }
+
+            if(!langUpToDate) {
+                // The registry changes the translations it holds, but the ResponseCache may hand these out again
+                JSONObject translations = copyTranslations(langJSONObject);
+
+                if(deviceLanguages != null){
+                    // The languages, that weren't requested, might be outdated, so they are downloaded again once they're used
+                    CodeFormat.setTranslations(translations, deviceLanguages);
+                } else {
+                    CodeFormat.addTranslationsFromJSONObject(translations);
+                }
+            }
+
+            if(!categoryUpToDate){
+                CodeFormat.addCategoriesFromJSONArray(categoryJSONArray);
+            }
+
+            succeeded = true;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        if(succeeded){
+            save();
+        }
+
+        phase = succeeded ? Phase.SUCCEEDED : Phase.FAILED;
+
+        listener.onSessionFinished(this, succeeded);
+    }
+
+    private static JSONObject copyTranslations(JSONObject translations) throws JSONException{
+        JSONObject copy = new JSONObject();
+
+        Iterator<String> langIterator = translations.keys();
+
+        while (langIterator.hasNext()) {
+            String languageName = langIterator.next();
+            JSONObject words = translations.getJSONObject(languageName);
+            JSONObject copiedWords = new JSONObject();
+
+            Iterator<String> wordIterator = words.keys();
+
+            while (wordIterator.hasNext()) {
+                String wordID = wordIterator.next();
+                copiedWords.put(wordID, words.get(wordID));
+            }
+
+            copy.put(languageName, copiedWords);
+        }
+
+        return copy;
+    }
+
+    /* Replaces the registry with the device's cached one.*/
+    private void restoreFromCache() throws Exception{
+        // Until the restored files are complete, the stored syntax belongs to no device
+        syncManifest.clear();
+        syncManifest.save();
+
+        if(!registryCache.restore(deviceKey)){
+            throw new IOException("The cached syntax of " + deviceURL + " couldn't be restored");
+        }
+
+        syncManifest.setDevice(deviceKey, cachedChangeTimes);
+        syncManifest.save();
+
+        CodeFormat.clearAll();
+
+        CodeFormat.loadFormats(context);
+        CodeFormat.loadTranslations(context);
+        CodeFormat.loadCategories(context);
+    }
+
+    private void save(){
+        boolean saved = false;
+
+        try {
+            CodeFormat.saveFormats(context);
+            CodeFormat.saveTranslations(context);
+            CodeFormat.saveCategories(context);
+
+            saved = true;
+        } catch(Exception e) {
+            e.printStackTrace();
+        }
+
+        try {
+            // Change times are only known if "/info" could be read completely
+            if(formatChangeTime >= 0 && langChangeTime >= 0 && categoryChangeTime >= 0){
+                syncManifest.setApplied(deviceKey, SyncManifest.FORMAT, formatChangeTime);
+                syncManifest.setApplied(deviceKey, SyncManifest.LANG, langChangeTime);
+                syncManifest.setApplied(deviceKey, SyncManifest.CATEGORIES, categoryChangeTime);
+                syncManifest.save();
+
+                if(saved){
+                    registryCache.store(deviceKey, syncManifest.getChangeTimes());
+                }
+            }
+        } catch(Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+
+    enum Phase {
+        NEW,
+        INFO,
+        SYNTAX,
+        COMMIT,
+        SUCCEEDED,
+        FAILED,
+        CANCELLED
+    }
+
+    interface Listener {
+        /* Not called for cancelled sessions. If succeeded is false, the registry may have been changed partly,
+         * and has to be loaded again.*/
+        void onSessionFinished(ConnectionSession session, boolean succeeded);
+    }
+}
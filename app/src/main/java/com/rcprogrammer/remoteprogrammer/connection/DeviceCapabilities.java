@@ -0,0 +1,53 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/* Optional protocol features, a device advertises in the "capabilities" array of "/info".
+ * Devices that don't send this array only support the basic protocol.*/
+class DeviceCapabilities {
+
+    static final String BATCH_UPLOAD = "batch_upload";
+    static final String FUNCTION_HASHES = "function_hashes";
+    static final String GZIP_UPLOAD = "gzip_upload";
+    static final String BINARY_AST = "binary_ast";
+    static final String COMMAND_CHANNEL = "command_channel";
+    static final String JSON_PATCH = "json_patch";
+    static final String FORMAT_DELTA = "format_delta";
+    static final String LANG_SELECT = "lang_select";
+
+    private final Set<String> capabilities;
+
+
+    private DeviceCapabilities(Set<String> capabilities){
+        this.capabilities = capabilities;
+    }
+
+
+    static DeviceCapabilities none(){
+        return new DeviceCapabilities(new HashSet<String>());
+    }
+
+    static DeviceCapabilities fromInfo(JSONObject info) throws JSONException{
+        Set<String> capabilities = new HashSet<>();
+
+        if(info.has("capabilities")){
+            JSONArray capabilityArray = info.getJSONArray("capabilities");
+
+            for(int i = 0; i < capabilityArray.length(); i++){
+                capabilities.add(capabilityArray.getString(i));
+            }
+        }
+
+        return new DeviceCapabilities(capabilities);
+    }
+
+
+    boolean supports(String capability){
+        return capabilities.contains(capability);
+    }
+}
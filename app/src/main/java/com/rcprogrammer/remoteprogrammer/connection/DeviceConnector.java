@@ -1,91 +1,280 @@
 package com.rcprogrammer.remoteprogrammer.connection;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.JsonReader;
 
-import com.android.volley.DefaultRetryPolicy;
-import com.android.volley.Request;
-import com.android.volley.RequestQueue;
-import com.android.volley.Response;
-import com.android.volley.RetryPolicy;
-import com.android.volley.VolleyError;
-import com.android.volley.toolbox.JsonArrayRequest;
-import com.android.volley.toolbox.JsonObjectRequest;
-import com.android.volley.toolbox.Volley;
 import com.rcprogrammer.remoteprogrammer.codeeditor.codeview.CodeFormat;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStreamReader;
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 
 public class DeviceConnector {
 
+    // Saves within this time are uploaded together
+    private static final long PUSH_DELAY = 500;
+
+    // Automatic reconnects wait up to twice as long after every failed attempt, but never longer than the maximum
+    private static final long RECONNECT_BASE_DELAY = 1000;
+    private static final long RECONNECT_MAX_DELAY = 60000;
+
+    private static DeviceConnector shared = null;
+
     private Context context;
 
-    private RequestQueue queue;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private DeviceTransport transport;
 
     private ConnectionListener connectionListener;
     private CommandResponseListener commandResponseListener;
 
-    private RetryPolicy retryPolicy;
+    private int connectionTimeout;
+
+    private CommandChannel commandChannel = null;
+    private final CommandTracker commandTracker = new CommandTracker();
+
+    // The running connection attempt, or null
+    private ConnectionSession session = null;
+
+    private String codeLanguage = null;
+    private final Object languageRequestTag = new Object();
+
+    private final LinkMonitor linkMonitor;
+    private LinkListener linkListener;
 
-    private boolean isConnecting = false;
+    // Set once the link to a connected device was lost, until a connection succeeds again
+    private boolean reconnectOnFailure = false;
+    private boolean isReconnecting = false;
+    private int reconnectAttempts = 0;
+    private final Random random = new Random();
 
     private String baseURL;
     private String currBaseURL;
 
-    private JSONArray formatJSONArray = null;
-    private JSONObject langJSONObject = null;
-    private JSONArray categoryJSONArray = null;
+    private long formatChangeTime = -1;
 
-    private boolean formatUpToDate = false;
-    private boolean langUpToDate = false;
-    private boolean categoryUpToDate = false;
+    private SyncManifest syncManifest;
+    private RegistryCache registryCache;
+    private ResponseCache responseCache;
+
+    private DeviceCapabilities capabilities = DeviceCapabilities.none();
+
+    private FunctionUploader functionUploader;
+    private final Object uploadTag = new Object();
 
     private Map<String, Long> functionSyncDates;
+    private String deviceFunctionRoot;
+
+    private final Set<String> functionsToPush = new HashSet<>();
+
+    private final Outbox outbox;
+    private Outbox.Entry replayedCommand = null;
+    private OutboxListener outboxListener;
+
+    private FunctionUploadListener functionUploadListener;
 
 
     public DeviceConnector(Context context, String baseURL, int connectionTimeout, ConnectionListener connectionListener){
+        this(context, baseURL, connectionTimeout, connectionListener, new PriorityTransport(new VolleyTransport(context)));
+    }
+
+    public DeviceConnector(Context context, String baseURL, int connectionTimeout, ConnectionListener connectionListener, DeviceTransport transport){
         this.context = context;
         this.connectionListener = connectionListener;
         this.baseURL = baseURL;
-        this.retryPolicy = new DefaultRetryPolicy(
-                connectionTimeout,
-                DefaultRetryPolicy.DEFAULT_MAX_RETRIES,
-                DefaultRetryPolicy.DEFAULT_BACKOFF_MULT
-        );
+        this.connectionTimeout = connectionTimeout;
+        this.transport = transport;
+
+        syncManifest = SyncManifest.load(context);
+        registryCache = RegistryCache.load(context);
+        responseCache = ResponseCache.load(context);
+        File functionsDir = new File(context.getFilesDir().getAbsolutePath() + File.separator + "functions");
+        functionUploader = new FunctionUploader(functionsDir, FunctionManifest.load(context), FunctionVersionStore.open(context));
+
+        outbox = Outbox.load(context);
+
+        linkMonitor = new LinkMonitor(new LinkMonitor.Listener() {
+            @Override
+            public void onLinkChanged() {
+                notifyLinkChanged();
+            }
+
+            @Override
+            public void onLinkLost() {
+                closeCommandChannel();
 
-        queue = Volley.newRequestQueue(context);
+                reconnectOnFailure = true;
+                reconnectAttempts = 0;
+                scheduleReconnect();
+
+                connectionListener.onConnectionResult(false, new HashSet<String>());
+            }
+        });
+
+        functionUploader.setListener(new FunctionUploader.UploadListener() {
+            @Override
+            public void onFunctionUploaded(String deviceURL, String functionName, boolean succeeded) {
+                // Uploads, that failed for good, wait in the outbox until a sync delivers them
+                if(succeeded){
+                    outbox.removeUpload(deviceURL, functionName);
+                } else {
+                    outbox.addUpload(deviceURL, functionName);
+                }
+
+                notifyOutboxChanged();
+
+                if(functionUploadListener != null){
+                    functionUploadListener.onFunctionUploaded(functionName, succeeded);
+                }
+            }
+        });
+
+        functionUploader.setProgressListener(new FunctionUploader.ProgressListener() {
+            @Override
+            public void onProgress(int finished, int failed, int total) {
+                if(finished + failed == total){
+                    removeDeliveredUploads(total == 0);
+                }
+            }
+        });
     }
 
 
+    /* Starts a new connection to the base URL. A connection, that is still running, is cancelled, and none of its
+     * results are applied.*/
     public void connect(){
+        mainHandler.removeCallbacks(reconnect);
+        isReconnecting = false;
+
+        startSession();
+    }
+
+    private void startSession(){
+        linkMonitor.stop();
+        transport.cancelAll(languageRequestTag);
+
+        if(session != null){
+            session.cancel();
+            session = null;
+        }
+
         loadData();
 
-        formatJSONArray = null;
-        langJSONObject = null;
-        categoryJSONArray = null;
+        formatChangeTime = -1;
+        capabilities = DeviceCapabilities.none();
+
+        closeCommandChannel();
 
-        formatUpToDate = false;
-        langUpToDate = false;
-        categoryUpToDate = false;
+        // A new connection uploads everything unacknowledged anyway
+        functionUploader.cancel();
+
+        // Uploads to the previous device are dropped, its functions are synced when it's connected again
+        if(currBaseURL != null && !currBaseURL.equals(baseURL)){
+            transport.cancelAll(uploadTag);
+        }
 
         functionSyncDates = null;
+        deviceFunctionRoot = null;
 
         currBaseURL = baseURL;
 
-        isConnecting = true;
+        session = new ConnectionSession(context, currBaseURL, transport, connectionTimeout, syncManifest, registryCache, responseCache, codeLanguage, new ConnectionSession.Listener() {
+            @Override
+            public void onSessionFinished(ConnectionSession finishedSession, boolean succeeded) {
+                if(finishedSession == session){
+                    session = null;
+                    finish(finishedSession, succeeded);
+                }
+            }
+        });
+
+        session.start();
+
+        notifyLinkChanged();
+    }
+
+    /* Waits a random time up to the current backoff before the next attempt, so apps, that lost the same
+     * robot at once, don't all reconnect at the same moment.*/
+    private void scheduleReconnect(){
+        long maxDelay = Math.min(RECONNECT_MAX_DELAY, RECONNECT_BASE_DELAY << Math.min(reconnectAttempts, 16));
+
+        reconnectAttempts++;
+
+        mainHandler.removeCallbacks(reconnect);
+        mainHandler.postDelayed(reconnect, (long) (random.nextDouble() * maxDelay));
+
+        notifyLinkChanged();
+    }
+
+    private final Runnable reconnect = new Runnable() {
+        @Override
+        public void run() {
+            isReconnecting = true;
+
+            startSession();
+        }
+    };
+
+    /* Stops all connection attempts, heartbeats, automatic reconnects and uploads, e.g. when the app is closed, and
+     * shuts the transport down. The connector can't be used anymore afterwards.*/
+    public void close(){
+        mainHandler.removeCallbacks(reconnect);
+        mainHandler.removeCallbacks(pushFunctions);
+        reconnectOnFailure = false;
+        isReconnecting = false;
+        reconnectAttempts = 0;
+
+        if(session != null){
+            session.cancel();
+            session = null;
+        }
+
+        linkMonitor.stop();
+        closeCommandChannel();
+
+        functionUploader.shutdown();
+        transport.shutdown();
+    }
+
+    /* The timeout derived from the heartbeats' round trip times, that the link quality reports. The connection timeout
+     * is used as long as none are known, and is the upper limit. Only heartbeats are sent with it: syntax downloads and
+     * uploads carry much larger bodies than a heartbeat, and commands take as long as the device runs them.*/
+    private int getAdaptiveTimeout(){
+        return linkMonitor.getTimeout(connectionTimeout);
+    }
+
+    /* Stops a running connection attempt, and reports it as failed. Automatic reconnects stop as well.*/
+    public void cancelConnection(){
+        mainHandler.removeCallbacks(reconnect);
+        reconnectOnFailure = false;
+        isReconnecting = false;
+        reconnectAttempts = 0;
+
+        if(session == null){
+            notifyLinkChanged();
+            return;
+        }
+
+        session.cancel();
+        session = null;
+
+        loadData();
+
+        notifyLinkChanged();
 
-        initConnection();
+        connectionListener.onConnectionResult(false, new HashSet<String>());
     }
 
     private void loadData(){
@@ -98,307 +287,393 @@ public class DeviceConnector {
         }
     }
 
-    private void saveData(){
-        try {
-            CodeFormat.saveFormats(context);
-            CodeFormat.saveTranslations(context);
-            CodeFormat.saveCategories(context);
-        } catch(Exception e) {
-            e.printStackTrace();
-        }
+    /* The language code is shown in, see CodeFormat.getCodeLanguage(). Devices supporting "lang_select" only send
+     * the translations of this language. If it changes while connected, its translations are downloaded right away.*/
+    public void setCodeLanguage(String codeLanguage){
+        this.codeLanguage = codeLanguage;
+
+        requestMissingCodeLanguage();
     }
 
-    private void exchangeData(){
-        if(!formatUpToDate && formatJSONArray == null){
-            requestCodeFormats();
+    private void requestMissingCodeLanguage(){
+        if(session != null || !linkMonitor.isRunning() || codeLanguage == null || !capabilities.supports(DeviceCapabilities.LANG_SELECT)){
             return;
         }
 
-        if(!langUpToDate && langJSONObject == null){
-            requestCodeLanguages();
+        if(CodeFormat.hasTranslationsFor(codeLanguage) || !CodeFormat.getLanguages().contains(codeLanguage)){
             return;
         }
 
-        if(!categoryUpToDate && categoryJSONArray == null){
-            requestCodeCategories();
+        String subURL;
+
+        try {
+            subURL = currBaseURL + "/code_syntax/lang?langs=" + URLEncoder.encode(codeLanguage, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            e.printStackTrace();
             return;
         }
 
-        sendFunctions();
+        final String requestedBaseURL = currBaseURL;
 
-        finish();
-    }
-    
-    private void initConnection(){
-        String subURL = currBaseURL + "/info";
+        DeviceRequest<JSONObject> langRequest = new DeviceRequest<>(DeviceRequest.GET, subURL,
+                ResponseParsers.streaming(new ResponseParsers.StreamParser<JSONObject>() {
+                    @Override
+                    public JSONObject parse(JsonReader reader) throws IOException {
+                        return CodeFormat.readTranslations(reader);
+                    }
+                }),
 
-        // Request a JSON response from the provided URL.
-        JsonObjectRequest jsonObjectRequest = new JsonObjectRequest (Request.Method.GET, subURL, null,
-                new Response.Listener<JSONObject>() {
+                new DeviceRequest.Listener<JSONObject>() {
                     @Override
                     public void onResponse(JSONObject response) {
+                        // A connection, that started since, downloads the translations itself
+                        if(session != null || !requestedBaseURL.equals(currBaseURL)){
+                            return;
+                        }
+
                         try {
-                            long formatChangeTime = response.getLong("format");
-                            long categoryChangeTime = response.getLong("categories");
-                            long langChangeTime = response.getLong("lang");
-
-                            if(response.has("functions")) {
-                                functionSyncDates = new HashMap<>();
-                                JSONObject functionSyncDatesJSON = response.getJSONObject("functions");
-
-                                Iterator<String> keyList = functionSyncDatesJSON.keys();
-                                while (keyList.hasNext()) {
-                                    String key = keyList.next();
-
-                                    functionSyncDates.put(key, functionSyncDatesJSON.getLong(key));
-                                }
-                            }
-                        } catch (JSONException e) {
+                            CodeFormat.addTranslationsFromJSONObject(response);
+                            CodeFormat.saveTranslations(context);
+                        } catch (Exception e) {
                             e.printStackTrace();
                         }
-
-
-                        exchangeData();
                     }
-                },
 
-                new Response.ErrorListener() {
                     @Override
-                    public void onErrorResponse(VolleyError error) {
-                        finish(false);
+                    public void onError(int statusCode, Exception cause) {
+                        // The language falls back to "default" until the next connection tries again
                     }
                 }
         );
 
-        jsonObjectRequest.setRetryPolicy(retryPolicy);
+        langRequest.setRetryPolicy(connectionTimeout, DeviceRequest.DEFAULT_MAX_RETRIES);
+        langRequest.setTag(languageRequestTag);
 
-        // Add the request to the RequestQueue.
-        queue.add(jsonObjectRequest);
+        transport.cancelAll(languageRequestTag);
+        transport.send(langRequest);
     }
 
-    private void requestCodeFormats(){
-        String subURL = currBaseURL + "/code_syntax/format";
+    private void sendFunctions(){
+        Set<String> functionsOnDevice = functionSyncDates != null ? new HashSet<>(functionSyncDates.keySet()) : null;
 
-        // Request a JSON response from the provided URL.
-        JsonArrayRequest jsonArrayRequest = new JsonArrayRequest (Request.Method.GET, subURL, null,
-                new Response.Listener<JSONArray>() {
-                    @Override
-                    public void onResponse(JSONArray response) {
-                        formatJSONArray = response;
-                        exchangeData();
-                    }
-                },
+        functionUploader.syncAll(new FunctionUploader.Target(currBaseURL, capabilities, formatChangeTime, transport, connectionTimeout, uploadTag), functionsOnDevice, deviceFunctionRoot);
+    }
 
-                new Response.ErrorListener() {
-                    @Override
-                    public void onErrorResponse(VolleyError error) {
-                        finish(false);
-                    }
-                }
-        );
+    /* Uploads a function, that was just saved, to the connected device, without connecting again.
+     * Saves in quick succession are collected, and uploaded together once they stop.
+     * Without a connection, nothing is sent: the next connect() uploads the function anyway.*/
+    public void pushFunction(String functionName){
+        functionsToPush.add(functionName);
+
+        mainHandler.removeCallbacks(pushFunctions);
+        mainHandler.postDelayed(pushFunctions, PUSH_DELAY);
+    }
 
-        jsonArrayRequest.setRetryPolicy(retryPolicy);
+    private final Runnable pushFunctions = new Runnable() {
+        @Override
+        public void run() {
+            functionUploader.pushFunctions(new ArrayList<>(functionsToPush));
+            functionsToPush.clear();
+        }
+    };
 
-        // Add the request to the RequestQueue.
-        queue.add(jsonArrayRequest);
+    public UploadState getFunctionUploadState(String functionName){
+        return functionUploader.getUploadState(currBaseURL, functionName);
     }
 
-    private void requestCodeLanguages(){
-        String subURL = currBaseURL + "/code_syntax/lang";
+    /* language must be a short id of the language, like "en" or "de".
+     * Returns the id of the command, that its responses will be reported with.*/
+    public long sendCommand(String language, String command){
+        final long commandId = commandTracker.register();
 
-        // Request a JSON response from the provided URL.
-        JsonObjectRequest jsonObjectRequest = new JsonObjectRequest (Request.Method.GET, subURL, null,
-                new Response.Listener<JSONObject>() {
-                    @Override
-                    public void onResponse(JSONObject response) {
-                        langJSONObject = response;
-                        exchangeData();
-                    }
-                },
+        JSONObject commandJSON = createCommandJSON(language, command, commandId);
 
-                new Response.ErrorListener() {
-                    @Override
-                    public void onErrorResponse(VolleyError error) {
-                        finish(false);
-                    }
-                }
-        );
+        if(commandChannel != null && commandChannel.isOpen()){
+            try {
+                commandJSON.put("type", CommandChannel.TYPE_COMMAND);
+            } catch (JSONException e){
+                e.printStackTrace();
+            }
 
-        jsonObjectRequest.setRetryPolicy(retryPolicy);
+            commandChannel.send(commandJSON);
+            return commandId;
+        }
+
+        sendCommandRequest(commandJSON, commandId);
 
-        // Add the request to the RequestQueue.
-        queue.add(jsonObjectRequest);
+        return commandId;
     }
 
-    private void requestCodeCategories(){
-        String subURL = currBaseURL + "/code_syntax/categories";
+    private void sendCommandRequest(JSONObject commandJSON, final long commandId){
+        transport.send(createCommandRequest(commandJSON, new DeviceRequest.Listener<JSONObject>() {
+            @Override
+            public void onResponse(JSONObject response) {
+                onCommandOutput(commandId, response);
+                commandTracker.complete(commandId);
+            }
 
-        // Request a JSON response from the provided URL.
-        JsonArrayRequest jsonArrayRequest = new JsonArrayRequest (Request.Method.GET, subURL, null,
-                new Response.Listener<JSONArray>() {
-                    @Override
-                    public void onResponse(JSONArray response) {
-                        categoryJSONArray = response;
-                        exchangeData();
-                    }
-                },
+            @Override
+            public void onError(int statusCode, Exception cause) {
+                commandTracker.complete(commandId);
+            }
+        }));
+    }
 
-                new Response.ErrorListener() {
-                    @Override
-                    public void onErrorResponse(VolleyError error) {
-                        finish(false);
-                    }
-                }
-        );
+    /* Keeps a command in the outbox, until the device can be reached. It's sent after the next successful connection.
+     * Returns the id of the command, that its responses will be reported with.*/
+    public long queueCommand(String language, String command){
+        long commandId = commandTracker.register();
 
-        jsonArrayRequest.setRetryPolicy(retryPolicy);
+        outbox.addCommand(baseURL, language, command, commandId);
+        notifyOutboxChanged();
 
-        // Add the request to the RequestQueue.
-        queue.add(jsonArrayRequest);
+        return commandId;
     }
 
-    private JSONArray loadFunctionFromFile(File file){
-        if(!file.exists() || file.isDirectory()){
-            return null;
+    /* Queued commands are sent one after the other, each only after the previous one was answered, so their order
+     * is kept. A command stays in the outbox until it's answered, and is never sent twice at the same time.
+     * It keeps its id, so a device can recognize a command, whose answer got lost, when it's sent again.*/
+    private void replayCommands(){
+        if(replayedCommand != null){
+            return;
         }
 
-        try{
-            FileInputStream inputStream = new FileInputStream(file);
-            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-            StringBuilder sb = new StringBuilder();
-            String line;
+        final Outbox.Entry entry = outbox.getFirstCommand(currBaseURL);
+
+        if(entry == null){
+            return;
+        }
+
+        replayedCommand = entry;
+        commandTracker.reopen(entry.commandId);
+
+        transport.send(createCommandRequest(createCommandJSON(entry.language, entry.text, entry.commandId), new DeviceRequest.Listener<JSONObject>() {
+            @Override
+            public void onResponse(JSONObject response) {
+                onCommandOutput(entry.commandId, response);
+                commandTracker.complete(entry.commandId);
 
-            while ((line = reader.readLine()) != null) {
-                sb.append(line).append("\n");
+                outbox.remove(entry);
+                notifyOutboxChanged();
+
+                replayedCommand = null;
+                replayCommands();
             }
 
-            reader.close();
-            inputStream.close();
+            @Override
+            public void onError(int statusCode, Exception cause) {
+                commandTracker.complete(entry.commandId);
 
-            String fileContent = sb.toString();
+                // The remaining commands wait for the next connection
+                replayedCommand = null;
+            }
+        }));
+    }
 
+    private JSONObject createCommandJSON(String language, String command, long commandId){
+        JSONObject commandJSON = new JSONObject();
 
-            return new JSONArray(fileContent);
-        } catch(Exception e){
+        try {
+            commandJSON.put("lang", language);
+            commandJSON.put("text", command);
+            commandJSON.put("id", commandId);
+        } catch (JSONException e){
             e.printStackTrace();
         }
 
-        return null;
+        return commandJSON;
     }
 
-    private void sendFunctions(){
-        String subURL = currBaseURL + "/function";
+    private DeviceRequest<JSONObject> createCommandRequest(JSONObject commandJSON, DeviceRequest.Listener<JSONObject> listener){
+        String subURL = currBaseURL + "/command";
 
-        String functionDirPath = context.getFilesDir().getAbsolutePath() + File.separator + "functions";
-        File functionsDir = new File(functionDirPath);
-        if (!functionsDir.exists()){
-            return;
-        }
+        DeviceRequest<JSONObject> commandRequest = new DeviceRequest<>(DeviceRequest.POST, subURL, ResponseParsers.JSON_OBJECT, listener);
 
-        for(File functionFile : functionsDir.listFiles()){
-            boolean sendFunction = true;
+        try {
+            commandRequest.setBody(commandJSON.toString().getBytes("UTF-8"), "application/json; charset=utf-8");
+        } catch (UnsupportedEncodingException e){
+            e.printStackTrace();
+        }
 
-            String functionName = functionFile.getName();
-            long updateTime = System.currentTimeMillis()/1000;
+        // Commands aren't idempotent, so they are never retried, and don't wait behind each other's retries.
+        // The device may take a while to run them, so they get the full connection timeout.
+        commandRequest.setRetryPolicy(connectionTimeout, 0);
+        commandRequest.setPriority(DeviceRequest.Priority.COMMAND);
 
-            long functionLastModDate = functionFile.lastModified() / 1000;
+        return commandRequest;
+    }
 
-            if(functionSyncDates != null && functionSyncDates.containsKey(functionName)){
-                long functionSyncDate = functionSyncDates.get(functionName);
+    /* Called once a sync of the functions finished. Uploads in the outbox are delivered, unless they are still failing.*/
+    private void removeDeliveredUploads(boolean deviceHasAllFunctions){
+        for(Outbox.Entry entry : outbox.getUploads(currBaseURL)){
+            UploadState state = functionUploader.getUploadState(currBaseURL, entry.functionName);
 
-                if(functionSyncDate > functionLastModDate + 10){ //10 seconds margin (in case anything messes up)
-                    sendFunction = false;
-                }
+            if(deviceHasAllFunctions || (state != UploadState.FAILED && state != UploadState.PENDING)){
+                outbox.remove(entry);
             }
+        }
 
-            if(sendFunction){
-                JSONArray function = loadFunctionFromFile(functionFile);
+        notifyOutboxChanged();
+    }
 
-                if(function != null){
-                    JsonArrayRequest jsonArrayPostRequest = new JsonArrayRequest(Request.Method.POST, subURL + "/" + functionName + "/" + updateTime, function, null, null);
-                    queue.add(jsonArrayPostRequest);
-                }
-            }
+    private void notifyOutboxChanged(){
+        if(outboxListener != null){
+            outboxListener.onOutboxChanged(outbox.size(), outbox.getOldestEntryTime());
         }
     }
 
-    /* language must be a short id of the language, like "en" or "de".*/
-    public void sendCommand(String language, String command){
-        String subURL = currBaseURL + "/command";
+    private void notifyLinkChanged(){
+        if(linkListener != null){
+            linkListener.onLinkChanged(getLinkQuality());
+        }
+    }
 
-        JSONObject commandJSON = new JSONObject();
+    public LinkQuality getLinkQuality(){
+        LinkQuality.State state;
 
-        try {
-            commandJSON.put("lang", language);
-            commandJSON.put("text", command);
-            commandJSON.put("id", System.currentTimeMillis());
-        } catch (JSONException e){
-            e.printStackTrace();
+        if(linkMonitor.isRunning()){
+            state = LinkQuality.State.CONNECTED;
+        } else if(reconnectOnFailure){
+            state = LinkQuality.State.RECONNECTING;
+        } else {
+            state = LinkQuality.State.DISCONNECTED;
         }
 
-        JsonObjectRequest jsonObjectPostRequest = new JsonObjectRequest(Request.Method.POST, subURL, commandJSON,
-                new Response.Listener<JSONObject>() {
-                    @Override
-                    public void onResponse(JSONObject response) {
-                        if(commandResponseListener != null){
-                            if(response.has("text")){
-                                try {
-                                    commandResponseListener.onResponse(response.getString("text"));
-                                } catch(JSONException e){
-                                    e.printStackTrace();
-                                }
-                            }
-                        }
-                    }
-                },
-                null);
-        queue.add(jsonObjectPostRequest);
+        return new LinkQuality(state, linkMonitor.getSmoothedRtt(), linkMonitor.getRttVariance(), linkMonitor.getLossRate(),
+                getAdaptiveTimeout(), reconnectAttempts);
     }
 
-    private void finish(boolean succeeded){
-        if(succeeded){
-            saveData();
-        } else {
-            loadData();
-        }
+    /* Number of commands and uploads, that wait for a device.*/
+    public int getOutboxSize(){
+        return outbox.size();
+    }
 
+    /* When the oldest waiting command or upload was added, in ms since the epoch, or -1 if nothing is waiting.*/
+    public long getOldestOutboxEntryTime(){
+        return outbox.getOldestEntryTime();
+    }
 
-        Set<String> functionSet = new HashSet<>();
+    private void onCommandOutput(long commandId, JSONObject output){
+        if(!commandTracker.onOutput(commandId)){
+            return;
+        }
 
-        if(functionSyncDates != null){
-            functionSet = functionSyncDates.keySet();
+        if(commandResponseListener != null){
+            if(output.has("text")){
+                try {
+                    commandResponseListener.onResponse(commandId, output.getString("text"));
+                } catch(JSONException e){
+                    e.printStackTrace();
+                }
+            }
         }
+    }
 
-        connectionListener.onConnectionResult(succeeded, functionSet);
+    public long getAverageCommandLatency(){
+        return commandTracker.getAverageLatency();
+    }
+
+    private void openCommandChannel(){
+        closeCommandChannel();
 
+        final String channelURL = currBaseURL;
+
+        commandChannel = new CommandChannel(currBaseURL, connectionTimeout, new CommandChannel.Listener() {
+            @Override
+            public void onMessage(JSONObject message) {
+                long commandId = message.optLong("id", -1);
+                String type = message.optString("type");
+
+                if(CommandChannel.TYPE_OUTPUT.equals(type)){
+                    onCommandOutput(commandId, message);
+                } else if(CommandChannel.TYPE_DONE.equals(type)){
+                    commandTracker.complete(commandId);
+                }
+            }
+
+            @Override
+            public void onSendFailed(JSONObject message) {
+                long commandId = message.optLong("id", -1);
+
+                // A command for another device is dropped, as it would be for a failed request
+                if(!channelURL.equals(currBaseURL)){
+                    commandTracker.complete(commandId);
+                    return;
+                }
 
-        isConnecting = false;
+                // The command keeps its id, so a device, that got it before the channel broke, recognizes it
+                message.remove("type");
+
+                sendCommandRequest(message, commandId);
+            }
+
+            @Override
+            public void onClosed(CommandChannel channel) {
+                // Commands go through plain HTTP again, until the next connection opens a new channel
+                if(channel == commandChannel){
+                    commandChannel = null;
+                }
+            }
+        });
+
+        commandChannel.open();
     }
 
-    private void finish(){
-        boolean succeeded = false;
+    private void closeCommandChannel(){
+        if(commandChannel != null){
+            commandChannel.close();
+            commandChannel = null;
+        }
+    }
 
-        try {
-            if(!formatUpToDate && formatJSONArray.length() > 0){
-                CodeFormat.setAllFormatsDeprecated();
+    private void finish(ConnectionSession finishedSession, boolean succeeded){
+        if(succeeded){
+            formatChangeTime = finishedSession.getFormatChangeTime();
+            capabilities = finishedSession.getCapabilities();
+            functionSyncDates = finishedSession.getFunctionSyncDates();
+            deviceFunctionRoot = finishedSession.getDeviceFunctionRoot();
 
-                CodeFormat.fromJSONArray(formatJSONArray);
+            sendFunctions();
+
+            if(capabilities.supports(DeviceCapabilities.COMMAND_CHANNEL)){
+                openCommandChannel();
             }
 
-            if(!langUpToDate) {
-                CodeFormat.addTranslationsFromJSONObject(langJSONObject);
+            replayCommands();
+
+            reconnectOnFailure = false;
+            isReconnecting = false;
+            reconnectAttempts = 0;
+
+            linkMonitor.start(currBaseURL, transport, connectionTimeout);
+
+            // E.g. a registry restored from the cache may lack the code language
+            requestMissingCodeLanguage();
+        } else {
+            // Throws away what a failed commit applied partly
+            loadData();
+
+            if(reconnectOnFailure){
+                scheduleReconnect();
             }
 
-            if(!categoryUpToDate){
-                CodeFormat.addCategoriesFromJSONArray(categoryJSONArray);
+            // The loss of the link was already reported, failed automatic reconnects aren't
+            if(isReconnecting){
+                isReconnecting = false;
+                return;
             }
+        }
 
-            succeeded = true;
-        } catch (Exception e) {
-            e.printStackTrace();
+        notifyLinkChanged();
+
+
+        Set<String> functionSet = new HashSet<>();
+
+        if(functionSyncDates != null){
+            functionSet = functionSyncDates.keySet();
         }
 
-        finish(succeeded);
+        connectionListener.onConnectionResult(succeeded, functionSet);
     }
 
 
@@ -407,11 +682,26 @@ public class DeviceConnector {
     }
 
     public void setConnectionTimeout(int connectionTimeout){
-        retryPolicy = new DefaultRetryPolicy(
-                connectionTimeout,
-                DefaultRetryPolicy.DEFAULT_MAX_RETRIES,
-                DefaultRetryPolicy.DEFAULT_BACKOFF_MULT
-        );
+        this.connectionTimeout = connectionTimeout;
+    }
+
+    /* Replaces the transport, that all following requests are sent with. The old one is shut down.*/
+    public void setTransport(DeviceTransport transport){
+        if(this.transport == transport){
+            return;
+        }
+
+        this.transport.shutdown();
+        this.transport = transport;
+
+        // Uploads of the old transport were dropped, and pushed functions wait for the next connection
+        functionUploader.cancel();
+
+        if(linkMonitor.isRunning()){
+            linkMonitor.start(currBaseURL, transport, connectionTimeout);
+        }
+
+        cancelConnection();
     }
 
 
@@ -424,8 +714,36 @@ public class DeviceConnector {
     }
 
 
+    public void setFunctionUploadListener(FunctionUploadListener functionUploadListener){
+        this.functionUploadListener = functionUploadListener;
+    }
+
+    public void setOutboxListener(OutboxListener outboxListener){
+        this.outboxListener = outboxListener;
+    }
+
+    public void setLinkListener(LinkListener linkListener){
+        this.linkListener = linkListener;
+    }
+
+
     public boolean isConnecting(){
-        return isConnecting;
+        return session != null;
+    }
+
+    /* The base URL of the running connection attempt, or null.*/
+    public String getConnectingURL(){
+        return session != null ? session.getDeviceURL() : null;
+    }
+
+
+    /* The connector of the main screen, that other screens can send to the device with. null, if there is none.*/
+    public static DeviceConnector getShared(){
+        return shared;
+    }
+
+    public static void setShared(DeviceConnector connector){
+        shared = connector;
     }
 
 
@@ -434,6 +752,25 @@ public class DeviceConnector {
     }
 
     public interface CommandResponseListener{
-        void onResponse(String response);
+        void onResponse(long commandId, String response);
+    }
+
+    public enum UploadState {
+        PENDING,
+        IN_FLIGHT,
+        ACKNOWLEDGED,
+        FAILED
+    }
+
+    public interface FunctionUploadListener{
+        void onFunctionUploaded(String functionName, boolean succeeded);
+    }
+
+    public interface OutboxListener{
+        void onOutboxChanged(int size, long oldestEntryTime);
+    }
+
+    public interface LinkListener{
+        void onLinkChanged(LinkQuality quality);
     }
 }
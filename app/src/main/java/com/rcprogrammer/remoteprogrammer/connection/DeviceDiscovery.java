@@ -0,0 +1,288 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* Finds robots in the local network, by sending a GET of "/info" to every address of the phone's /24 subnets.
+ * Up to MAX_CONCURRENT_PROBES are sent at the same time with a short timeout, so a whole subnet, where most
+ * addresses don't answer, is searched in about a second or two. Every answer, that is the info of a device,
+ * counts as a robot, and the robots are ranked by how fast they answered.
+ *
+ * Listeners are called on the given callback executor, and never again, once the discovery was cancelled.*/
+public class DeviceDiscovery {
+
+    public static final int DEFAULT_PORT = 5000;
+
+    private static final int MAX_CONCURRENT_PROBES = 64;
+
+    // Devices in the same network answer within a few ms, so an address, that takes longer to connect, has none
+    private static final int CONNECT_TIMEOUT = 400;
+    private static final int READ_TIMEOUT = 1000;
+
+    private final int port;
+    private final Executor callbackExecutor;
+    private final Listener listener;
+
+    private ExecutorService executor = null;
+    private volatile boolean isCancelled = false;
+
+    private final List<FoundDevice> foundDevices = new ArrayList<>();
+
+
+    public DeviceDiscovery(int port, Executor callbackExecutor, Listener listener){
+        this.port = port;
+        this.callbackExecutor = callbackExecutor;
+        this.listener = listener;
+    }
+
+
+    /* The first three parts of the IPv4 addresses, that the phone has in local networks, e.g. "192.168.0".*/
+    public static List<String> getLocalSubnets(){
+        Set<String> subnets = new LinkedHashSet<>();
+
+        try {
+            Enumeration<NetworkInterface> networkInterfaces = NetworkInterface.getNetworkInterfaces();
+
+            while (networkInterfaces != null && networkInterfaces.hasMoreElements()) {
+                NetworkInterface networkInterface = networkInterfaces.nextElement();
+
+                if(!networkInterface.isUp() || networkInterface.isLoopback()){
+                    continue;
+                }
+
+                Enumeration<InetAddress> addresses = networkInterface.getInetAddresses();
+
+                while (addresses.hasMoreElements()) {
+                    InetAddress address = addresses.nextElement();
+
+                    if(address instanceof Inet4Address && address.isSiteLocalAddress()){
+                        String hostAddress = address.getHostAddress();
+
+                        subnets.add(hostAddress.substring(0, hostAddress.lastIndexOf('.')));
+                    }
+                }
+            }
+        } catch (SocketException e) {
+            e.printStackTrace();
+        }
+
+        return new ArrayList<>(subnets);
+    }
+
+
+    /* Searches the given subnets, see getLocalSubnets(). Can only be started once.*/
+    public void start(Collection<String> subnets){
+        if(executor != null){
+            return;
+        }
+
+        executor = Executors.newFixedThreadPool(MAX_CONCURRENT_PROBES);
+
+        List<String> hosts = new ArrayList<>();
+
+        for(String subnet : subnets){
+            for(int i = 1; i < 255; i++){
+                hosts.add(subnet + "." + i);
+            }
+        }
+
+        if(hosts.isEmpty()){
+            finish();
+            return;
+        }
+
+        final AtomicInteger remainingProbes = new AtomicInteger(hosts.size());
+
+        for(final String host : hosts){
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(!isCancelled){
+                            probe(host);
+                        }
+
+                        if(remainingProbes.decrementAndGet() == 0){
+                            finish();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // The discovery was cancelled
+                return;
+            }
+        }
+    }
+
+    /* Stops all probes. Robots, that were found until now, are not reported anymore.*/
+    public void cancel(){
+        isCancelled = true;
+
+        if(executor != null){
+            executor.shutdownNow();
+        }
+    }
+
+
+    private void probe(String host){
+        String url = "http://" + host + ":" + port;
+        HttpURLConnection connection = null;
+
+        long startTime = System.nanoTime();
+
+        try {
+            connection = (HttpURLConnection) new URL(url + "/info").openConnection();
+            connection.setConnectTimeout(CONNECT_TIMEOUT);
+            connection.setReadTimeout(READ_TIMEOUT);
+            connection.setUseCaches(false);
+
+            if(connection.getResponseCode() != 200){
+                return;
+            }
+
+            String body = readFully(connection.getInputStream());
+            long latency = (System.nanoTime() - startTime) / 1000000;
+
+            // Other web servers in the network don't send the change times of a code syntax
+            JSONObject info = new JSONObject(body);
+
+            if(!info.has("format")){
+                return;
+            }
+
+            onDeviceFound(new FoundDevice(url, info.optString("id", null), latency));
+        } catch (Exception e) {
+            // Nothing, that answers like a robot, at this address
+        } finally {
+            if(connection != null){
+                // The connection isn't used again, so it isn't kept alive for each address of the subnet
+                connection.disconnect();
+            }
+        }
+    }
+
+    private void onDeviceFound(FoundDevice device){
+        final List<FoundDevice> devicesByLatency;
+
+        synchronized (foundDevices) {
+            foundDevices.add(device);
+            devicesByLatency = getDevicesByLatency();
+        }
+
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if(!isCancelled){
+                    listener.onDevicesChanged(devicesByLatency);
+                }
+            }
+        });
+    }
+
+    private void finish(){
+        final List<FoundDevice> devicesByLatency;
+
+        synchronized (foundDevices) {
+            devicesByLatency = getDevicesByLatency();
+        }
+
+        executor.shutdown();
+
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if(!isCancelled){
+                    listener.onFinished(devicesByLatency);
+                }
+            }
+        });
+    }
+
+    /* Must be called while holding the lock of foundDevices.*/
+    private List<FoundDevice> getDevicesByLatency(){
+        List<FoundDevice> devicesByLatency = new ArrayList<>(foundDevices);
+
+        Collections.sort(devicesByLatency, new Comparator<FoundDevice>() {
+            @Override
+            public int compare(FoundDevice device1, FoundDevice device2) {
+                return device1.latency < device2.latency ? -1 : (device1.latency == device2.latency ? 0 : 1);
+            }
+        });
+
+        return devicesByLatency;
+    }
+
+    private static String readFully(InputStream in) throws IOException{
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        try {
+            byte[] buffer = new byte[8192];
+            int length;
+
+            while ((length = in.read(buffer)) > 0) {
+                outputStream.write(buffer, 0, length);
+            }
+        } finally {
+            in.close();
+        }
+
+        return outputStream.toString("UTF-8");
+    }
+
+
+    public static class FoundDevice {
+        private final String url;
+        private final String id;
+        private final long latency;
+
+        FoundDevice(String url, String id, long latency){
+            this.url = url;
+            this.id = id;
+            this.latency = latency;
+        }
+
+        /* The base URL of the device, e.g. "http://192.168.0.23:5000".*/
+        public String getUrl(){
+            return url;
+        }
+
+        /* null, if the device doesn't report an id.*/
+        public String getId(){
+            return id;
+        }
+
+        /* How long the device took to answer, in ms.*/
+        public long getLatency(){
+            return latency;
+        }
+    }
+
+    public interface Listener {
+        /* Called for every robot, that is found, with all robots found so far, the fastest first.*/
+        void onDevicesChanged(List<FoundDevice> devicesByLatency);
+
+        void onFinished(List<FoundDevice> devicesByLatency);
+    }
+}
@@ -0,0 +1,190 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/* One HTTP request to a device, independent of the DeviceTransport that sends it.
+ * The parser runs on a thread of the transport, the listener on its callback executor.
+ * Only uses plain Java, so requests can be sent from a JVM without Android as well.*/
+public class DeviceRequest<T> {
+
+    public static final String GET = "GET";
+    public static final String POST = "POST";
+
+    public static final int DEFAULT_MAX_RETRIES = 1;
+
+    /* Hands the raw response body to the listener.*/
+    public static final Parser<byte[]> BYTES = new Parser<byte[]>() {
+        @Override
+        public byte[] parse(DeviceResponse response) {
+            return response.getBody();
+        }
+    };
+
+    private final String method;
+    private final String url;
+
+    private final Map<String, String> headers = new HashMap<>();
+    private byte[] body = null;
+    private String contentType = null;
+
+    private int timeout = 3000;
+    private int maxRetries = DEFAULT_MAX_RETRIES;
+
+    private Object tag = null;
+    private Priority priority = Priority.SYNTAX;
+
+    private final Parser<T> parser;
+    private final Listener<T> listener;
+
+    private volatile boolean canceled = false;
+
+    private Runnable dispatchListener = null;
+
+
+    public DeviceRequest(String method, String url, Parser<T> parser, Listener<T> listener){
+        this.method = method;
+        this.url = url;
+        this.parser = parser;
+        this.listener = listener;
+    }
+
+
+    public DeviceRequest<T> setBody(byte[] body, String contentType){
+        this.body = body;
+        this.contentType = contentType;
+        return this;
+    }
+
+    public DeviceRequest<T> addHeader(String name, String value){
+        headers.put(name, value);
+        return this;
+    }
+
+    /* timeout is in ms, and applies to every single attempt.*/
+    public DeviceRequest<T> setRetryPolicy(int timeout, int maxRetries){
+        this.timeout = timeout;
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    public DeviceRequest<T> setTag(Object tag){
+        this.tag = tag;
+        return this;
+    }
+
+    public DeviceRequest<T> setPriority(Priority priority){
+        this.priority = priority;
+        return this;
+    }
+
+    /* Called on a thread of the transport, once the request left all queues and its first attempt starts.
+     * The time it waited until then doesn't count towards getTotalTimeout().*/
+    public DeviceRequest<T> setDispatchListener(Runnable dispatchListener){
+        this.dispatchListener = dispatchListener;
+        return this;
+    }
+
+
+    public String getMethod(){
+        return method;
+    }
+
+    public String getUrl(){
+        return url;
+    }
+
+    public Map<String, String> getHeaders(){
+        return headers;
+    }
+
+    public byte[] getBody(){
+        return body;
+    }
+
+    public String getContentType(){
+        return contentType;
+    }
+
+    public int getTimeout(){
+        return timeout;
+    }
+
+    public int getMaxRetries(){
+        return maxRetries;
+    }
+
+    /* The longest time all attempts together can take, once the request was dispatched. Transports don't wait
+     * between attempts, so it's the timeout of every attempt.*/
+    public int getTotalTimeout(){
+        return timeout * (maxRetries + 1);
+    }
+
+    public Object getTag(){
+        return tag;
+    }
+
+    public Priority getPriority(){
+        return priority;
+    }
+
+
+    /* A canceled request never calls its listener.*/
+    public void cancel(){
+        canceled = true;
+    }
+
+    public boolean isCanceled(){
+        return canceled;
+    }
+
+
+    /* Called by transports on one of their own threads, right before the first attempt.*/
+    void dispatched(){
+        Runnable listener = dispatchListener;
+
+        if(!canceled && listener != null){
+            listener.run();
+        }
+    }
+
+    /* Called by transports on one of their own threads.*/
+    T parse(DeviceResponse response) throws Exception{
+        return parser.parse(response);
+    }
+
+    /* Called by transports on their callback executor.*/
+    void deliverResponse(T response){
+        if(!canceled && listener != null){
+            listener.onResponse(response);
+        }
+    }
+
+    /* statusCode is 0, if the device didn't answer at all.*/
+    void deliverError(int statusCode, Exception cause){
+        if(!canceled && listener != null){
+            listener.onError(statusCode, cause);
+        }
+    }
+
+
+    /* The lanes of a device's requests, most urgent first. Requests, that don't set a priority, are SYNTAX.*/
+    public enum Priority {
+        // Commands typed by the user, e.g. "stop", that are waited for
+        COMMAND,
+        // The device info, code syntax and other small downloads
+        SYNTAX,
+        // Function uploads, that can be many at once during a sync
+        BULK
+    }
+
+    public interface Parser<T> {
+        T parse(DeviceResponse response) throws Exception;
+    }
+
+    public interface Listener<T> {
+        void onResponse(T response);
+
+        void onError(int statusCode, Exception cause);
+    }
+}
@@ -0,0 +1,80 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/* A device's answer to a DeviceRequest. The body is already decompressed by the transport.*/
+public class DeviceResponse {
+
+    /* The answer to a conditional request, whose resource didn't change. It has no body.*/
+    public static final int NOT_MODIFIED = 304;
+
+    private final int statusCode;
+    private final Map<String, String> headers = new HashMap<>();
+    private final byte[] body;
+
+
+    public DeviceResponse(int statusCode, Map<String, String> headers, byte[] body){
+        this.statusCode = statusCode;
+        this.body = body != null ? body : new byte[0];
+
+        if(headers != null){
+            for(Map.Entry<String, String> header : headers.entrySet()){
+                if(header.getKey() != null){
+                    this.headers.put(header.getKey().toLowerCase(Locale.US), header.getValue());
+                }
+            }
+        }
+    }
+
+
+    public int getStatusCode(){
+        return statusCode;
+    }
+
+    /* Header names are case insensitive.*/
+    public String getHeader(String name){
+        return headers.get(name.toLowerCase(Locale.US));
+    }
+
+    public boolean isNotModified(){
+        return statusCode == NOT_MODIFIED;
+    }
+
+    public Map<String, String> getHeaders(){
+        return headers;
+    }
+
+    public byte[] getBody(){
+        return body;
+    }
+
+    public InputStream getBodyStream(){
+        return new ByteArrayInputStream(body);
+    }
+
+    /* Decodes the body with the charset of the "Content-Type" header, or UTF-8 if there is none.*/
+    public String getBodyString() throws UnsupportedEncodingException{
+        return new String(body, getCharset());
+    }
+
+    public String getCharset(){
+        String contentType = getHeader("Content-Type");
+
+        if(contentType != null){
+            for(String parameter : contentType.split(";")){
+                String[] pair = parameter.trim().split("=", 2);
+
+                if(pair.length == 2 && pair[0].equalsIgnoreCase("charset")){
+                    return pair[1].trim();
+                }
+            }
+        }
+
+        return "UTF-8";
+    }
+}
@@ -0,0 +1,18 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+/* Sends DeviceRequests to a device. Every transport accepts gzip compressed responses and
+ * decompresses them before parsing, and retries failed attempts according to the request. Besides 2xx answers,
+ * a "304 Not Modified" to a conditional request is handed to the parser as well, see ResponseCache.
+ *
+ * VolleyTransport is used by default, HttpTransport talks to the device through HttpURLConnection
+ * with persistent connections, and InProcessTransport answers requests without any network.*/
+public interface DeviceTransport {
+
+    void send(DeviceRequest<?> request);
+
+    /* Cancels all requests with the given tag, that didn't call their listener yet.*/
+    void cancelAll(Object tag);
+
+    /* Stops the transport's threads. Requests sent afterwards are dropped.*/
+    void shutdown();
+}
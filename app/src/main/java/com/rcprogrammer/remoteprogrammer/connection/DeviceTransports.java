@@ -0,0 +1,41 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+
+/* Creates the transports, that can be chosen in the connection settings.*/
+public class DeviceTransports {
+
+    public static final String VOLLEY = "volley";
+    public static final String HTTP = "http";
+
+    private static final Executor mainThreadExecutor = new Executor() {
+        private final Handler handler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(Runnable command) {
+            handler.post(command);
+        }
+    };
+
+
+    private DeviceTransports(){
+    }
+
+
+    /* Unknown types fall back to Volley. Requests are scheduled by their priority, see PriorityTransport.*/
+    public static DeviceTransport create(Context context, String type){
+        if(HTTP.equals(type)){
+            return new PriorityTransport(new HttpTransport(mainThreadExecutor));
+        }
+
+        return new PriorityTransport(new VolleyTransport(context));
+    }
+
+    public static Executor mainThreadExecutor(){
+        return mainThreadExecutor;
+    }
+}
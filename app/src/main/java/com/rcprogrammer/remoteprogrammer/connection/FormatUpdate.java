@@ -0,0 +1,97 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.rcprogrammer.remoteprogrammer.codeeditor.codeview.CodeFormat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/* The code formats a device sent, either all of them, or, for "/code_syntax/format?since=<time>" on devices
+ * supporting "format_delta", only the ones, that changed since then:
+ *
+ *   {"since": 1700000000, "added": [<format>, ..], "changed": [<format>, ..], "removed": ["<id>", ..]}
+ *
+ * A device, that can't tell what changed since the given time, answers with the array of all formats instead.*/
+class FormatUpdate {
+
+    private final boolean isDelta;
+    private final List<CodeFormat> formats;
+    private final List<String> removedIds;
+
+
+    private FormatUpdate(boolean isDelta, List<CodeFormat> formats, List<String> removedIds){
+        this.isDelta = isDelta;
+        this.formats = formats;
+        this.removedIds = removedIds;
+    }
+
+
+    /* Runs on a thread of the transport.*/
+    static FormatUpdate read(JsonReader reader) throws IOException{
+        if(reader.peek() == JsonToken.BEGIN_ARRAY){
+            return new FormatUpdate(false, CodeFormat.readFormats(reader), new ArrayList<String>());
+        }
+
+        List<CodeFormat> formats = new ArrayList<>();
+        List<String> removedIds = new ArrayList<>();
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+
+            if(reader.peek() == JsonToken.NULL){
+                reader.skipValue();
+                continue;
+            }
+
+            switch(key){
+                case "added":
+                case "changed":
+                    formats.addAll(CodeFormat.readFormats(reader));
+                    break;
+                case "removed":
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        removedIds.add(reader.nextString());
+                    }
+                    reader.endArray();
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+
+        return new FormatUpdate(true, formats, removedIds);
+    }
+
+
+    /* Must be called on the main thread. A complete list replaces all formats, a delta is merged into them.
+     * Formats, that were removed on the device, are only deprecated, since local functions may still use them.
+     *
+     * Copies of the formats are added, so an update, that the ResponseCache hands out again, is never changed
+     * by formats being deprecated in the registry.*/
+    void apply(){
+        if(!isDelta){
+            // An empty list doesn't replace the known formats
+            if(formats.isEmpty()){
+                return;
+            }
+
+            CodeFormat.setAllFormatsDeprecated();
+        }
+
+        List<CodeFormat> copies = new ArrayList<>(formats.size());
+
+        for(CodeFormat format : formats){
+            copies.add(format.copy());
+        }
+
+        CodeFormat.addAll(copies);
+        CodeFormat.setFormatsDeprecated(removedIds);
+    }
+}
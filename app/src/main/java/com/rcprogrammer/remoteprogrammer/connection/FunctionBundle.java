@@ -0,0 +1,154 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/* A snapshot of the local functions, with everything needed to upload them: their hashes, their upload time,
+ * and the serialized request bodies. Bodies are built the first time a device needs them, and reused for
+ * every following device, so deploying to many devices reads, assembles and compresses each one only once.
+ *
+ * A function is read after it was hashed, so it's hashed again from the bytes that were read. If it was saved in
+ * between, reading it fails, instead of sending or storing the new version under the old hash. The upload fails
+ * then, and the retry hashes the functions again.
+ *
+ * Must only be created and read on I/O threads.*/
+class FunctionBundle {
+
+    private final File functionsDir;
+    private final Map<String, String> hashes;
+    private final long updateTime;
+
+    private final Map<String, byte[]> bodies = new ConcurrentHashMap<>();
+
+
+    private FunctionBundle(File functionsDir, Map<String, String> hashes, long updateTime){
+        this.functionsDir = functionsDir;
+        this.hashes = Collections.unmodifiableMap(hashes);
+        this.updateTime = updateTime;
+    }
+
+
+    /* Hashes all functions in the directory. Returns null, if the directory doesn't exist.*/
+    static FunctionBundle create(File functionsDir, FunctionManifest manifest){
+        if(!functionsDir.exists()){
+            return null;
+        }
+
+        return new FunctionBundle(functionsDir, manifest.hashFunctions(functionsDir), System.currentTimeMillis()/1000);
+    }
+
+
+    Map<String, String> getHashes(){
+        return hashes;
+    }
+
+    String getHash(String functionName){
+        return hashes.get(functionName);
+    }
+
+    long getUpdateTime(){
+        return updateTime;
+    }
+
+    /* The file already contains the function as a JSON array, so its bytes are the body as they are. Throws an
+     * IOException, if the function changed since it was hashed.*/
+    byte[] getFunctionBody(String functionName, boolean compressed) throws IOException{
+        String key = "function:" + functionName;
+
+        byte[] body = bodies.get(key);
+
+        if(body == null){
+            body = readFile(new File(functionsDir, functionName));
+
+            try {
+                if(!FunctionManifest.hash(new JSONArray(new String(body, "UTF-8"))).equals(getHash(functionName))){
+                    throw new IOException(functionName + " changed since it was hashed");
+                }
+            } catch (JSONException e) {
+                throw new IOException(functionName + " isn't a valid function", e);
+            }
+
+            // Later reads use the same bytes, even if the file changes again
+            bodies.put(key, body);
+        }
+
+        return compressed ? getCompressed(key, body) : body;
+    }
+
+    /* The batch body is assembled around the raw function bytes: {"time":..,"functions":[{"name":..,"hash":..,"code":[..]},..]}*/
+    byte[] getBatchBody(List<String> functionNames, boolean compressed) throws IOException{
+        StringBuilder keyBuilder = new StringBuilder("batch:");
+        for(String functionName : functionNames){
+            keyBuilder.append(functionName).append('/');
+        }
+
+        String key = keyBuilder.toString();
+
+        byte[] body = bodies.get(key);
+
+        if(body == null){
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+            outputStream.write(("{\"time\":" + updateTime + ",\"functions\":[").getBytes("UTF-8"));
+
+            for(int i = 0; i < functionNames.size(); i++){
+                String functionName = functionNames.get(i);
+
+                if(i > 0){
+                    outputStream.write(',');
+                }
+
+                outputStream.write(("{\"name\":" + JSONObject.quote(functionName) + ",\"hash\":" + JSONObject.quote(getHash(functionName)) + ",\"code\":").getBytes("UTF-8"));
+                outputStream.write(getFunctionBody(functionName, false));
+                outputStream.write('}');
+            }
+
+            outputStream.write("]}".getBytes("UTF-8"));
+
+            body = outputStream.toByteArray();
+            bodies.put(key, body);
+        }
+
+        return compressed ? getCompressed(key, body) : body;
+    }
+
+
+    private byte[] getCompressed(String key, byte[] body) throws IOException{
+        String compressedKey = key + ":" + Gzip.ENCODING;
+
+        byte[] compressedBody = bodies.get(compressedKey);
+
+        if(compressedBody == null){
+            compressedBody = Gzip.compress(body);
+            bodies.put(compressedKey, compressedBody);
+        }
+
+        return compressedBody;
+    }
+
+    private static byte[] readFile(File file) throws IOException{
+        FileInputStream inputStream = new FileInputStream(file);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream((int) file.length());
+
+        byte[] buffer = new byte[8192];
+        int length;
+
+        while ((length = inputStream.read(buffer)) > 0) {
+            outputStream.write(buffer, 0, length);
+        }
+
+        inputStream.close();
+
+        return outputStream.toByteArray();
+    }
+}
@@ -0,0 +1,268 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/* Uploads the local functions to many devices at once, e.g. the same lesson to every robot of a class.
+ * At most maxParallelDevices devices are connected at the same time. The functions are hashed once, and
+ * their request bodies are built once, for all devices. Only functions are uploaded: a deployment neither
+ * downloads the devices' code syntax, nor sends functions in the binary format, that depends on it.
+ *
+ * Must only be used from the main thread, and all listener calls happen there.*/
+public class FunctionDeployer {
+
+    private final File functionsDir;
+    private final FunctionManifest manifest;
+    private final FunctionVersionStore versionStore;
+
+    private final DeviceTransport transport;
+    private final int connectionTimeout;
+    private final int maxParallelDevices;
+
+    // Only exists while deploying, cancel() shuts it down, so a deployer, that isn't used anymore, keeps no threads
+    private ExecutorService ioExecutor = null;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Identifies the running deployment, so results of cancelled ones are ignored
+    private Object deploymentTag = null;
+
+    private DeploymentListener listener;
+
+    private FunctionBundle bundle;
+    private final Queue<String> waitingDevices = new ArrayDeque<>();
+    private final Map<String, FunctionUploader> uploaders = new HashMap<>();
+    private int numOfRunningDevices = 0;
+    private int numOfSucceededDevices = 0;
+    private int numOfFailedDevices = 0;
+
+
+    public FunctionDeployer(Context context, DeviceTransport transport, int connectionTimeout, int maxParallelDevices){
+        this.functionsDir = new File(context.getFilesDir().getAbsolutePath() + File.separator + "functions");
+        this.manifest = FunctionManifest.load(context);
+        this.versionStore = FunctionVersionStore.open(context);
+        this.transport = transport;
+        this.connectionTimeout = connectionTimeout;
+        this.maxParallelDevices = Math.max(1, maxParallelDevices);
+    }
+
+
+    /* Cancels a running deployment, and deploys to the given devices instead. Duplicate URLs are only deployed to once.*/
+    public void deploy(List<String> deviceURLs, DeploymentListener deploymentListener){
+        cancel();
+
+        final Object tag = new Object();
+        deploymentTag = tag;
+        listener = deploymentListener;
+
+        waitingDevices.addAll(new LinkedHashSet<>(deviceURLs));
+        numOfSucceededDevices = 0;
+        numOfFailedDevices = 0;
+
+        for(String deviceURL : waitingDevices){
+            listener.onDeviceProgress(deviceURL, DeviceState.WAITING, 0, 0, 0);
+        }
+
+        if(waitingDevices.isEmpty()){
+            listener.onDeploymentFinished(0, 0);
+            return;
+        }
+
+        ioExecutor = Executors.newFixedThreadPool(FunctionUploader.IO_THREADS);
+
+        ioExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final FunctionBundle newBundle = FunctionBundle.create(functionsDir, manifest);
+
+                try {
+                    manifest.save();
+                } catch(Exception e) {
+                    e.printStackTrace();
+                }
+
+                versionStore.retainOnly(manifest.getReferencedHashes());
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(deploymentTag == tag){
+                            bundle = newBundle;
+                            startWaitingDevices();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /* Stops the running deployment, and its threads. Devices, that already received some functions, keep them.*/
+    public void cancel(){
+        if(deploymentTag != null){
+            transport.cancelAll(deploymentTag);
+        }
+
+        deploymentTag = null;
+
+        for(FunctionUploader uploader : uploaders.values()){
+            uploader.cancel();
+        }
+
+        if(ioExecutor != null){
+            // Files, that are being written, e.g. the manifest, are still finished
+            ioExecutor.shutdown();
+            ioExecutor = null;
+        }
+
+        uploaders.clear();
+        waitingDevices.clear();
+        numOfRunningDevices = 0;
+        bundle = null;
+    }
+
+    public boolean isDeploying(){
+        return deploymentTag != null;
+    }
+
+
+    private void startWaitingDevices(){
+        while(numOfRunningDevices < maxParallelDevices && !waitingDevices.isEmpty()){
+            numOfRunningDevices++;
+
+            connectDevice(waitingDevices.poll());
+        }
+    }
+
+    private void connectDevice(final String deviceURL){
+        final Object tag = deploymentTag;
+
+        listener.onDeviceProgress(deviceURL, DeviceState.CONNECTING, 0, 0, 0);
+
+        DeviceRequest<JSONObject> infoRequest = new DeviceRequest<>(DeviceRequest.GET, deviceURL + "/info", ResponseParsers.JSON_OBJECT,
+                new DeviceRequest.Listener<JSONObject>() {
+                    @Override
+                    public void onResponse(JSONObject response) {
+                        if(deploymentTag != tag){
+                            return;
+                        }
+
+                        try {
+                            uploadFunctions(deviceURL, response);
+                        } catch (JSONException e) {
+                            e.printStackTrace();
+                            onDeviceFinished(deviceURL, false, 0, 0, 0);
+                        }
+                    }
+
+                    @Override
+                    public void onError(int statusCode, Exception cause) {
+                        if(deploymentTag == tag){
+                            onDeviceFinished(deviceURL, false, 0, 0, 0);
+                        }
+                    }
+                }
+        );
+
+        infoRequest.setTag(tag);
+        infoRequest.setRetryPolicy(connectionTimeout, DeviceRequest.DEFAULT_MAX_RETRIES);
+
+        transport.send(infoRequest);
+    }
+
+    private void uploadFunctions(final String deviceURL, JSONObject info) throws JSONException{
+        DeviceCapabilities capabilities = DeviceCapabilities.fromInfo(info);
+
+        String deviceFunctionRoot = info.has("functionRoot") ? info.getString("functionRoot") : null;
+
+        Set<String> functionsOnDevice = new HashSet<>();
+        JSONObject functionSyncDates = info.optJSONObject("functions");
+
+        if(functionSyncDates != null){
+            Iterator<String> functionNames = functionSyncDates.keys();
+            while (functionNames.hasNext()) {
+                functionsOnDevice.add(functionNames.next());
+            }
+        }
+
+        final FunctionUploader uploader = new FunctionUploader(functionsDir, manifest, versionStore, ioExecutor);
+        uploaders.put(deviceURL, uploader);
+
+        uploader.setProgressListener(new FunctionUploader.ProgressListener() {
+            @Override
+            public void onProgress(int finished, int failed, int total) {
+                if(uploaders.get(deviceURL) != uploader){
+                    return;
+                }
+
+                if(finished + failed < total){
+                    listener.onDeviceProgress(deviceURL, DeviceState.UPLOADING, finished, failed, total);
+                } else {
+                    onDeviceFinished(deviceURL, failed == 0, finished, failed, total);
+                }
+            }
+        });
+
+        listener.onDeviceProgress(deviceURL, DeviceState.UPLOADING, 0, 0, 0);
+
+        // A registry version of -1 keeps the uploader from using the binary format
+        uploader.syncAll(new FunctionUploader.Target(deviceURL, capabilities, -1, transport, connectionTimeout, deploymentTag),
+                bundle, functionsOnDevice, deviceFunctionRoot);
+    }
+
+    private void onDeviceFinished(String deviceURL, boolean succeeded, int finished, int failed, int total){
+        FunctionUploader uploader = uploaders.remove(deviceURL);
+        if(uploader != null){
+            uploader.cancel();
+        }
+
+        numOfRunningDevices--;
+
+        if(succeeded){
+            numOfSucceededDevices++;
+        } else {
+            numOfFailedDevices++;
+        }
+
+        listener.onDeviceProgress(deviceURL, succeeded ? DeviceState.DONE : DeviceState.FAILED, finished, failed, total);
+
+        if(numOfRunningDevices == 0 && waitingDevices.isEmpty()){
+            deploymentTag = null;
+            bundle = null;
+
+            listener.onDeploymentFinished(numOfSucceededDevices, numOfFailedDevices);
+        } else {
+            startWaitingDevices();
+        }
+    }
+
+
+    public enum DeviceState {
+        WAITING,
+        CONNECTING,
+        UPLOADING,
+        DONE,
+        FAILED
+    }
+
+    public interface DeploymentListener {
+        void onDeviceProgress(String deviceURL, DeviceState state, int uploaded, int failed, int total);
+
+        void onDeploymentFinished(int succeededDevices, int failedDevices);
+    }
+}
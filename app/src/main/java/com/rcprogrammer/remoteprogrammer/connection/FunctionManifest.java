@@ -0,0 +1,500 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import android.content.Context;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/* Keeps a SHA-256 hash of the canonical JSON of every local function, and the hash each device
+ * last acknowledged for it. Hashes are only recomputed, if a function file changed locally.
+ * Also keeps the state of the latest upload of each function to each device.
+ *
+ * The root hash summarizes a whole set of functions: it's the SHA-256 of the lines
+ * "<name>:<hash>\n", sorted by function name.
+ *
+ * All methods are safe to call from any thread; files are only read and written outside of the lock.*/
+class FunctionManifest {
+
+    private static final String FILE_NAME = "functionManifest.json";
+
+    private static FunctionManifest instance = null;
+
+    private final File file;
+
+    private Map<String, LocalEntry> localEntries = new HashMap<>();
+    private Map<String, Map<String, String>> acknowledgedHashes = new HashMap<>();
+    private Map<String, Map<String, UploadStatus>> uploadStates = new HashMap<>();
+
+    // Snapshots are numbered when they are taken, so a stale one, that is written late, can't replace a newer one
+    private long numOfSnapshots = 0;
+    private long savedSnapshot = 0;
+
+
+    private FunctionManifest(File file){
+        this.file = file;
+    }
+
+
+    /* Every user of the manifest in this process shares one instance, so they don't overwrite each other's changes.*/
+    static synchronized FunctionManifest load(Context context){
+        if(instance != null){
+            return instance;
+        }
+
+        FunctionManifest manifest = new FunctionManifest(new File(context.getFilesDir() + File.separator + FILE_NAME));
+
+        try {
+            manifest.read();
+        } catch(Exception e) {
+            e.printStackTrace();
+
+            manifest.localEntries.clear();
+            manifest.acknowledgedHashes.clear();
+            manifest.uploadStates.clear();
+        }
+
+        instance = manifest;
+
+        return manifest;
+    }
+
+    private void read() throws IOException, JSONException{
+        if(!file.exists() || file.isDirectory()){
+            return;
+        }
+
+        JSONObject manifestJSON = new JSONObject(readFile(file));
+
+        JSONObject localJSON = manifestJSON.getJSONObject("local");
+
+        Iterator<String> functionNames = localJSON.keys();
+        while (functionNames.hasNext()) {
+            String functionName = functionNames.next();
+            JSONObject entryJSON = localJSON.getJSONObject(functionName);
+
+            localEntries.put(functionName, new LocalEntry(entryJSON.getString("hash"), entryJSON.getLong("modified"), entryJSON.getLong("length")));
+        }
+
+        JSONObject devicesJSON = manifestJSON.getJSONObject("acknowledged");
+
+        Iterator<String> deviceURLs = devicesJSON.keys();
+        while (deviceURLs.hasNext()) {
+            String deviceURL = deviceURLs.next();
+            JSONObject deviceJSON = devicesJSON.getJSONObject(deviceURL);
+
+            Map<String, String> deviceHashes = new HashMap<>();
+
+            Iterator<String> acknowledgedNames = deviceJSON.keys();
+            while (acknowledgedNames.hasNext()) {
+                String functionName = acknowledgedNames.next();
+
+                deviceHashes.put(functionName, deviceJSON.getString(functionName));
+            }
+
+            acknowledgedHashes.put(deviceURL, deviceHashes);
+        }
+
+        JSONObject uploadsJSON = manifestJSON.optJSONObject("uploads");
+
+        if(uploadsJSON != null){
+            Iterator<String> uploadDeviceURLs = uploadsJSON.keys();
+            while (uploadDeviceURLs.hasNext()) {
+                String deviceURL = uploadDeviceURLs.next();
+                JSONObject deviceJSON = uploadsJSON.getJSONObject(deviceURL);
+
+                Map<String, UploadStatus> deviceStates = new HashMap<>();
+
+                Iterator<String> uploadNames = deviceJSON.keys();
+                while (uploadNames.hasNext()) {
+                    String functionName = uploadNames.next();
+                    JSONObject statusJSON = deviceJSON.getJSONObject(functionName);
+
+                    DeviceConnector.UploadState state = DeviceConnector.UploadState.valueOf(statusJSON.getString("state"));
+
+                    // Uploads, that were still running when the app was stopped, have to be sent again
+                    if(state == DeviceConnector.UploadState.IN_FLIGHT){
+                        state = DeviceConnector.UploadState.PENDING;
+                    }
+
+                    deviceStates.put(functionName, new UploadStatus(statusJSON.getString("hash"), state, statusJSON.getInt("attempts")));
+                }
+
+                uploadStates.put(deviceURL, deviceStates);
+            }
+        }
+    }
+
+    void save() throws IOException, JSONException{
+        long snapshot;
+        String manifestText;
+
+        synchronized (this) {
+            snapshot = ++numOfSnapshots;
+            manifestText = toJSON().toString();
+        }
+
+        synchronized (file) {
+            if(snapshot < savedSnapshot){
+                return;
+            }
+
+            if(file.isDirectory()){
+                file.delete();
+            }
+
+            if(!file.exists()){
+                file.createNewFile();
+            }
+
+            FileWriter writer = new FileWriter(file);
+            writer.append(manifestText);
+            writer.flush();
+            writer.close();
+
+            savedSnapshot = snapshot;
+        }
+    }
+
+    private synchronized JSONObject toJSON() throws JSONException{
+        JSONObject localJSON = new JSONObject();
+
+        for(Map.Entry<String, LocalEntry> entry : localEntries.entrySet()){
+            JSONObject entryJSON = new JSONObject();
+
+            entryJSON.put("hash", entry.getValue().hash);
+            entryJSON.put("modified", entry.getValue().modified);
+            entryJSON.put("length", entry.getValue().length);
+
+            localJSON.put(entry.getKey(), entryJSON);
+        }
+
+        JSONObject devicesJSON = new JSONObject();
+
+        for(Map.Entry<String, Map<String, String>> entry : acknowledgedHashes.entrySet()){
+            devicesJSON.put(entry.getKey(), new JSONObject(entry.getValue()));
+        }
+
+        JSONObject uploadsJSON = new JSONObject();
+
+        for(Map.Entry<String, Map<String, UploadStatus>> deviceEntry : uploadStates.entrySet()){
+            JSONObject deviceJSON = new JSONObject();
+
+            for(Map.Entry<String, UploadStatus> entry : deviceEntry.getValue().entrySet()){
+                JSONObject statusJSON = new JSONObject();
+
+                statusJSON.put("hash", entry.getValue().hash);
+                statusJSON.put("state", entry.getValue().state.toString());
+                statusJSON.put("attempts", entry.getValue().attempts);
+
+                deviceJSON.put(entry.getKey(), statusJSON);
+            }
+
+            uploadsJSON.put(deviceEntry.getKey(), deviceJSON);
+        }
+
+        JSONObject manifestJSON = new JSONObject();
+
+        manifestJSON.put("local", localJSON);
+        manifestJSON.put("acknowledged", devicesJSON);
+        manifestJSON.put("uploads", uploadsJSON);
+
+        return manifestJSON;
+    }
+
+
+    /* Returns the hash of every valid function in the given directory, by function name.
+     * Changed files are read and hashed without holding the lock.*/
+    Map<String, String> hashFunctions(File functionsDir){
+        Map<String, String> hashes = new HashMap<>();
+        Map<String, LocalEntry> updatedEntries = new HashMap<>();
+
+        Map<String, LocalEntry> knownEntries;
+
+        synchronized (this) {
+            knownEntries = new HashMap<>(localEntries);
+        }
+
+        File[] functionFiles = functionsDir.listFiles();
+
+        if(functionFiles != null){
+            for(File functionFile : functionFiles){
+                if(functionFile.isDirectory()){
+                    continue;
+                }
+
+                String functionName = functionFile.getName();
+                LocalEntry entry = knownEntries.get(functionName);
+
+                if(entry == null || entry.modified != functionFile.lastModified() || entry.length != functionFile.length()){
+                    try {
+                        String hash = hash(new JSONArray(readFile(functionFile)));
+
+                        entry = new LocalEntry(hash, functionFile.lastModified(), functionFile.length());
+                    } catch(Exception e) {
+                        entry = null;
+                    }
+                }
+
+                if(entry != null){
+                    updatedEntries.put(functionName, entry);
+                    hashes.put(functionName, entry.hash);
+                }
+            }
+        }
+
+        // Functions that were deleted locally are dropped as well
+        synchronized (this) {
+            localEntries = updatedEntries;
+        }
+
+        return hashes;
+    }
+
+    synchronized String getAcknowledgedHash(String deviceURL, String functionName){
+        Map<String, String> deviceHashes = acknowledgedHashes.get(deviceURL);
+
+        if(deviceHashes == null){
+            return null;
+        }
+
+        return deviceHashes.get(functionName);
+    }
+
+    /* Returns every function hash, that a device acknowledged or is being sent.*/
+    synchronized Set<String> getReferencedHashes(){
+        Set<String> hashes = new HashSet<>();
+
+        for(Map<String, String> deviceHashes : acknowledgedHashes.values()){
+            hashes.addAll(deviceHashes.values());
+        }
+
+        for(Map<String, UploadStatus> deviceStates : uploadStates.values()){
+            for(UploadStatus status : deviceStates.values()){
+                hashes.add(status.hash);
+            }
+        }
+
+        return hashes;
+    }
+
+    /* Marks the upload of the given function version as started, and returns how often it was tried.
+     * A version that wasn't tried before, or a fresh sync, starts counting from one again.*/
+    synchronized int markInFlight(String deviceURL, String functionName, String hash, boolean isRetry){
+        UploadStatus status = getUploadStatus(deviceURL, functionName);
+
+        int attempts = 1;
+
+        if(isRetry && status != null && status.hash.equals(hash)){
+            attempts = status.attempts + 1;
+        }
+
+        setUploadStatus(deviceURL, functionName, new UploadStatus(hash, DeviceConnector.UploadState.IN_FLIGHT, attempts));
+
+        return attempts;
+    }
+
+    synchronized void markAcknowledged(String deviceURL, String functionName, String hash){
+        Map<String, String> deviceHashes = acknowledgedHashes.get(deviceURL);
+
+        if(deviceHashes == null){
+            deviceHashes = new HashMap<>();
+            acknowledgedHashes.put(deviceURL, deviceHashes);
+        }
+
+        deviceHashes.put(functionName, hash);
+
+        setUploadStatus(deviceURL, functionName, new UploadStatus(hash, DeviceConnector.UploadState.ACKNOWLEDGED, 0));
+    }
+
+    synchronized void markUnacknowledged(String deviceURL, String functionName, String hash, boolean willRetry){
+        UploadStatus status = getUploadStatus(deviceURL, functionName);
+
+        int attempts = status != null ? status.attempts : 0;
+        DeviceConnector.UploadState state = willRetry ? DeviceConnector.UploadState.PENDING : DeviceConnector.UploadState.FAILED;
+
+        setUploadStatus(deviceURL, functionName, new UploadStatus(hash, state, attempts));
+    }
+
+    synchronized int getUploadAttempts(String deviceURL, String functionName){
+        UploadStatus status = getUploadStatus(deviceURL, functionName);
+
+        if(status == null){
+            return 0;
+        }
+
+        return status.attempts;
+    }
+
+    synchronized DeviceConnector.UploadState getUploadState(String deviceURL, String functionName){
+        UploadStatus status = getUploadStatus(deviceURL, functionName);
+
+        if(status == null){
+            return null;
+        }
+
+        return status.state;
+    }
+
+    private UploadStatus getUploadStatus(String deviceURL, String functionName){
+        Map<String, UploadStatus> deviceStates = uploadStates.get(deviceURL);
+
+        if(deviceStates == null){
+            return null;
+        }
+
+        return deviceStates.get(functionName);
+    }
+
+    private void setUploadStatus(String deviceURL, String functionName, UploadStatus status){
+        Map<String, UploadStatus> deviceStates = uploadStates.get(deviceURL);
+
+        if(deviceStates == null){
+            deviceStates = new HashMap<>();
+            uploadStates.put(deviceURL, deviceStates);
+        }
+
+        deviceStates.put(functionName, status);
+    }
+
+
+    static String hash(JSONArray function) throws JSONException{
+        StringBuilder canonical = new StringBuilder();
+        appendCanonical(canonical, function);
+
+        return sha256(canonical.toString());
+    }
+
+    static String rootHash(Map<String, String> hashes){
+        List<String> functionNames = new ArrayList<>(hashes.keySet());
+        Collections.sort(functionNames);
+
+        StringBuilder summary = new StringBuilder();
+
+        for(String functionName : functionNames){
+            summary.append(functionName).append(':').append(hashes.get(functionName)).append('\n');
+        }
+
+        return sha256(summary.toString());
+    }
+
+    /* Writes JSON with sorted object keys and no whitespace, so equal trees always give equal text.*/
+    private static void appendCanonical(StringBuilder sb, Object value) throws JSONException{
+        if(value instanceof JSONObject){
+            JSONObject object = (JSONObject) value;
+
+            List<String> keys = new ArrayList<>();
+            Iterator<String> keyIterator = object.keys();
+            while (keyIterator.hasNext()) {
+                keys.add(keyIterator.next());
+            }
+            Collections.sort(keys);
+
+            sb.append('{');
+            for(int i = 0; i < keys.size(); i++){
+                if(i > 0){
+                    sb.append(',');
+                }
+
+                sb.append(JSONObject.quote(keys.get(i))).append(':');
+                appendCanonical(sb, object.get(keys.get(i)));
+            }
+            sb.append('}');
+        } else if(value instanceof JSONArray){
+            JSONArray array = (JSONArray) value;
+
+            sb.append('[');
+            for(int i = 0; i < array.length(); i++){
+                if(i > 0){
+                    sb.append(',');
+                }
+
+                appendCanonical(sb, array.get(i));
+            }
+            sb.append(']');
+        } else if(value instanceof String){
+            sb.append(JSONObject.quote((String) value));
+        } else if(value instanceof Number){
+            sb.append(JSONObject.numberToString((Number) value));
+        } else if(value == null || value == JSONObject.NULL){
+            sb.append("null");
+        } else {
+            sb.append(value.toString());
+        }
+    }
+
+    static String sha256(String text){
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(text.getBytes("UTF-8"));
+
+            StringBuilder hex = new StringBuilder();
+            for(byte b : hash){
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+                hex.append(Character.forDigit(b & 0xF, 16));
+            }
+
+            return hex.toString();
+        } catch(NoSuchAlgorithmException | IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String readFile(File file) throws IOException{
+        FileInputStream inputStream = new FileInputStream(file);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+        StringBuilder sb = new StringBuilder();
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            sb.append(line).append("\n");
+        }
+
+        reader.close();
+        inputStream.close();
+
+        return sb.toString();
+    }
+
+
+    private static class UploadStatus {
+        final String hash;
+        final DeviceConnector.UploadState state;
+        final int attempts;
+
+        UploadStatus(String hash, DeviceConnector.UploadState state, int attempts){
+            this.hash = hash;
+            this.state = state;
+            this.attempts = attempts;
+        }
+    }
+
+    private static class LocalEntry {
+        final String hash;
+        final long modified;
+        final long length;
+
+        LocalEntry(String hash, long modified, long length){
+            this.hash = hash;
+            this.modified = modified;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,792 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.rcprogrammer.remoteprogrammer.codeeditor.codeview.CodeFormat;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/* Uploads the local functions, that a device doesn't have in their current version yet.
+ * Files are only ever touched on a small pool of I/O threads: hashing happens there, and request
+ * bodies are taken from a FunctionBundle, that builds them straight from the file bytes, without
+ * parsing them into JSON first. Everything else, including all listener calls, happens on the main thread.*/
+class FunctionUploader {
+
+    static final int IO_THREADS = 2;
+
+    private static final int MAX_FUNCTIONS_PER_BATCH = 50;
+    private static final String FUNCTION_HASH_HEADER = "X-Function-Hash";
+    private static final String JSON_CONTENT_TYPE = "application/json; charset=utf-8";
+
+    private static final int MAX_UPLOAD_ATTEMPTS = 5;
+    private static final long UPLOAD_RETRY_BASE_DELAY = 2000;
+    private static final long UPLOAD_RETRY_MAX_DELAY = 30000;
+
+    private static final String BASE_HASH_HEADER = "X-Base-Hash";
+
+    private final File functionsDir;
+    private final FunctionManifest manifest;
+    private final FunctionVersionStore versionStore;
+
+    private final ExecutorService ioExecutor;
+    private final boolean ownsIoExecutor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private Target target = null;
+
+    private final Set<String> functionsToRetry = new HashSet<>();
+    private boolean isRetryScheduled = false;
+
+    // Pushed functions, that are being hashed, or wait for their previous upload to finish
+    private final Set<String> preparingPushes = new HashSet<>();
+    private final Set<String> deferredPushes = new HashSet<>();
+
+    // -1 until it's known, which functions have to be uploaded
+    private int numOfUploads = -1;
+    private int numOfFinishedUploads = 0;
+    private int numOfFailedUploads = 0;
+
+    private UploadListener listener;
+    private ProgressListener progressListener;
+
+
+    FunctionUploader(File functionsDir, FunctionManifest manifest, FunctionVersionStore versionStore){
+        this(functionsDir, manifest, versionStore, Executors.newFixedThreadPool(IO_THREADS), true);
+    }
+
+    /* Several uploaders, e.g. one per device of a deployment, can share the same I/O threads.*/
+    FunctionUploader(File functionsDir, FunctionManifest manifest, FunctionVersionStore versionStore, ExecutorService ioExecutor){
+        this(functionsDir, manifest, versionStore, ioExecutor, false);
+    }
+
+    private FunctionUploader(File functionsDir, FunctionManifest manifest, FunctionVersionStore versionStore, ExecutorService ioExecutor, boolean ownsIoExecutor){
+        this.functionsDir = functionsDir;
+        this.manifest = manifest;
+        this.versionStore = versionStore;
+        this.ioExecutor = ioExecutor;
+        this.ownsIoExecutor = ownsIoExecutor;
+    }
+
+
+    void setListener(UploadListener listener){
+        this.listener = listener;
+    }
+
+    void setProgressListener(ProgressListener progressListener){
+        this.progressListener = progressListener;
+    }
+
+    /* Stops all retries, and ignores results of running uploads, e.g. because the device changes.*/
+    void cancel(){
+        target = null;
+
+        mainHandler.removeCallbacks(retryUploads);
+        functionsToRetry.clear();
+        isRetryScheduled = false;
+
+        preparingPushes.clear();
+        deferredPushes.clear();
+    }
+
+    /* Cancels the uploader for good, and stops its I/O threads, unless they are shared. Files, that are being
+     * written, e.g. the manifest, are still finished.*/
+    void shutdown(){
+        cancel();
+
+        if(ownsIoExecutor){
+            ioExecutor.shutdown();
+        }
+    }
+
+    /* Uploads all functions, that differ from the ones on the device. The device either reports a root hash
+     * and the hash of each function it has, or only the names of its functions (functionsOnDevice).*/
+    void syncAll(final Target newTarget, final Set<String> functionsOnDevice, final String deviceFunctionRoot){
+        startSync(newTarget);
+
+        runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                final FunctionBundle bundle = FunctionBundle.create(functionsDir, manifest);
+                saveManifest();
+
+                versionStore.retainOnly(manifest.getReferencedHashes());
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(target == newTarget){
+                            uploadChangedFunctions(newTarget, bundle, functionsOnDevice, deviceFunctionRoot);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /* Like syncAll(Target, Set, String), but with functions, that were already hashed, e.g. once for all devices of a deployment.*/
+    void syncAll(Target newTarget, FunctionBundle bundle, Set<String> functionsOnDevice, String deviceFunctionRoot){
+        startSync(newTarget);
+
+        uploadChangedFunctions(newTarget, bundle, functionsOnDevice, deviceFunctionRoot);
+    }
+
+    /* Uploads the given functions to the device of the last sync, if they differ from the version it acknowledged.
+     * Each function is only uploaded once at a time: a function, that is pushed again while it's being uploaded,
+     * is uploaded once more afterwards, no matter how often it was pushed in the meantime.*/
+    void pushFunctions(Collection<String> functionNames){
+        final Target pushTarget = target;
+
+        if(pushTarget == null){
+            return;
+        }
+
+        final List<String> pushedFunctions = new ArrayList<>();
+
+        for(String functionName : functionNames){
+            if(preparingPushes.contains(functionName)
+                    || manifest.getUploadState(pushTarget.deviceURL, functionName) == DeviceConnector.UploadState.IN_FLIGHT){
+                deferredPushes.add(functionName);
+            } else {
+                pushedFunctions.add(functionName);
+            }
+        }
+
+        if(pushedFunctions.isEmpty()){
+            return;
+        }
+
+        preparingPushes.addAll(pushedFunctions);
+
+        runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                final FunctionBundle bundle = FunctionBundle.create(functionsDir, manifest);
+                final List<String> changedFunctions = new ArrayList<>();
+
+                if(bundle != null){
+                    for(String functionName : pushedFunctions){
+                        String hash = bundle.getHash(functionName);
+
+                        if(hash != null && !hash.equals(manifest.getAcknowledgedHash(pushTarget.deviceURL, functionName))){
+                            changedFunctions.add(functionName);
+                        }
+                    }
+                }
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(target != pushTarget){
+                            return;
+                        }
+
+                        preparingPushes.removeAll(pushedFunctions);
+
+                        if(!changedFunctions.isEmpty()){
+                            upload(pushTarget, bundle, changedFunctions, false);
+                        }
+
+                        // Functions pushed again while they were hashed, but not uploaded, still have to be checked
+                        List<String> repushedFunctions = new ArrayList<>();
+
+                        for(String functionName : pushedFunctions){
+                            if(!changedFunctions.contains(functionName) && deferredPushes.remove(functionName)){
+                                repushedFunctions.add(functionName);
+                            }
+                        }
+
+                        if(!repushedFunctions.isEmpty()){
+                            pushFunctions(repushedFunctions);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    DeviceConnector.UploadState getUploadState(String deviceURL, String functionName){
+        return manifest.getUploadState(deviceURL, functionName);
+    }
+
+
+    private void startSync(Target newTarget){
+        cancel();
+        target = newTarget;
+
+        numOfUploads = -1;
+        numOfFinishedUploads = 0;
+        numOfFailedUploads = 0;
+    }
+
+    private void uploadChangedFunctions(final Target target, final FunctionBundle bundle, Set<String> functionsOnDevice, String deviceFunctionRoot){
+        if(bundle == null){
+            // Without a functions directory, there is nothing to upload
+            upload(target, null, new ArrayList<String>(), false);
+            return;
+        }
+
+        final Map<String, String> localHashes = bundle.getHashes();
+
+        if(target.capabilities.supports(DeviceCapabilities.FUNCTION_HASHES)){
+            // Equal root hashes mean the device already has exactly the local functions
+            if(FunctionManifest.rootHash(localHashes).equals(deviceFunctionRoot)){
+                upload(target, bundle, new ArrayList<String>(), false);
+                return;
+            }
+
+            requestFunctionHashes(target, new HashListener() {
+                @Override
+                public void onHashes(Map<String, String> deviceHashes) {
+                    List<String> changedFunctions = new ArrayList<>();
+
+                    for(Map.Entry<String, String> entry : localHashes.entrySet()){
+                        if(!entry.getValue().equals(deviceHashes.get(entry.getKey()))){
+                            changedFunctions.add(entry.getKey());
+                        }
+                    }
+
+                    upload(target, bundle, changedFunctions, false);
+                }
+            });
+        } else {
+            List<String> changedFunctions = new ArrayList<>();
+
+            for(Map.Entry<String, String> entry : localHashes.entrySet()){
+                String functionName = entry.getKey();
+
+                boolean isOnDevice = functionsOnDevice != null && functionsOnDevice.contains(functionName);
+
+                if(!isOnDevice || !entry.getValue().equals(manifest.getAcknowledgedHash(target.deviceURL, functionName))){
+                    changedFunctions.add(functionName);
+                }
+            }
+
+            upload(target, bundle, changedFunctions, false);
+        }
+    }
+
+    private void requestFunctionHashes(final Target target, final HashListener listener){
+        String subURL = target.deviceURL + "/function_hashes";
+
+        DeviceRequest<JSONObject> hashRequest = new DeviceRequest<>(DeviceRequest.GET, subURL, ResponseParsers.JSON_OBJECT,
+                new DeviceRequest.Listener<JSONObject>() {
+                    @Override
+                    public void onResponse(JSONObject response) {
+                        Map<String, String> deviceHashes = new HashMap<>();
+
+                        Iterator<String> functionNames = response.keys();
+                        while (functionNames.hasNext()) {
+                            String functionName = functionNames.next();
+
+                            deviceHashes.put(functionName, response.optString(functionName));
+                        }
+
+                        if(FunctionUploader.this.target == target){
+                            listener.onHashes(deviceHashes);
+                        }
+                    }
+
+                    @Override
+                    public void onError(int statusCode, Exception cause) {
+                        // Without the device's hashes, every function has to be treated as changed
+                        if(FunctionUploader.this.target == target){
+                            listener.onHashes(new HashMap<String, String>());
+                        }
+                    }
+                }
+        );
+
+        hashRequest.setRetryPolicy(target.timeout, DeviceRequest.DEFAULT_MAX_RETRIES);
+        hashRequest.setTag(target.tag);
+
+        target.transport.send(hashRequest);
+    }
+
+    private void upload(final Target target, final FunctionBundle bundle, final List<String> functionNames, boolean isRetry){
+        if(!isRetry){
+            numOfUploads = Math.max(numOfUploads, 0) + functionNames.size();
+            notifyProgress();
+        }
+
+        if(functionNames.isEmpty()){
+            return;
+        }
+
+        for(String functionName : functionNames){
+            manifest.markInFlight(target.deviceURL, functionName, bundle.getHash(functionName), isRetry);
+        }
+
+        // The format registry belongs to the main thread, so it's read before going to the I/O threads
+        final List<String> registryIds = target.capabilities.supports(DeviceCapabilities.BINARY_AST) && target.registryVersion >= 0
+                ? getFormatRegistryIds() : null;
+
+        runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                saveManifest();
+
+                // The sent versions are kept, so the next change can be sent as a patch against them
+                for(String functionName : functionNames){
+                    try {
+                        versionStore.store(bundle.getHash(functionName), bundle.getFunctionBody(functionName, false));
+                    } catch (IOException e) {
+                        // Unreadable functions fail, when they are sent
+                    }
+                }
+
+                List<String> remainingFunctions = functionNames;
+
+                if(target.capabilities.supports(DeviceCapabilities.JSON_PATCH)){
+                    remainingFunctions = new ArrayList<>();
+
+                    for(String functionName : functionNames){
+                        if(!sendFunctionPatch(target, bundle, functionName)){
+                            remainingFunctions.add(functionName);
+                        }
+                    }
+                }
+
+                if(target.capabilities.supports(DeviceCapabilities.BATCH_UPLOAD)){
+                    for(int i = 0; i < remainingFunctions.size(); i += MAX_FUNCTIONS_PER_BATCH){
+                        sendFunctionBatch(target, bundle, remainingFunctions.subList(i, Math.min(i + MAX_FUNCTIONS_PER_BATCH, remainingFunctions.size())));
+                    }
+                } else if(registryIds != null){
+                    for(String functionName : remainingFunctions){
+                        sendBinaryFunction(target, bundle, functionName, registryIds);
+                    }
+                } else {
+                    for(String functionName : remainingFunctions){
+                        sendFunction(target, bundle, functionName);
+                    }
+                }
+            }
+        });
+    }
+
+    /* Called on an I/O thread.*/
+    private void sendFunction(final Target target, final FunctionBundle bundle, final String functionName){
+        boolean compressed = target.capabilities.supports(DeviceCapabilities.GZIP_UPLOAD);
+        byte[] body;
+
+        try {
+            body = bundle.getFunctionBody(functionName, compressed);
+        } catch (IOException e) {
+            postFailedUploads(target, bundle, Collections.singletonList(functionName));
+            return;
+        }
+
+        String subURL = target.deviceURL + "/function/" + functionName + "/" + bundle.getUpdateTime();
+
+        target.transport.send(createUploadRequest(target, subURL, body, compressed, JSON_CONTENT_TYPE, bundle.getHash(functionName),
+                new DeviceRequest.Listener<byte[]>() {
+                    @Override
+                    public void onResponse(byte[] response) {
+                        onFunctionUploaded(target, functionName, bundle.getHash(functionName), true);
+                        saveManifestInBackground();
+                    }
+
+                    @Override
+                    public void onError(int statusCode, Exception cause) {
+                        onFunctionUploaded(target, functionName, bundle.getHash(functionName), false);
+                        saveManifestInBackground();
+                    }
+                }
+        ));
+    }
+
+    /* Called on an I/O thread. Sends only the difference between the function and the version the device
+     * acknowledged last, as a JSON Patch. Returns false without sending anything, if that version isn't known,
+     * or the patch wouldn't be smaller than the function. If the device's version differs from the one the patch
+     * is based on, the whole function is sent instead.*/
+    private boolean sendFunctionPatch(final Target target, final FunctionBundle bundle, final String functionName){
+        String baseHash = manifest.getAcknowledgedHash(target.deviceURL, functionName);
+        String hash = bundle.getHash(functionName);
+
+        if(baseHash == null || baseHash.equals(hash)){
+            return false;
+        }
+
+        byte[] baseFunction = versionStore.load(baseHash);
+
+        if(baseFunction == null){
+            return false;
+        }
+
+        boolean compressed = target.capabilities.supports(DeviceCapabilities.GZIP_UPLOAD);
+        byte[] body;
+
+        try {
+            byte[] function = bundle.getFunctionBody(functionName, false);
+
+            body = JsonPatch.diff(new JSONArray(new String(baseFunction, "UTF-8")), new JSONArray(new String(function, "UTF-8")))
+                    .toString().getBytes("UTF-8");
+
+            if(body.length >= function.length){
+                return false;
+            }
+
+            if(compressed){
+                body = Gzip.compress(body);
+            }
+        } catch (JSONException | IOException e) {
+            return false;
+        }
+
+        String subURL = target.deviceURL + "/function/" + functionName + "/" + bundle.getUpdateTime();
+
+        DeviceRequest<byte[]> request = createUploadRequest(target, subURL, body, compressed, JsonPatch.CONTENT_TYPE, hash,
+                new DeviceRequest.Listener<byte[]>() {
+                    @Override
+                    public void onResponse(byte[] response) {
+                        onFunctionUploaded(target, functionName, bundle.getHash(functionName), true);
+                        saveManifestInBackground();
+                    }
+
+                    @Override
+                    public void onError(int statusCode, Exception cause) {
+                        if((statusCode == 409 || statusCode == 412 || statusCode == 415) && FunctionUploader.this.target == target){
+                            runInBackground(new Runnable() {
+                                @Override
+                                public void run() {
+                                    sendFunction(target, bundle, functionName);
+                                }
+                            });
+                        } else {
+                            onFunctionUploaded(target, functionName, bundle.getHash(functionName), false);
+                            saveManifestInBackground();
+                        }
+                    }
+                }
+        );
+
+        request.addHeader(BASE_HASH_HEADER, baseHash);
+
+        target.transport.send(request);
+
+        return true;
+    }
+
+    /* Called on an I/O thread. Uploads a function in the binary format of BinaryAST. If the device rejects it,
+     * because its format registry doesn't match, the function is sent as JSON instead.*/
+    private void sendBinaryFunction(final Target target, final FunctionBundle bundle, final String functionName, List<String> registryIds){
+        boolean compressed = target.capabilities.supports(DeviceCapabilities.GZIP_UPLOAD);
+        byte[] body;
+
+        try {
+            body = BinaryAST.encode(new JSONArray(new String(bundle.getFunctionBody(functionName, false), "UTF-8")), registryIds, target.registryVersion);
+
+            // Binary bodies depend on the device's registry, so unlike JSON bodies they aren't shared between devices
+            if(compressed){
+                body = Gzip.compress(body);
+            }
+        } catch (JSONException | IOException e) {
+            // Also functions with params, that the binary format can't hold, e.g. null
+            sendFunction(target, bundle, functionName);
+            return;
+        }
+
+        String subURL = target.deviceURL + "/function/" + functionName + "/" + bundle.getUpdateTime();
+
+        target.transport.send(createUploadRequest(target, subURL, body, compressed, BinaryAST.CONTENT_TYPE, bundle.getHash(functionName),
+                new DeviceRequest.Listener<byte[]>() {
+                    @Override
+                    public void onResponse(byte[] response) {
+                        onFunctionUploaded(target, functionName, bundle.getHash(functionName), true);
+                        saveManifestInBackground();
+                    }
+
+                    @Override
+                    public void onError(int statusCode, Exception cause) {
+                        if((statusCode == 409 || statusCode == 415) && FunctionUploader.this.target == target){
+                            runInBackground(new Runnable() {
+                                @Override
+                                public void run() {
+                                    sendFunction(target, bundle, functionName);
+                                }
+                            });
+                        } else {
+                            onFunctionUploaded(target, functionName, bundle.getHash(functionName), false);
+                            saveManifestInBackground();
+                        }
+                    }
+                }
+        ));
+    }
+
+    /* Called on an I/O thread. Uploads several functions in one request. The device answers with a
+     * "results" object, that states for each function name, whether it was stored.*/
+    private void sendFunctionBatch(final Target target, final FunctionBundle bundle, List<String> batchFunctionNames){
+        final List<String> batch = new ArrayList<>(batchFunctionNames);
+
+        boolean compressed = target.capabilities.supports(DeviceCapabilities.GZIP_UPLOAD);
+        byte[] body;
+
+        try {
+            body = bundle.getBatchBody(batch, compressed);
+        } catch (IOException e) {
+            postFailedUploads(target, bundle, batch);
+            return;
+        }
+
+        String subURL = target.deviceURL + "/functions";
+
+        target.transport.send(createUploadRequest(target, subURL, body, compressed, JSON_CONTENT_TYPE, null,
+                new DeviceRequest.Listener<byte[]>() {
+                    @Override
+                    public void onResponse(byte[] response) {
+                        JSONObject results = null;
+
+                        try {
+                            results = new JSONObject(new String(response, "UTF-8")).optJSONObject("results");
+                        } catch (JSONException | IOException e) {
+                            // Without results, the accepted request means every function was stored
+                        }
+
+                        for(String functionName : batch){
+                            onFunctionUploaded(target, functionName, bundle.getHash(functionName), results == null || results.optBoolean(functionName, false));
+                        }
+
+                        saveManifestInBackground();
+                    }
+
+                    @Override
+                    public void onError(int statusCode, Exception cause) {
+                        for(String functionName : batch){
+                            onFunctionUploaded(target, functionName, bundle.getHash(functionName), false);
+                        }
+
+                        saveManifestInBackground();
+                    }
+                }
+        ));
+    }
+
+    /* Called on an I/O thread, for functions that couldn't even be read.*/
+    private void postFailedUploads(final Target target, final FunctionBundle bundle, final List<String> functionNames){
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for(String functionName : functionNames){
+                    onFunctionUploaded(target, functionName, bundle.getHash(functionName), false);
+                }
+
+                saveManifestInBackground();
+            }
+        });
+    }
+
+    /* body is already compressed, if compressed is true.*/
+    private DeviceRequest<byte[]> createUploadRequest(Target target, String url, byte[] body, boolean compressed, String contentType, String hash, DeviceRequest.Listener<byte[]> listener){
+        DeviceRequest<byte[]> request = new DeviceRequest<>(DeviceRequest.POST, url, DeviceRequest.BYTES, listener);
+
+        if(hash != null){
+            request.addHeader(FUNCTION_HASH_HEADER, hash);
+        }
+
+        if(compressed){
+            request.addHeader("Content-Encoding", Gzip.ENCODING);
+        }
+
+        request.setBody(body, contentType);
+        request.setRetryPolicy(target.timeout, DeviceRequest.DEFAULT_MAX_RETRIES);
+        request.setPriority(DeviceRequest.Priority.BULK);
+        request.setTag(target.tag);
+
+        return request;
+    }
+
+    private void onFunctionUploaded(Target target, String functionName, String hash, boolean succeeded){
+        if(succeeded){
+            manifest.markAcknowledged(target.deviceURL, functionName, hash);
+        } else {
+            // Failed uploads are retried with exponential backoff, as long as the device doesn't change
+            int attempts = manifest.getUploadAttempts(target.deviceURL, functionName);
+            boolean willRetry = attempts < MAX_UPLOAD_ATTEMPTS && this.target == target;
+
+            manifest.markUnacknowledged(target.deviceURL, functionName, hash, willRetry);
+
+            if(willRetry){
+                // The retry uploads the latest version anyway
+                deferredPushes.remove(functionName);
+
+                scheduleUploadRetry(functionName, attempts);
+                return;
+            }
+        }
+
+        if(this.target == target && deferredPushes.remove(functionName)){
+            pushFunctions(Collections.singletonList(functionName));
+        }
+
+        if(this.target == target){
+            if(succeeded){
+                numOfFinishedUploads++;
+            } else {
+                numOfFailedUploads++;
+            }
+
+            notifyProgress();
+        }
+
+        if(listener != null){
+            listener.onFunctionUploaded(target.deviceURL, functionName, succeeded);
+        }
+    }
+
+    private void notifyProgress(){
+        if(progressListener != null && numOfUploads >= 0){
+            progressListener.onProgress(numOfFinishedUploads, numOfFailedUploads, numOfUploads);
+        }
+    }
+
+    private void scheduleUploadRetry(String functionName, int attempts){
+        functionsToRetry.add(functionName);
+
+        if(!isRetryScheduled){
+            isRetryScheduled = true;
+
+            long delay = Math.min(UPLOAD_RETRY_BASE_DELAY << (attempts - 1), UPLOAD_RETRY_MAX_DELAY);
+            mainHandler.postDelayed(retryUploads, delay);
+        }
+    }
+
+    private final Runnable retryUploads = new Runnable() {
+        @Override
+        public void run() {
+            isRetryScheduled = false;
+
+            final Target retryTarget = target;
+            final List<String> functionNames = new ArrayList<>(functionsToRetry);
+            functionsToRetry.clear();
+
+            if(retryTarget == null){
+                return;
+            }
+
+            runInBackground(new Runnable() {
+                @Override
+                public void run() {
+                    final FunctionBundle bundle = FunctionBundle.create(functionsDir, manifest);
+
+                    final int numOfFunctions = functionNames.size();
+                    if(bundle != null){
+                        functionNames.retainAll(bundle.getHashes().keySet());
+                    } else {
+                        functionNames.clear();
+                    }
+
+                    mainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            if(target == retryTarget){
+                                // Functions deleted in the meantime don't have to be uploaded anymore
+                                numOfFinishedUploads += numOfFunctions - functionNames.size();
+                                notifyProgress();
+
+                                if(bundle != null){
+                                    upload(retryTarget, bundle, functionNames, true);
+                                }
+                            }
+                        }
+                    });
+                }
+            });
+        }
+    };
+
+
+    /* Tasks are dropped, once the I/O threads were shut down, e.g. because the deployment, that shares them, was cancelled.*/
+    private void runInBackground(Runnable task){
+        try {
+            ioExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // The uploader isn't used anymore
+        }
+    }
+
+    private void saveManifest(){
+        try {
+            manifest.save();
+        } catch(Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void saveManifestInBackground(){
+        runInBackground(new Runnable() {
+            @Override
+            public void run() {
+                saveManifest();
+            }
+        });
+    }
+
+    private static List<String> getFormatRegistryIds(){
+        List<String> registryIds = new ArrayList<>();
+
+        for(CodeFormat format : CodeFormat.getAllFormats(true)){
+            registryIds.add(format.getId());
+        }
+
+        Collections.sort(registryIds);
+
+        return registryIds;
+    }
+
+    /* Everything needed to upload functions to one device, as it was known when the upload started.*/
+    static class Target {
+        final String deviceURL;
+        final DeviceCapabilities capabilities;
+        final long registryVersion;
+        final DeviceTransport transport;
+        final int timeout;
+
+        // All requests to the device are tagged with it, so they can be cancelled, may be null
+        final Object tag;
+
+        Target(String deviceURL, DeviceCapabilities capabilities, long registryVersion, DeviceTransport transport, int timeout){
+            this(deviceURL, capabilities, registryVersion, transport, timeout, null);
+        }
+
+        Target(String deviceURL, DeviceCapabilities capabilities, long registryVersion, DeviceTransport transport, int timeout, Object tag){
+            this.deviceURL = deviceURL;
+            this.capabilities = capabilities;
+            this.registryVersion = registryVersion;
+            this.transport = transport;
+            this.timeout = timeout;
+            this.tag = tag;
+        }
+    }
+
+    /* Called on the main thread, whenever an upload finished for good, also if its device isn't the target anymore.*/
+    interface UploadListener {
+        void onFunctionUploaded(String deviceURL, String functionName, boolean succeeded);
+    }
+
+    /* Called on the main thread, whenever an upload to the current target finished for good.*/
+    interface ProgressListener {
+        void onProgress(int finished, int failed, int total);
+    }
+
+    private interface HashListener {
+        void onHashes(Map<String, String> deviceHashes);
+    }
+}
@@ -0,0 +1,108 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import android.content.Context;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Set;
+
+/* Keeps a copy of every function version, that was sent to a device, named by its hash. Devices
+ * supporting "json_patch" are then sent only the difference to the version they acknowledged.
+ * Versions, that no device refers to anymore, are removed with retainOnly().
+ *
+ * Must only be used on I/O threads.*/
+class FunctionVersionStore {
+
+    private static final String DIR_NAME = "functionVersions";
+
+    private final File dir;
+
+
+    private FunctionVersionStore(File dir){
+        this.dir = dir;
+    }
+
+
+    static FunctionVersionStore open(Context context){
+        return new FunctionVersionStore(new File(context.getFilesDir() + File.separator + DIR_NAME));
+    }
+
+
+    void store(String hash, byte[] function){
+        File file = new File(dir, hash);
+
+        if(file.exists()){
+            return;
+        }
+
+        if(!dir.exists()){
+            dir.mkdirs();
+        }
+
+        // Written under a temporary name first, so a version is never read half written
+        File tempFile = new File(dir, hash + ".tmp");
+
+        try {
+            FileOutputStream outputStream = new FileOutputStream(tempFile);
+            outputStream.write(function);
+            outputStream.close();
+
+            if(!tempFile.renameTo(file)){
+                tempFile.delete();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            tempFile.delete();
+        }
+    }
+
+    /* Returns null, if the version isn't stored.*/
+    byte[] load(String hash){
+        if(hash == null){
+            return null;
+        }
+
+        File file = new File(dir, hash);
+
+        if(!file.exists()){
+            return null;
+        }
+
+        try {
+            FileInputStream inputStream = new FileInputStream(file);
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream((int) file.length());
+
+            byte[] buffer = new byte[8192];
+            int length;
+
+            while ((length = inputStream.read(buffer)) > 0) {
+                outputStream.write(buffer, 0, length);
+            }
+
+            inputStream.close();
+
+            return outputStream.toByteArray();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    void retainOnly(Set<String> hashes){
+        File[] files = dir.listFiles();
+
+        if(files == null){
+            return;
+        }
+
+        for(File file : files){
+            // Temporary files belong to versions, that are being stored right now
+            if(!hashes.contains(file.getName()) && !file.getName().endsWith(".tmp")){
+                file.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/* Helpers for transports, that accept gzip compressed responses, and for requests, that compress their bodies.
+ * Setting "Accept-Encoding" manually stops HttpURLConnection from decompressing on its own,
+ * so compressed responses have to be inflated here.*/
+class Gzip {
+
+    static final String ENCODING = "gzip";
+
+    static byte[] compress(byte[] data) throws IOException{
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(data.length / 4 + 64);
+        GZIPOutputStream gzipStream = new GZIPOutputStream(outputStream);
+
+        gzipStream.write(data);
+        gzipStream.close();
+
+        return outputStream.toByteArray();
+    }
+
+    /* Returns the data unchanged, unless the given "Content-Encoding" says it's compressed.*/
+    static byte[] decompress(byte[] data, String contentEncoding) throws IOException{
+        if(contentEncoding == null || !contentEncoding.equalsIgnoreCase(ENCODING) || data == null){
+            return data;
+        }
+
+        GZIPInputStream gzipStream = new GZIPInputStream(new ByteArrayInputStream(data));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(data.length * 4);
+
+        byte[] buffer = new byte[8192];
+        int length;
+
+        while ((length = gzipStream.read(buffer)) > 0) {
+            outputStream.write(buffer, 0, length);
+        }
+
+        gzipStream.close();
+
+        return outputStream.toByteArray();
+    }
+}
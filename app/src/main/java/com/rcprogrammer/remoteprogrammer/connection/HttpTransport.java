@@ -0,0 +1,228 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/* Sends requests with HttpURLConnection on a fixed pool of threads, that takes waiting requests in the order of
+ * their priority. Each thread uses one connection at a time, so the pool limits how many are open.
+ * Response bodies are always read completely and closed without disconnecting, so the connection goes back
+ * into the keep-alive pool and the next request to the same device doesn't need a new TCP handshake.
+ *
+ * Only uses plain Java, listeners are called on the given callback executor.*/
+public class HttpTransport implements DeviceTransport {
+
+    private static final int DEFAULT_THREADS = 4;
+
+    private final ExecutorService executor;
+    private final Executor callbackExecutor;
+
+    // Keeps requests of the same priority in the order they were sent
+    private final AtomicLong nextSequenceNumber = new AtomicLong();
+
+    private final Set<DeviceRequest<?>> pendingRequests = Collections.newSetFromMap(new ConcurrentHashMap<DeviceRequest<?>, Boolean>());
+
+
+    public HttpTransport(Executor callbackExecutor){
+        this(DEFAULT_THREADS, callbackExecutor);
+    }
+
+    public HttpTransport(int threads, Executor callbackExecutor){
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>());
+        this.callbackExecutor = callbackExecutor;
+    }
+
+
+    @Override
+    public void send(final DeviceRequest<?> request) {
+        pendingRequests.add(request);
+
+        try {
+            executor.execute(new Task(request, nextSequenceNumber.getAndIncrement()));
+        } catch (RejectedExecutionException e) {
+            // The transport was shut down
+            pendingRequests.remove(request);
+        }
+    }
+
+    @Override
+    public void cancelAll(Object tag) {
+        if(tag == null){
+            return;
+        }
+
+        for(DeviceRequest<?> request : pendingRequests){
+            if(tag.equals(request.getTag())){
+                request.cancel();
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        for(DeviceRequest<?> request : pendingRequests){
+            request.cancel();
+        }
+
+        executor.shutdownNow();
+    }
+
+
+    private <T> void perform(final DeviceRequest<T> request){
+        Exception failure = null;
+        int failedStatusCode = 0;
+
+        request.dispatched();
+
+        for(int attempt = 0; attempt <= request.getMaxRetries() && !request.isCanceled(); attempt++){
+            DeviceResponse response;
+
+            try {
+                response = execute(request);
+            } catch (IOException e) {
+                // Only attempts without any answer are retried, like Volley does for timeouts
+                failure = e;
+                continue;
+            }
+
+            if((response.getStatusCode() < 200 || response.getStatusCode() > 299) && !response.isNotModified()){
+                failure = new IOException("Unexpected response code " + response.getStatusCode() + " for " + request.getUrl());
+                failedStatusCode = response.getStatusCode();
+                break;
+            }
+
+            try {
+                final T result = request.parse(response);
+
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        request.deliverResponse(result);
+                    }
+                });
+
+                return;
+            } catch (Exception e) {
+                failure = e;
+                failedStatusCode = 0;
+                break;
+            }
+        }
+
+        final Exception cause = failure;
+        final int statusCode = failedStatusCode;
+
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                request.deliverError(statusCode, cause);
+            }
+        });
+    }
+
+    private DeviceResponse execute(DeviceRequest<?> request) throws IOException{
+        HttpURLConnection connection = (HttpURLConnection) new URL(request.getUrl()).openConnection();
+
+        connection.setRequestMethod(request.getMethod());
+        connection.setConnectTimeout(request.getTimeout());
+        connection.setReadTimeout(request.getTimeout());
+        connection.setUseCaches(false);
+
+        connection.setRequestProperty("Accept-Encoding", Gzip.ENCODING);
+
+        for(Map.Entry<String, String> header : request.getHeaders().entrySet()){
+            connection.setRequestProperty(header.getKey(), header.getValue());
+        }
+
+        byte[] body = request.getBody();
+
+        if(body != null){
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+
+            if(request.getContentType() != null){
+                connection.setRequestProperty("Content-Type", request.getContentType());
+            }
+
+            OutputStream out = connection.getOutputStream();
+            out.write(body);
+            out.close();
+        }
+
+        int statusCode = connection.getResponseCode();
+
+        InputStream in = statusCode >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        byte[] data = in != null ? readFully(in) : new byte[0];
+
+        Map<String, String> headers = new HashMap<>();
+
+        for(Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()){
+            if(header.getKey() != null && !header.getValue().isEmpty()){
+                headers.put(header.getKey(), header.getValue().get(0));
+            }
+        }
+
+        return new DeviceResponse(statusCode, headers, Gzip.decompress(data, connection.getContentEncoding()));
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException{
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        try {
+            byte[] buffer = new byte[8192];
+            int length;
+
+            while ((length = in.read(buffer)) > 0) {
+                outputStream.write(buffer, 0, length);
+            }
+        } finally {
+            in.close();
+        }
+
+        return outputStream.toByteArray();
+    }
+
+
+    private class Task implements Runnable, Comparable<Task> {
+        final DeviceRequest<?> request;
+        final long sequenceNumber;
+
+        Task(DeviceRequest<?> request, long sequenceNumber){
+            this.request = request;
+            this.sequenceNumber = sequenceNumber;
+        }
+
+        @Override
+        public void run() {
+            perform(request);
+            pendingRequests.remove(request);
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            int priorityOrder = request.getPriority().compareTo(other.request.getPriority());
+
+            if(priorityOrder != 0){
+                return priorityOrder;
+            }
+
+            return sequenceNumber < other.sequenceNumber ? -1 : (sequenceNumber == other.sequenceNumber ? 0 : 1);
+        }
+    }
+}
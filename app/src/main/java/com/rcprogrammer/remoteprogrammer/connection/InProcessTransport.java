@@ -0,0 +1,145 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/* Answers requests with a Device in the same process, without any network. Requests are handled
+ * one after another on a single thread, like the one threaded server on the robot does.
+ *
+ * Only uses plain Java, listeners are called on the given callback executor.*/
+public class InProcessTransport implements DeviceTransport {
+
+    private final Device device;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Executor callbackExecutor;
+
+    private final List<DeviceRequest<?>> pendingRequests = new ArrayList<>();
+
+
+    public InProcessTransport(Device device, Executor callbackExecutor){
+        this.device = device;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+
+    @Override
+    public void send(final DeviceRequest<?> request) {
+        synchronized (pendingRequests) {
+            pendingRequests.add(request);
+        }
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    perform(request);
+
+                    synchronized (pendingRequests) {
+                        pendingRequests.remove(request);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            synchronized (pendingRequests) {
+                pendingRequests.remove(request);
+            }
+        }
+    }
+
+    @Override
+    public void cancelAll(Object tag) {
+        if(tag == null){
+            return;
+        }
+
+        synchronized (pendingRequests) {
+            for(DeviceRequest<?> request : pendingRequests){
+                if(tag.equals(request.getTag())){
+                    request.cancel();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        synchronized (pendingRequests) {
+            for(DeviceRequest<?> request : pendingRequests){
+                request.cancel();
+            }
+        }
+
+        executor.shutdownNow();
+    }
+
+
+    private <T> void perform(final DeviceRequest<T> request){
+        if(request.isCanceled()){
+            return;
+        }
+
+        request.dispatched();
+
+        Exception cause;
+        int statusCode = 0;
+
+        try {
+            DeviceResponse response = device.handle(request.getMethod(), getPath(request.getUrl()), request);
+
+            statusCode = response.getStatusCode();
+
+            if((statusCode >= 200 && statusCode <= 299) || response.isNotModified()){
+                final T result = request.parse(response);
+
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        request.deliverResponse(result);
+                    }
+                });
+
+                return;
+            }
+
+            cause = new IllegalStateException("Unexpected response code " + statusCode + " for " + request.getUrl());
+        } catch (Exception e) {
+            cause = e;
+            statusCode = 0;
+        }
+
+        final Exception failure = cause;
+        final int failedStatusCode = statusCode;
+
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                request.deliverError(failedStatusCode, failure);
+            }
+        });
+    }
+
+    private static String getPath(String url) throws URISyntaxException{
+        URI uri = new URI(url);
+
+        String path = uri.getRawPath();
+
+        if(uri.getRawQuery() != null){
+            path += "?" + uri.getRawQuery();
+        }
+
+        return path;
+    }
+
+
+    /* A simulated device. path includes the query, if there is one.*/
+    public interface Device {
+        DeviceResponse handle(String method, String path, DeviceRequest<?> request) throws Exception;
+    }
+}
@@ -0,0 +1,155 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+
+/* Computes JSON Patch documents (RFC 6902), that turn one function into another. Only "add", "remove"
+ * and "replace" operations are used, and paths are JSON Pointers (RFC 6901).
+ *
+ * Arrays are compared after skipping their common beginning and end, so inserting or deleting a
+ * code element only adds or removes that element, instead of replacing everything behind it.*/
+final class JsonPatch {
+
+    static final String CONTENT_TYPE = "application/json-patch+json";
+
+
+    private JsonPatch(){
+    }
+
+
+    static JSONArray diff(Object source, Object target) throws JSONException{
+        JSONArray operations = new JSONArray();
+
+        diff(operations, "", source, target);
+
+        return operations;
+    }
+
+
+    private static void diff(JSONArray operations, String path, Object source, Object target) throws JSONException{
+        if(source instanceof JSONObject && target instanceof JSONObject){
+            diffObjects(operations, path, (JSONObject) source, (JSONObject) target);
+        } else if(source instanceof JSONArray && target instanceof JSONArray){
+            diffArrays(operations, path, (JSONArray) source, (JSONArray) target);
+        } else if(!equal(source, target)){
+            operations.put(operation("replace", path, target));
+        }
+    }
+
+    private static void diffObjects(JSONArray operations, String path, JSONObject source, JSONObject target) throws JSONException{
+        Iterator<String> sourceKeys = source.keys();
+        while (sourceKeys.hasNext()) {
+            String key = sourceKeys.next();
+
+            if(!target.has(key)){
+                operations.put(operation("remove", path + "/" + escape(key), null));
+            }
+        }
+
+        Iterator<String> targetKeys = target.keys();
+        while (targetKeys.hasNext()) {
+            String key = targetKeys.next();
+
+            if(source.has(key)){
+                diff(operations, path + "/" + escape(key), source.get(key), target.get(key));
+            } else {
+                operations.put(operation("add", path + "/" + escape(key), target.get(key)));
+            }
+        }
+    }
+
+    private static void diffArrays(JSONArray operations, String path, JSONArray source, JSONArray target) throws JSONException{
+        int sourceLength = source.length();
+        int targetLength = target.length();
+
+        int prefix = 0;
+        while (prefix < sourceLength && prefix < targetLength && equal(source.get(prefix), target.get(prefix))) {
+            prefix++;
+        }
+
+        int suffix = 0;
+        while (suffix < sourceLength - prefix && suffix < targetLength - prefix
+                && equal(source.get(sourceLength - 1 - suffix), target.get(targetLength - 1 - suffix))) {
+            suffix++;
+        }
+
+        int changedSource = sourceLength - prefix - suffix;
+        int changedTarget = targetLength - prefix - suffix;
+        int common = Math.min(changedSource, changedTarget);
+
+        // Elements at the same position are changed in place, the remaining ones are added or removed
+        for(int i = prefix; i < prefix + common; i++){
+            diff(operations, path + "/" + i, source.get(i), target.get(i));
+        }
+
+        for(int i = prefix + common; i < prefix + changedTarget; i++){
+            operations.put(operation("add", path + "/" + i, target.get(i)));
+        }
+
+        // Every removal shifts the following elements down, so the same index is removed repeatedly
+        for(int i = common; i < changedSource; i++){
+            operations.put(operation("remove", path + "/" + (prefix + common), null));
+        }
+    }
+
+    private static JSONObject operation(String op, String path, Object value) throws JSONException{
+        JSONObject operation = new JSONObject();
+
+        operation.put("op", op);
+        operation.put("path", path);
+
+        if(!op.equals("remove")){
+            operation.put("value", value);
+        }
+
+        return operation;
+    }
+
+    private static boolean equal(Object a, Object b) throws JSONException{
+        if(a instanceof JSONObject && b instanceof JSONObject){
+            JSONObject objectA = (JSONObject) a;
+            JSONObject objectB = (JSONObject) b;
+
+            if(objectA.length() != objectB.length()){
+                return false;
+            }
+
+            Iterator<String> keys = objectA.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+
+                if(!objectB.has(key) || !equal(objectA.get(key), objectB.get(key))){
+                    return false;
+                }
+            }
+
+            return true;
+        } else if(a instanceof JSONArray && b instanceof JSONArray){
+            JSONArray arrayA = (JSONArray) a;
+            JSONArray arrayB = (JSONArray) b;
+
+            if(arrayA.length() != arrayB.length()){
+                return false;
+            }
+
+            for(int i = 0; i < arrayA.length(); i++){
+                if(!equal(arrayA.get(i), arrayB.get(i))){
+                    return false;
+                }
+            }
+
+            return true;
+        } else if(a instanceof Number && b instanceof Number){
+            return ((Number) a).doubleValue() == ((Number) b).doubleValue();
+        }
+
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static String escape(String key){
+        return key.replace("~", "~0").replace("/", "~1");
+    }
+}
@@ -0,0 +1,195 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import org.json.JSONObject;
+
+/* Sends a heartbeat, a GET of "/info", to the connected device every few seconds. The round trip times of the
+ * heartbeats are smoothed like TCP does it (RFC 6298), and give the timeout for the following heartbeats and
+ * commands, which are about as small. Once MAX_MISSED_HEARTBEATS heartbeats in a row got no answer, the link
+ * counts as lost, the estimates are reset, and the monitor stops.
+ *
+ * Otherwise the estimates are kept, when the monitor is started again for the same device.
+ * Must only be used from the main thread.*/
+class LinkMonitor {
+
+    static final int HEARTBEAT_INTERVAL = 5000;
+
+    private static final int MAX_MISSED_HEARTBEATS = 2;
+
+    // Even a fast link gets this much time, since a device may need longer for some requests than for "/info"
+    private static final int MIN_TIMEOUT = 1000;
+
+    private static final double RTT_GAIN = 0.125;
+    private static final double RTT_VARIANCE_GAIN = 0.25;
+    private static final double LOSS_GAIN = 0.1;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Listener listener;
+
+    private String deviceURL = null;
+    private DeviceTransport transport;
+    private int maxTimeout;
+
+    private boolean isRunning = false;
+
+    private double smoothedRtt = -1;
+    private double rttVariance = -1;
+    private double lossRate = 0;
+    private int missedHeartbeats = 0;
+
+
+    LinkMonitor(Listener listener){
+        this.listener = listener;
+    }
+
+
+    /* maxTimeout is the longest timeout getTimeout() returns, and the timeout of heartbeats, as long as no round trip
+     * time is known.*/
+    void start(String deviceURL, DeviceTransport transport, int maxTimeout){
+        stop();
+
+        if(!deviceURL.equals(this.deviceURL)){
+            resetEstimates();
+        }
+
+        this.deviceURL = deviceURL;
+        this.transport = transport;
+        this.maxTimeout = maxTimeout;
+
+        missedHeartbeats = 0;
+        isRunning = true;
+
+        mainHandler.postDelayed(sendHeartbeat, HEARTBEAT_INTERVAL);
+    }
+
+    void stop(){
+        if(!isRunning){
+            return;
+        }
+
+        isRunning = false;
+
+        mainHandler.removeCallbacks(sendHeartbeat);
+        transport.cancelAll(this);
+    }
+
+    boolean isRunning(){
+        return isRunning;
+    }
+
+    private void resetEstimates(){
+        smoothedRtt = -1;
+        rttVariance = -1;
+        lossRate = 0;
+    }
+
+
+    /* The timeout for requests to the device, or fallback, as long as no heartbeat was answered.*/
+    int getTimeout(int fallback){
+        if(smoothedRtt < 0){
+            return fallback;
+        }
+
+        long timeout = Math.round(smoothedRtt + 4 * rttVariance);
+
+        return (int) Math.max(MIN_TIMEOUT, Math.min(maxTimeout, timeout));
+    }
+
+    /* In ms, or -1 if no heartbeat was answered yet.*/
+    long getSmoothedRtt(){
+        return Math.round(smoothedRtt);
+    }
+
+    long getRttVariance(){
+        return Math.round(rttVariance);
+    }
+
+    /* Smoothed share of heartbeats, that got no answer, from 0 to 1.*/
+    double getLossRate(){
+        return lossRate;
+    }
+
+
+    private final Runnable sendHeartbeat = new Runnable() {
+        @Override
+        public void run() {
+            final long sentAt = SystemClock.elapsedRealtime();
+
+            DeviceRequest<JSONObject> heartbeatRequest = new DeviceRequest<>(DeviceRequest.GET, deviceURL + "/info", ResponseParsers.JSON_OBJECT,
+                    new DeviceRequest.Listener<JSONObject>() {
+                        @Override
+                        public void onResponse(JSONObject response) {
+                            if(isRunning){
+                                onHeartbeat(SystemClock.elapsedRealtime() - sentAt);
+                            }
+                        }
+
+                        @Override
+                        public void onError(int statusCode, Exception cause) {
+                            if(isRunning){
+                                onHeartbeatMissed();
+                            }
+                        }
+                    }
+            );
+
+            // After a missed heartbeat, the next one waits as long as possible, like TCP backs off its timeout, so a
+            // link, that just got slower, isn't lost right away
+            int timeout = missedHeartbeats > 0 ? maxTimeout : getTimeout(maxTimeout);
+
+            // A heartbeat measures the link, not how long it waits behind uploads, so it takes the lane of commands
+            heartbeatRequest.setRetryPolicy(timeout, 0);
+            heartbeatRequest.setPriority(DeviceRequest.Priority.COMMAND);
+            heartbeatRequest.setTag(LinkMonitor.this);
+
+            transport.send(heartbeatRequest);
+        }
+    };
+
+    private void onHeartbeat(long rtt){
+        if(smoothedRtt < 0){
+            smoothedRtt = rtt;
+            rttVariance = rtt / 2.0;
+        } else {
+            rttVariance = (1 - RTT_VARIANCE_GAIN) * rttVariance + RTT_VARIANCE_GAIN * Math.abs(smoothedRtt - rtt);
+            smoothedRtt = (1 - RTT_GAIN) * smoothedRtt + RTT_GAIN * rtt;
+        }
+
+        lossRate = (1 - LOSS_GAIN) * lossRate;
+        missedHeartbeats = 0;
+
+        mainHandler.postDelayed(sendHeartbeat, HEARTBEAT_INTERVAL);
+
+        listener.onLinkChanged();
+    }
+
+    private void onHeartbeatMissed(){
+        lossRate = (1 - LOSS_GAIN) * lossRate + LOSS_GAIN;
+        missedHeartbeats++;
+
+        if(missedHeartbeats >= MAX_MISSED_HEARTBEATS){
+            stop();
+
+            // The link, that was measured, is gone, so the next connection starts with the connection timeout again
+            resetEstimates();
+
+            listener.onLinkLost();
+            return;
+        }
+
+        // The next heartbeat goes out right away, so a lost link is noticed quickly
+        mainHandler.post(sendHeartbeat);
+
+        listener.onLinkChanged();
+    }
+
+
+    interface Listener {
+        void onLinkChanged();
+
+        void onLinkLost();
+    }
+}
@@ -0,0 +1,58 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+/* A snapshot of the link to the connected device, as measured by its heartbeats.*/
+public class LinkQuality {
+
+    public enum State {
+        CONNECTED,
+        RECONNECTING,
+        DISCONNECTED
+    }
+
+    private final State state;
+    private final long smoothedRtt;
+    private final long rttVariance;
+    private final double lossRate;
+    private final int timeout;
+    private final int reconnectAttempts;
+
+
+    LinkQuality(State state, long smoothedRtt, long rttVariance, double lossRate, int timeout, int reconnectAttempts){
+        this.state = state;
+        this.smoothedRtt = smoothedRtt;
+        this.rttVariance = rttVariance;
+        this.lossRate = lossRate;
+        this.timeout = timeout;
+        this.reconnectAttempts = reconnectAttempts;
+    }
+
+
+    public State getState(){
+        return state;
+    }
+
+    /* Smoothed round trip time in ms, or -1 if it's not known yet.*/
+    public long getSmoothedRtt(){
+        return smoothedRtt;
+    }
+
+    /* How much the round trip time varies, in ms.*/
+    public long getRttVariance(){
+        return rttVariance;
+    }
+
+    /* Share of heartbeats, that got no answer recently, from 0 to 1.*/
+    public double getLossRate(){
+        return lossRate;
+    }
+
+    /* The timeout in ms, that heartbeats are sent with.*/
+    public int getTimeout(){
+        return timeout;
+    }
+
+    /* Number of automatic reconnects since the link was lost, 0 if it wasn't.*/
+    public int getReconnectAttempts(){
+        return reconnectAttempts;
+    }
+}
@@ -0,0 +1,338 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import android.content.Context;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/* Commands and function uploads, that couldn't be delivered to a device yet, in the order they were added.
+ *
+ * The outbox is an append-only log: every change is written as one JSON line, {"op":"add",..} or
+ * {"op":"remove","id":..}, and synced to disk, so nothing is lost if the app is killed. Reading the log replays
+ * these lines. Once most lines are obsolete, the log is rewritten with the remaining entries only.
+ *
+ * The entries in memory are changed right away, but the lines are written by a single writer thread in the order
+ * they were added, so a sync never blocks the main thread. Every user in this process shares one outbox, so one,
+ * that is loaded again, e.g. by a new activity, has all entries of the old one without waiting for the writer.
+ *
+ * Must only be used from the main thread.*/
+class Outbox {
+
+    static final String COMMAND = "command";
+    static final String UPLOAD = "upload";
+
+    private static final String FILE_NAME = "outbox.log";
+
+    private static final int MIN_OBSOLETE_LINES = 64;
+
+    private static final ExecutorService writer = Executors.newSingleThreadExecutor();
+
+    private static Outbox instance = null;
+
+    private final File file;
+
+    private final Map<Long, Entry> entries = new LinkedHashMap<>();
+    private long nextId = 1;
+    private int numOfLines = 0;
+
+
+    private Outbox(File file){
+        this.file = file;
+    }
+
+
+    /* The log is only read by the first load, when nothing can be waiting for the writer yet.*/
+    static Outbox load(Context context){
+        if(instance != null){
+            return instance;
+        }
+
+        Outbox outbox = new Outbox(new File(context.getFilesDir() + File.separator + FILE_NAME));
+
+        try {
+            outbox.read();
+        } catch(IOException e) {
+            e.printStackTrace();
+        }
+
+        outbox.compactIfNeeded();
+
+        instance = outbox;
+
+        return outbox;
+    }
+
+    private void read() throws IOException{
+        if(!file.exists() || file.isDirectory()){
+            return;
+        }
+
+        FileInputStream inputStream = new FileInputStream(file);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            numOfLines++;
+
+            try {
+                JSONObject lineJSON = new JSONObject(line);
+                long id = lineJSON.getLong("id");
+
+                if(lineJSON.getString("op").equals("add")){
+                    entries.put(id, Entry.fromJSON(lineJSON));
+                } else {
+                    entries.remove(id);
+                }
+
+                nextId = Math.max(nextId, id + 1);
+            } catch (JSONException e) {
+                // A line, that was cut off when the app was killed, is skipped
+            }
+        }
+
+        reader.close();
+        inputStream.close();
+    }
+
+
+    Entry addCommand(String deviceURL, String language, String text, long commandId){
+        return add(new Entry(nextId++, COMMAND, System.currentTimeMillis(), deviceURL, language, text, commandId, null));
+    }
+
+    /* A function is only in the outbox once per device, so an older entry for it is replaced.*/
+    Entry addUpload(String deviceURL, String functionName){
+        Entry existingEntry = getUpload(deviceURL, functionName);
+
+        if(existingEntry != null){
+            remove(existingEntry);
+        }
+
+        return add(new Entry(nextId++, UPLOAD, System.currentTimeMillis(), deviceURL, null, null, 0, functionName));
+    }
+
+    void remove(Entry entry){
+        if(entries.remove(entry.id) == null){
+            return;
+        }
+
+        JSONObject lineJSON = new JSONObject();
+
+        try {
+            lineJSON.put("op", "remove");
+            lineJSON.put("id", entry.id);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+
+        append(lineJSON);
+        compactIfNeeded();
+    }
+
+    void removeUpload(String deviceURL, String functionName){
+        Entry entry = getUpload(deviceURL, functionName);
+
+        if(entry != null){
+            remove(entry);
+        }
+    }
+
+    /* The oldest command for the given device, or null.*/
+    Entry getFirstCommand(String deviceURL){
+        for(Entry entry : entries.values()){
+            if(entry.type.equals(COMMAND) && entry.deviceURL.equals(deviceURL)){
+                return entry;
+            }
+        }
+
+        return null;
+    }
+
+    List<Entry> getUploads(String deviceURL){
+        List<Entry> uploads = new ArrayList<>();
+
+        for(Entry entry : entries.values()){
+            if(entry.type.equals(UPLOAD) && entry.deviceURL.equals(deviceURL)){
+                uploads.add(entry);
+            }
+        }
+
+        return uploads;
+    }
+
+    int size(){
+        return entries.size();
+    }
+
+    /* When the oldest entry was added, in ms since the epoch, or -1 if the outbox is empty.*/
+    long getOldestEntryTime(){
+        long oldestTime = -1;
+
+        for(Entry entry : entries.values()){
+            if(oldestTime < 0 || entry.time < oldestTime){
+                oldestTime = entry.time;
+            }
+        }
+
+        return oldestTime;
+    }
+
+
+    private Entry getUpload(String deviceURL, String functionName){
+        for(Entry entry : entries.values()){
+            if(entry.type.equals(UPLOAD) && entry.deviceURL.equals(deviceURL) && entry.functionName.equals(functionName)){
+                return entry;
+            }
+        }
+
+        return null;
+    }
+
+    private Entry add(Entry entry){
+        entries.put(entry.id, entry);
+
+        try {
+            JSONObject lineJSON = entry.toJSON();
+            lineJSON.put("op", "add");
+
+            append(lineJSON);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+
+        return entry;
+    }
+
+    private void append(JSONObject lineJSON){
+        final String line = lineJSON.toString() + "\n";
+
+        numOfLines++;
+
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    FileOutputStream outputStream = new FileOutputStream(file, true);
+
+                    outputStream.write(line.getBytes("UTF-8"));
+                    outputStream.flush();
+                    outputStream.getFD().sync();
+                    outputStream.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    private void compactIfNeeded(){
+        if(numOfLines - entries.size() < Math.max(MIN_OBSOLETE_LINES, entries.size())){
+            return;
+        }
+
+        final StringBuilder lines = new StringBuilder();
+
+        try {
+            for(Entry entry : entries.values()){
+                JSONObject lineJSON = entry.toJSON();
+                lineJSON.put("op", "add");
+
+                lines.append(lineJSON.toString()).append("\n");
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        // Lines, that are added from now on, are appended to the new log, because the writer runs in order
+        numOfLines = entries.size();
+
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                // The new log is written next to the old one, and only replaces it once it's complete
+                File tempFile = new File(file.getPath() + ".tmp");
+
+                try {
+                    FileOutputStream outputStream = new FileOutputStream(tempFile);
+
+                    outputStream.write(lines.toString().getBytes("UTF-8"));
+                    outputStream.flush();
+                    outputStream.getFD().sync();
+                    outputStream.close();
+
+                    if(!tempFile.renameTo(file)){
+                        tempFile.delete();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    tempFile.delete();
+                }
+            }
+        });
+    }
+
+
+    static class Entry {
+        final long id;
+        final String type;
+        final long time;
+        final String deviceURL;
+
+        // Commands only
+        final String language;
+        final String text;
+        final long commandId;
+
+        // Uploads only
+        final String functionName;
+
+        Entry(long id, String type, long time, String deviceURL, String language, String text, long commandId, String functionName){
+            this.id = id;
+            this.type = type;
+            this.time = time;
+            this.deviceURL = deviceURL;
+            this.language = language;
+            this.text = text;
+            this.commandId = commandId;
+            this.functionName = functionName;
+        }
+
+        static Entry fromJSON(JSONObject entryJSON) throws JSONException{
+            return new Entry(entryJSON.getLong("id"), entryJSON.getString("type"), entryJSON.getLong("time"), entryJSON.getString("device"),
+                    entryJSON.optString("lang", null), entryJSON.optString("text", null), entryJSON.optLong("commandId", 0),
+                    entryJSON.optString("function", null));
+        }
+
+        JSONObject toJSON() throws JSONException{
+            JSONObject entryJSON = new JSONObject();
+
+            entryJSON.put("id", id);
+            entryJSON.put("type", type);
+            entryJSON.put("time", time);
+            entryJSON.put("device", deviceURL);
+
+            if(type.equals(COMMAND)){
+                entryJSON.put("lang", language);
+                entryJSON.put("text", text);
+                entryJSON.put("commandId", commandId);
+            } else {
+                entryJSON.put("function", functionName);
+            }
+
+            return entryJSON;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/* Queues requests per device in one lane per DeviceRequest.Priority, and hands them to the wrapped transport
+ * so that at most maxRequestsPerDevice are running for a device at the same time. Queued commands always go
+ * first, and one slot is kept free for them, so a command never waits behind a full sync's uploads.
+ *
+ * A request keeps its slot until the wrapped transport answered it, even if it was cancelled, because the device
+ * might be working on it anyway. So the wrapped requests don't carry the tag, and are never cancelled themselves.
+ *
+ * Listeners are called on the callback executor of the wrapped transport.*/
+public class PriorityTransport implements DeviceTransport {
+
+    public static final int DEFAULT_MAX_REQUESTS_PER_DEVICE = 4;
+
+    private final DeviceTransport transport;
+    private final int maxRequestsPerDevice;
+
+    // Keyed by the host and port of the requests
+    private final Map<String, Device> devices = new HashMap<>();
+
+
+    public PriorityTransport(DeviceTransport transport){
+        this(transport, DEFAULT_MAX_REQUESTS_PER_DEVICE);
+    }
+
+    /* maxRequestsPerDevice has to be at least 2, so one request can be reserved for commands.*/
+    public PriorityTransport(DeviceTransport transport, int maxRequestsPerDevice){
+        this.transport = transport;
+        this.maxRequestsPerDevice = Math.max(2, maxRequestsPerDevice);
+    }
+
+
+    @Override
+    public void send(DeviceRequest<?> request) {
+        List<DeviceRequest<?>> readyRequests;
+
+        synchronized (this) {
+            String deviceKey = getDeviceKey(request.getUrl());
+            Device device = devices.get(deviceKey);
+
+            if(device == null){
+                device = new Device(deviceKey);
+                devices.put(deviceKey, device);
+            }
+
+            device.lanes.get(request.getPriority().ordinal()).add(request);
+
+            readyRequests = takeReadyRequests(device);
+        }
+
+        sendAll(readyRequests);
+    }
+
+    @Override
+    public void cancelAll(Object tag) {
+        if(tag == null){
+            return;
+        }
+
+        List<DeviceRequest<?>> readyRequests = new ArrayList<>();
+
+        synchronized (this) {
+            for(Device device : new ArrayList<>(devices.values())){
+                for(Queue<DeviceRequest<?>> lane : device.lanes){
+                    Iterator<DeviceRequest<?>> iterator = lane.iterator();
+
+                    while (iterator.hasNext()) {
+                        DeviceRequest<?> request = iterator.next();
+
+                        if(tag.equals(request.getTag())){
+                            request.cancel();
+                            iterator.remove();
+                        }
+                    }
+                }
+
+                // Running requests only drop their answer, their slot is freed once the wrapped transport answers
+                for(DeviceRequest<?> request : device.runningRequests.keySet()){
+                    if(tag.equals(request.getTag())){
+                        request.cancel();
+                    }
+                }
+
+                readyRequests.addAll(takeReadyRequests(device));
+            }
+        }
+
+        sendAll(readyRequests);
+    }
+
+    @Override
+    public void shutdown() {
+        synchronized (this) {
+            for(Device device : devices.values()){
+                for(Queue<DeviceRequest<?>> lane : device.lanes){
+                    for(DeviceRequest<?> request : lane){
+                        request.cancel();
+                    }
+                }
+            }
+
+            devices.clear();
+        }
+
+        transport.shutdown();
+    }
+
+
+    /* Moves as many queued requests of the device to its running ones as its limits allow, and returns their wrappers.
+     * Must be called while holding the lock.*/
+    private List<DeviceRequest<?>> takeReadyRequests(Device device){
+        List<DeviceRequest<?>> readyRequests = new ArrayList<>();
+
+        for(DeviceRequest.Priority priority : DeviceRequest.Priority.values()){
+            Queue<DeviceRequest<?>> lane = device.lanes.get(priority.ordinal());
+            int limit = priority == DeviceRequest.Priority.COMMAND ? maxRequestsPerDevice : maxRequestsPerDevice - 1;
+
+            while (!lane.isEmpty() && device.runningRequests.size() < limit) {
+                DeviceRequest<?> request = lane.poll();
+
+                if(!request.isCanceled()){
+                    DeviceRequest<?> wrapper = wrap(request, device);
+
+                    device.runningRequests.put(request, wrapper);
+                    readyRequests.add(wrapper);
+                }
+            }
+
+            // Lower lanes never overtake a higher one, that still has requests waiting
+            if(!lane.isEmpty()){
+                break;
+            }
+        }
+
+        if(device.runningRequests.isEmpty() && device.isIdle()){
+            devices.remove(device.key);
+        }
+
+        return readyRequests;
+    }
+
+    private void sendAll(List<DeviceRequest<?>> requests){
+        for(DeviceRequest<?> request : requests){
+            transport.send(request);
+        }
+    }
+
+    private void onFinished(DeviceRequest<?> request, Device device){
+        List<DeviceRequest<?>> readyRequests;
+
+        synchronized (this) {
+            // After a shutdown, the device isn't known anymore
+            if(device.runningRequests.remove(request) == null){
+                return;
+            }
+
+            readyRequests = takeReadyRequests(device);
+        }
+
+        sendAll(readyRequests);
+    }
+
+    /* The wrapper is what the wrapped transport sends. It frees the request's slot before calling its listener,
+     * so a listener sending the next request doesn't find the device busy.*/
+    private <T> DeviceRequest<T> wrap(final DeviceRequest<T> request, final Device device){
+        final DeviceRequest<T> wrapper = new DeviceRequest<>(request.getMethod(), request.getUrl(), new DeviceRequest.Parser<T>() {
+            @Override
+            public T parse(DeviceResponse response) throws Exception {
+                return request.parse(response);
+            }
+        }, new DeviceRequest.Listener<T>() {
+            @Override
+            public void onResponse(T response) {
+                onFinished(request, device);
+                request.deliverResponse(response);
+            }
+
+            @Override
+            public void onError(int statusCode, Exception cause) {
+                onFinished(request, device);
+                request.deliverError(statusCode, cause);
+            }
+        });
+
+        for(Map.Entry<String, String> header : request.getHeaders().entrySet()){
+            wrapper.addHeader(header.getKey(), header.getValue());
+        }
+
+        wrapper.setBody(request.getBody(), request.getContentType());
+        wrapper.setRetryPolicy(request.getTimeout(), request.getMaxRetries());
+        wrapper.setPriority(request.getPriority());
+
+        wrapper.setDispatchListener(new Runnable() {
+            @Override
+            public void run() {
+                request.dispatched();
+            }
+        });
+
+        return wrapper;
+    }
+
+    private static String getDeviceKey(String url){
+        try {
+            return new URL(url).getAuthority();
+        } catch (MalformedURLException e) {
+            return url;
+        }
+    }
+
+
+    private static class Device {
+        final String key;
+
+        final List<Queue<DeviceRequest<?>>> lanes = new ArrayList<>();
+
+        // The requests, that were handed to the wrapped transport, and their wrappers
+        final Map<DeviceRequest<?>, DeviceRequest<?>> runningRequests = new HashMap<>();
+
+        Device(String key){
+            this.key = key;
+
+            for(int i = 0; i < DeviceRequest.Priority.values().length; i++){
+                lanes.add(new ArrayDeque<DeviceRequest<?>>());
+            }
+        }
+
+        boolean isIdle(){
+            for(Queue<DeviceRequest<?>> lane : lanes){
+                if(!lane.isEmpty()){
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+}
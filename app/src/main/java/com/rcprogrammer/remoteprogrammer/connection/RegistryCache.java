@@ -0,0 +1,323 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import android.content.Context;
+
+import com.rcprogrammer.remoteprogrammer.codeeditor.codeview.CodeFormat;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/* Keeps a copy of the code syntax of every device, that was connected recently, so switching back to a device
+ * restores its syntax from here, instead of downloading it again. The code formats, that the editor uses, are
+ * always the ones of the last connected device, in the files of CodeFormat.
+ *
+ * A device is identified by its URL and the id it reports in "/info", so a different robot, that is reachable
+ * under the same address, gets its own copy. Once the copies take more than MAX_SIZE bytes, the least recently
+ * used ones are removed.
+ *
+ * Must only be used from the main thread.*/
+class RegistryCache {
+
+    static final long MAX_SIZE = 4 * 1024 * 1024;
+
+    private static final String DIR_NAME = "registryCache";
+    private static final String INDEX_FILE_NAME = "index.json";
+
+    private static final String[] FILE_NAMES = {CodeFormat.FORMATS_FILE_NAME, CodeFormat.TRANSLATIONS_FILE_NAME, CodeFormat.CATEGORIES_FILE_NAME};
+
+    private final File registryDir;
+    private final File dir;
+
+    // In the order they were last used, the least recently used first
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+
+    private RegistryCache(File registryDir){
+        this.registryDir = registryDir;
+        this.dir = new File(registryDir, DIR_NAME);
+    }
+
+
+    static RegistryCache load(Context context){
+        RegistryCache cache = new RegistryCache(context.getFilesDir());
+
+        try {
+            cache.read();
+        } catch(Exception e) {
+            e.printStackTrace();
+
+            cache.entries.clear();
+        }
+
+        return cache;
+    }
+
+    /* serverId may be null for devices, that don't report an id.*/
+    static String getDeviceKey(String deviceURL, String serverId){
+        return serverId != null && !serverId.isEmpty() ? deviceURL + "#" + serverId : deviceURL;
+    }
+
+    private void read() throws IOException, JSONException{
+        File indexFile = new File(dir, INDEX_FILE_NAME);
+
+        if(!indexFile.exists() || indexFile.isDirectory()){
+            return;
+        }
+
+        FileInputStream inputStream = new FileInputStream(indexFile);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+        StringBuilder sb = new StringBuilder();
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            sb.append(line).append("\n");
+        }
+
+        reader.close();
+        inputStream.close();
+
+        JSONArray entriesJSON = new JSONArray(sb.toString());
+
+        for(int i = 0; i < entriesJSON.length(); i++){
+            Entry entry = Entry.fromJSON(entriesJSON.getJSONObject(i));
+
+            entries.put(entry.deviceKey, entry);
+        }
+    }
+
+    private void save(){
+        JSONArray entriesJSON = new JSONArray();
+
+        try {
+            for(Entry entry : entries.values()){
+                entriesJSON.put(entry.toJSON());
+            }
+
+            if(!dir.exists()){
+                dir.mkdirs();
+            }
+
+            FileWriter writer = new FileWriter(new File(dir, INDEX_FILE_NAME));
+            writer.append(entriesJSON.toString());
+            writer.flush();
+            writer.close();
+        } catch(IOException | JSONException e) {
+            e.printStackTrace();
+        }
+    }
+
+
+    /* The change times of the device's cached syntax, or null if none is cached.*/
+    Map<String, Long> getChangeTimes(String deviceKey){
+        Entry entry = entries.get(deviceKey);
+
+        return entry != null ? entry.changeTimes : null;
+    }
+
+    /* Replaces the files of CodeFormat with the device's cached ones. Returns false, if they couldn't be copied,
+     * and the files of CodeFormat may be incomplete then.*/
+    boolean restore(String deviceKey){
+        Entry entry = entries.get(deviceKey);
+
+        if(entry == null){
+            return false;
+        }
+
+        File entryDir = new File(dir, entry.dirName);
+
+        try {
+            for(String fileName : FILE_NAMES){
+                copy(new File(entryDir, fileName), new File(registryDir, fileName));
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        touch(entry);
+        save();
+
+        return true;
+    }
+
+    /* Copies the files of CodeFormat, that were just applied for the device, into the cache.*/
+    void store(String deviceKey, Map<String, Long> changeTimes){
+        Entry entry = entries.get(deviceKey);
+
+        // A copy with the same change times is already up to date
+        if(entry != null && entry.changeTimes.equals(changeTimes)){
+            touch(entry);
+            save();
+            return;
+        }
+
+        if(entry == null){
+            entry = new Entry(deviceKey, FunctionManifest.sha256(deviceKey));
+        }
+
+        File entryDir = new File(dir, entry.dirName);
+        entryDir.mkdirs();
+
+        long size = 0;
+
+        try {
+            for(String fileName : FILE_NAMES){
+                File cachedFile = new File(entryDir, fileName);
+
+                copy(new File(registryDir, fileName), cachedFile);
+                size += cachedFile.length();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+
+            remove(entry);
+            save();
+            return;
+        }
+
+        entry.changeTimes = new HashMap<>(changeTimes);
+        entry.size = size;
+
+        touch(entry);
+        evict(entry);
+        save();
+    }
+
+
+    private void touch(Entry entry){
+        entry.lastUsed = System.currentTimeMillis();
+
+        // Moves the entry to the end of the LRU order
+        entries.remove(entry.deviceKey);
+        entries.put(entry.deviceKey, entry);
+    }
+
+    /* Removes the least recently used copies, until the cache fits into MAX_SIZE. The given entry is kept.*/
+    private void evict(Entry keptEntry){
+        long totalSize = 0;
+
+        for(Entry entry : entries.values()){
+            totalSize += entry.size;
+        }
+
+        List<Entry> evictedEntries = new ArrayList<>();
+        Iterator<Entry> iterator = entries.values().iterator();
+
+        while (totalSize > MAX_SIZE && iterator.hasNext()) {
+            Entry entry = iterator.next();
+
+            if(entry != keptEntry){
+                evictedEntries.add(entry);
+                totalSize -= entry.size;
+            }
+        }
+
+        for(Entry entry : evictedEntries){
+            remove(entry);
+        }
+    }
+
+    private void remove(Entry entry){
+        entries.remove(entry.deviceKey);
+
+        File entryDir = new File(dir, entry.dirName);
+        File[] files = entryDir.listFiles();
+
+        if(files != null){
+            for(File file : files){
+                file.delete();
+            }
+        }
+
+        entryDir.delete();
+    }
+
+    /* Written under a temporary name first, so a file is never read half written.*/
+    private static void copy(File source, File target) throws IOException{
+        if(!source.exists()){
+            throw new IOException(source + " doesn't exist");
+        }
+
+        File tempFile = new File(target.getPath() + ".tmp");
+
+        FileInputStream inputStream = new FileInputStream(source);
+        FileOutputStream outputStream = new FileOutputStream(tempFile);
+
+        try {
+            byte[] buffer = new byte[8192];
+            int length;
+
+            while ((length = inputStream.read(buffer)) > 0) {
+                outputStream.write(buffer, 0, length);
+            }
+        } finally {
+            inputStream.close();
+            outputStream.close();
+        }
+
+        if(!tempFile.renameTo(target)){
+            tempFile.delete();
+            throw new IOException("Couldn't replace " + target);
+        }
+    }
+
+
+    private static class Entry {
+        final String deviceKey;
+        final String dirName;
+
+        Map<String, Long> changeTimes = new HashMap<>();
+        long size = 0;
+        long lastUsed = 0;
+
+        Entry(String deviceKey, String dirName){
+            this.deviceKey = deviceKey;
+            this.dirName = dirName;
+        }
+
+        static Entry fromJSON(JSONObject entryJSON) throws JSONException{
+            Entry entry = new Entry(entryJSON.getString("device"), entryJSON.getString("dir"));
+
+            entry.size = entryJSON.getLong("size");
+            entry.lastUsed = entryJSON.getLong("lastUsed");
+
+            JSONObject changeTimesJSON = entryJSON.getJSONObject("changeTimes");
+            Iterator<String> keyList = changeTimesJSON.keys();
+
+            while (keyList.hasNext()) {
+                String key = keyList.next();
+
+                entry.changeTimes.put(key, changeTimesJSON.getLong(key));
+            }
+
+            return entry;
+        }
+
+        JSONObject toJSON() throws JSONException{
+            JSONObject entryJSON = new JSONObject();
+
+            entryJSON.put("device", deviceKey);
+            entryJSON.put("dir", dirName);
+            entryJSON.put("size", size);
+            entryJSON.put("lastUsed", lastUsed);
+            entryJSON.put("changeTimes", new JSONObject(changeTimes));
+
+            return entryJSON;
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import android.content.Context;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/* Keeps the code syntax responses of devices together with their "ETag" and "Last-Modified" validators, so they
+ * are requested conditionally the next time. A device, whose resource didn't change, answers "304 Not Modified"
+ * without a body, and the cached response is used instead. Change times in "/info" only tell that something
+ * might have changed, e.g. a device, that restarted, may report new times for the same syntax.
+ *
+ * The parsed results of the last few responses are kept in memory as well, so a 304 skips parsing entirely.
+ * They are handed out again as they are, so listeners must not change them. Only after a restart of the app, the
+ * cached body is parsed again. Bodies are stored in the app's files, and once they take more than MAX_SIZE bytes,
+ * the least recently used ones are removed.
+ *
+ * Parsers run on the threads of the transport, so all access to the entries is synchronized.*/
+class ResponseCache {
+
+    static final long MAX_SIZE = 2 * 1024 * 1024;
+
+    // Two devices' syntax of three resources each
+    private static final int MAX_SNAPSHOTS = 6;
+
+    private static final String DIR_NAME = "responseCache";
+    private static final String INDEX_FILE_NAME = "index.json";
+
+    private final File dir;
+
+    // Keyed by URL, in the order they were last used, the least recently used first
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    // The parsed results of the most recently used entries
+    private final Map<String, Object> snapshots = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+            return size() > MAX_SNAPSHOTS;
+        }
+    };
+
+
+    private ResponseCache(File dir){
+        this.dir = dir;
+    }
+
+
+    static ResponseCache load(Context context){
+        ResponseCache cache = new ResponseCache(new File(context.getFilesDir(), DIR_NAME));
+
+        try {
+            cache.read();
+        } catch(Exception e) {
+            e.printStackTrace();
+
+            cache.entries.clear();
+        }
+
+        return cache;
+    }
+
+    private void read() throws IOException, JSONException{
+        File indexFile = new File(dir, INDEX_FILE_NAME);
+
+        if(!indexFile.exists() || indexFile.isDirectory()){
+            return;
+        }
+
+        FileInputStream inputStream = new FileInputStream(indexFile);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+        StringBuilder sb = new StringBuilder();
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            sb.append(line).append("\n");
+        }
+
+        reader.close();
+        inputStream.close();
+
+        JSONArray entriesJSON = new JSONArray(sb.toString());
+
+        for(int i = 0; i < entriesJSON.length(); i++){
+            Entry entry = Entry.fromJSON(entriesJSON.getJSONObject(i));
+
+            entries.put(entry.url, entry);
+        }
+    }
+
+    private void save(){
+        JSONArray entriesJSON = new JSONArray();
+
+        try {
+            for(Entry entry : entries.values()){
+                entriesJSON.put(entry.toJSON());
+            }
+
+            if(!dir.exists()){
+                dir.mkdirs();
+            }
+
+            FileWriter writer = new FileWriter(new File(dir, INDEX_FILE_NAME));
+            writer.append(entriesJSON.toString());
+            writer.flush();
+            writer.close();
+        } catch(IOException | JSONException e) {
+            e.printStackTrace();
+        }
+    }
+
+
+    /* A GET of the url, that is sent with the validators of the cached response, if there is one. The parser only
+     * runs for new responses, a 304 hands the cached result to the listener.*/
+    <T> DeviceRequest<T> newRequest(final String url, final DeviceRequest.Parser<T> parser, DeviceRequest.Listener<T> listener){
+        DeviceRequest<T> request = new DeviceRequest<>(DeviceRequest.GET, url, new DeviceRequest.Parser<T>() {
+            @Override
+            public T parse(DeviceResponse response) throws Exception {
+                if(response.isNotModified()){
+                    return getCached(url, parser);
+                }
+
+                T result = parser.parse(response);
+                put(url, response, result);
+
+                return result;
+            }
+        }, listener);
+
+        addValidators(url, request);
+
+        return request;
+    }
+
+    private synchronized void addValidators(String url, DeviceRequest<?> request){
+        Entry entry = entries.get(url);
+
+        if(entry == null){
+            return;
+        }
+
+        if(entry.eTag != null){
+            request.addHeader("If-None-Match", entry.eTag);
+        }
+
+        if(entry.lastModified != null){
+            request.addHeader("If-Modified-Since", entry.lastModified);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T getCached(String url, DeviceRequest.Parser<T> parser) throws Exception{
+        Map<String, String> headers = new HashMap<>();
+        byte[] body;
+
+        synchronized (this) {
+            Entry entry = entries.get(url);
+
+            if(entry == null){
+                throw new IOException("Not modified, but no response to " + url + " is cached");
+            }
+
+            touch(entry);
+
+            Object snapshot = snapshots.get(url);
+
+            if(snapshot != null){
+                return (T) snapshot;
+            }
+
+            if(entry.contentType != null){
+                headers.put("Content-Type", entry.contentType);
+            }
+
+            body = readFile(new File(dir, entry.fileName));
+        }
+
+        T result = parser.parse(new DeviceResponse(200, headers, body));
+
+        synchronized (this) {
+            if(entries.containsKey(url)){
+                snapshots.put(url, result);
+            }
+        }
+
+        return result;
+    }
+
+    private synchronized void put(String url, DeviceResponse response, Object result){
+        String eTag = response.getHeader("ETag");
+        String lastModified = response.getHeader("Last-Modified");
+
+        Entry entry = entries.get(url);
+
+        // Without validators, the response can't be requested conditionally, and a cached one is outdated now
+        if(eTag == null && lastModified == null){
+            if(entry != null){
+                remove(entry);
+                save();
+            }
+
+            return;
+        }
+
+        if(entry == null){
+            entry = new Entry(url, FunctionManifest.sha256(url));
+        }
+
+        try {
+            writeFile(new File(dir, entry.fileName), response.getBody());
+        } catch (IOException e) {
+            e.printStackTrace();
+
+            remove(entry);
+            save();
+            return;
+        }
+
+        entry.eTag = eTag;
+        entry.lastModified = lastModified;
+        entry.contentType = response.getHeader("Content-Type");
+        entry.size = response.getBody().length;
+
+        entries.put(url, entry);
+        snapshots.put(url, result);
+
+        touch(entry);
+        evict(entry);
+        save();
+    }
+
+
+    private void touch(Entry entry){
+        // Moves the entry to the end of the LRU order
+        entries.remove(entry.url);
+        entries.put(entry.url, entry);
+    }
+
+    /* Removes the least recently used responses, until the cache fits into MAX_SIZE. The given entry is kept.*/
+    private void evict(Entry keptEntry){
+        long totalSize = 0;
+
+        for(Entry entry : entries.values()){
+            totalSize += entry.size;
+        }
+
+        List<Entry> evictedEntries = new ArrayList<>();
+        Iterator<Entry> iterator = entries.values().iterator();
+
+        while (totalSize > MAX_SIZE && iterator.hasNext()) {
+            Entry entry = iterator.next();
+
+            if(entry != keptEntry){
+                evictedEntries.add(entry);
+                totalSize -= entry.size;
+            }
+        }
+
+        for(Entry entry : evictedEntries){
+            remove(entry);
+        }
+    }
+
+    private void remove(Entry entry){
+        entries.remove(entry.url);
+        snapshots.remove(entry.url);
+
+        new File(dir, entry.fileName).delete();
+    }
+
+    private static byte[] readFile(File file) throws IOException{
+        FileInputStream inputStream = new FileInputStream(file);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream((int) file.length());
+
+        try {
+            byte[] buffer = new byte[8192];
+            int length;
+
+            while ((length = inputStream.read(buffer)) > 0) {
+                outputStream.write(buffer, 0, length);
+            }
+        } finally {
+            inputStream.close();
+        }
+
+        return outputStream.toByteArray();
+    }
+
+    /* Written under a temporary name first, so a body is never read half written.*/
+    private void writeFile(File file, byte[] data) throws IOException{
+        if(!dir.exists()){
+            dir.mkdirs();
+        }
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        FileOutputStream outputStream = new FileOutputStream(tempFile);
+
+        try {
+            outputStream.write(data);
+        } finally {
+            outputStream.close();
+        }
+
+        if(!tempFile.renameTo(file)){
+            tempFile.delete();
+            throw new IOException("Couldn't replace " + file);
+        }
+    }
+
+
+    private static class Entry {
+        final String url;
+        final String fileName;
+
+        String eTag = null;
+        String lastModified = null;
+        String contentType = null;
+        long size = 0;
+
+        Entry(String url, String fileName){
+            this.url = url;
+            this.fileName = fileName;
+        }
+
+        static Entry fromJSON(JSONObject entryJSON) throws JSONException{
+            Entry entry = new Entry(entryJSON.getString("url"), entryJSON.getString("file"));
+
+            entry.eTag = entryJSON.optString("eTag", null);
+            entry.lastModified = entryJSON.optString("lastModified", null);
+            entry.contentType = entryJSON.optString("contentType", null);
+            entry.size = entryJSON.getLong("size");
+
+            return entry;
+        }
+
+        JSONObject toJSON() throws JSONException{
+            JSONObject entryJSON = new JSONObject();
+
+            entryJSON.put("url", url);
+            entryJSON.put("file", fileName);
+            entryJSON.put("eTag", eTag);
+            entryJSON.put("lastModified", lastModified);
+            entryJSON.put("contentType", contentType);
+            entryJSON.put("size", size);
+
+            return entryJSON;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import android.util.JsonReader;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+/* Parsers for the JSON responses of a device. They run on a thread of the transport, not on the main thread.*/
+class ResponseParsers {
+
+    static final DeviceRequest.Parser<JSONObject> JSON_OBJECT = new DeviceRequest.Parser<JSONObject>() {
+        @Override
+        public JSONObject parse(DeviceResponse response) throws Exception {
+            return new JSONObject(response.getBodyString());
+        }
+    };
+
+    static final DeviceRequest.Parser<JSONArray> JSON_ARRAY = new DeviceRequest.Parser<JSONArray>() {
+        @Override
+        public JSONArray parse(DeviceResponse response) throws Exception {
+            return new JSONArray(response.getBodyString());
+        }
+    };
+
+
+    private ResponseParsers(){
+    }
+
+
+    /* Parses the response with a {@link JsonReader}, straight from the response bytes.
+     * Unlike JSON_OBJECT and JSON_ARRAY, this never builds a String or an org.json tree of the whole response.*/
+    static <T> DeviceRequest.Parser<T> streaming(final StreamParser<T> parser){
+        return new DeviceRequest.Parser<T>() {
+            @Override
+            public T parse(DeviceResponse response) throws Exception {
+                JsonReader reader = new JsonReader(new InputStreamReader(response.getBodyStream(), response.getCharset()));
+
+                try {
+                    return parser.parse(reader);
+                } finally {
+                    reader.close();
+                }
+            }
+        };
+    }
+
+
+    interface StreamParser<T> {
+        T parse(JsonReader reader) throws IOException;
+    }
+}
@@ -0,0 +1,150 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import android.content.Context;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/* Remembers the "/info" change time of each syntax resource, that was last applied to the
+ * locally stored code formats, so unchanged resources don't need to be downloaded again.
+ * Devices are identified by their key from RegistryCache.getDeviceKey().*/
+class SyncManifest {
+
+    static final String FORMAT = "format";
+    static final String CATEGORIES = "categories";
+    static final String LANG = "lang";
+
+    private static final String FILE_NAME = "syncManifest.json";
+
+    private final File file;
+
+    private String deviceKey = null;
+    private Map<String, Long> changeTimes = new HashMap<>();
+
+
+    private SyncManifest(File file){
+        this.file = file;
+    }
+
+
+    static SyncManifest load(Context context){
+        SyncManifest manifest = new SyncManifest(new File(context.getFilesDir() + File.separator + FILE_NAME));
+
+        try {
+            manifest.read();
+        } catch(Exception e) {
+            e.printStackTrace();
+
+            manifest.clear();
+        }
+
+        return manifest;
+    }
+
+    private void read() throws IOException, JSONException{
+        if(!file.exists() || file.isDirectory()){
+            return;
+        }
+
+        FileInputStream inputStream = new FileInputStream(file);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+        StringBuilder sb = new StringBuilder();
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+            sb.append(line).append("\n");
+        }
+
+        reader.close();
+        inputStream.close();
+
+        JSONObject manifestJSON = new JSONObject(sb.toString());
+
+        deviceKey = manifestJSON.optString("device", null);
+
+        JSONObject changeTimesJSON = manifestJSON.getJSONObject("changeTimes");
+
+        Iterator<String> keyList = changeTimesJSON.keys();
+        while (keyList.hasNext()) {
+            String key = keyList.next();
+
+            changeTimes.put(key, changeTimesJSON.getLong(key));
+        }
+    }
+
+    void save() throws IOException, JSONException{
+        if(file.isDirectory()){
+            file.delete();
+        }
+
+        if(!file.exists()){
+            file.createNewFile();
+        }
+
+        JSONObject manifestJSON = new JSONObject();
+
+        manifestJSON.put("device", deviceKey);
+        manifestJSON.put("changeTimes", new JSONObject(changeTimes));
+
+        FileWriter writer = new FileWriter(file);
+        writer.append(manifestJSON.toString());
+        writer.flush();
+        writer.close();
+    }
+
+
+    boolean isUpToDate(String deviceKey, String resource, long changeTime){
+        if(this.deviceKey == null || !this.deviceKey.equals(deviceKey)){
+            return false;
+        }
+
+        Long appliedChangeTime = changeTimes.get(resource);
+
+        return appliedChangeTime != null && appliedChangeTime == changeTime;
+    }
+
+    void setApplied(String deviceKey, String resource, long changeTime){
+        // The stored syntax only ever belongs to one device, so switching devices invalidates everything
+        if(this.deviceKey == null || !this.deviceKey.equals(deviceKey)){
+            clear();
+            this.deviceKey = deviceKey;
+        }
+
+        changeTimes.put(resource, changeTime);
+    }
+
+    /* Marks the stored syntax as the one of the given device, e.g. after it was restored from the RegistryCache.*/
+    void setDevice(String deviceKey, Map<String, Long> changeTimes){
+        this.deviceKey = deviceKey;
+        this.changeTimes = new HashMap<>(changeTimes);
+    }
+
+    /* The device, whose syntax is stored, or null.*/
+    String getDevice(){
+        return deviceKey;
+    }
+
+    Map<String, Long> getChangeTimes(){
+        return changeTimes;
+    }
+
+    /* Whether the change times of all resources are known.*/
+    boolean isComplete(){
+        return changeTimes.containsKey(FORMAT) && changeTimes.containsKey(LANG) && changeTimes.containsKey(CATEGORIES);
+    }
+
+    void clear(){
+        deviceKey = null;
+        changeTimes.clear();
+    }
+}
@@ -0,0 +1,145 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import android.content.Context;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.HttpHeaderParser;
+import com.android.volley.toolbox.Volley;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/* Sends requests through a Volley RequestQueue, which takes waiting requests in the order of their priority.
+ * Volley's own cache is not used, so the conditional requests of the ResponseCache reach the device, and a
+ * "304 Not Modified" reaches their parser. Listeners are called on the main thread.*/
+public class VolleyTransport implements DeviceTransport {
+
+    private final RequestQueue queue;
+
+
+    public VolleyTransport(Context context){
+        queue = Volley.newRequestQueue(context);
+    }
+
+
+    @Override
+    public void send(DeviceRequest<?> request) {
+        queue.add(new TransportRequest<>(request));
+    }
+
+    @Override
+    public void cancelAll(Object tag) {
+        if(tag != null){
+            queue.cancelAll(tag);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        queue.stop();
+    }
+
+
+    private static class TransportRequest<T> extends Request<T> {
+
+        private final DeviceRequest<T> request;
+
+
+        TransportRequest(final DeviceRequest<T> request){
+            super(request.getMethod().equals(DeviceRequest.POST) ? Method.POST : Method.GET, request.getUrl(), new Response.ErrorListener() {
+                @Override
+                public void onErrorResponse(VolleyError error) {
+                    int statusCode = error.networkResponse != null ? error.networkResponse.statusCode : 0;
+
+                    request.deliverError(statusCode, error);
+                }
+            });
+
+            this.request = request;
+
+            // Without a backoff, every attempt gets the same timeout, like DeviceRequest says
+            setRetryPolicy(new DefaultRetryPolicy(request.getTimeout(), request.getMaxRetries(), 0f));
+            setShouldCache(false);
+
+            if(request.getTag() != null){
+                setTag(request.getTag());
+            }
+        }
+
+
+        @Override
+        public void cancel() {
+            super.cancel();
+            request.cancel();
+        }
+
+        @Override
+        public void addMarker(String tag) {
+            super.addMarker(tag);
+
+            // The network dispatcher took the request from Volley's queue, its first attempt starts now
+            if("network-queue-take".equals(tag)){
+                request.dispatched();
+            }
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return super.isCanceled() || request.isCanceled();
+        }
+
+        @Override
+        public Priority getPriority() {
+            switch (request.getPriority()) {
+                case COMMAND:
+                    return Priority.IMMEDIATE;
+                case BULK:
+                    return Priority.LOW;
+                default:
+                    return Priority.NORMAL;
+            }
+        }
+
+        @Override
+        public Map<String, String> getHeaders() throws AuthFailureError {
+            Map<String, String> headers = new HashMap<>(request.getHeaders());
+            headers.put("Accept-Encoding", Gzip.ENCODING);
+            return headers;
+        }
+
+        @Override
+        public String getBodyContentType() {
+            return request.getContentType() != null ? request.getContentType() : super.getBodyContentType();
+        }
+
+        @Override
+        public byte[] getBody() throws AuthFailureError {
+            return request.getBody();
+        }
+
+        @Override
+        protected Response<T> parseNetworkResponse(NetworkResponse response) {
+            try {
+                byte[] body = Gzip.decompress(response.data, response.headers != null ? response.headers.get("Content-Encoding") : null);
+
+                DeviceResponse deviceResponse = new DeviceResponse(response.statusCode, response.headers, body);
+
+                return Response.success(request.parse(deviceResponse), HttpHeaderParser.parseCacheHeaders(response));
+            } catch (Exception e) {
+                return Response.error(new ParseError(e));
+            }
+        }
+
+        @Override
+        protected void deliverResponse(T response) {
+            request.deliverResponse(response);
+        }
+    }
+}
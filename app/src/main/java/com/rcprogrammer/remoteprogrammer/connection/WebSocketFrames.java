@@ -0,0 +1,229 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import android.util.Base64;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/* The parts of the WebSocket protocol (RFC 6455), that the command channel needs:
+ * the handshake key, and reading and writing of (possibly fragmented) frames.*/
+class WebSocketFrames {
+
+    static final int OPCODE_CONTINUATION = 0x0;
+    static final int OPCODE_TEXT = 0x1;
+    static final int OPCODE_BINARY = 0x2;
+    static final int OPCODE_CLOSE = 0x8;
+    static final int OPCODE_PING = 0x9;
+    static final int OPCODE_PONG = 0xA;
+
+    private static final String HANDSHAKE_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private static final int MAX_MESSAGE_LENGTH = 1 << 20;
+
+    private static final SecureRandom random = new SecureRandom();
+
+
+    static String createKey(){
+        byte[] key = new byte[16];
+        random.nextBytes(key);
+
+        return Base64.encodeToString(key, Base64.NO_WRAP);
+    }
+
+    static String acceptKey(String key){
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            byte[] hash = digest.digest((key + HANDSHAKE_GUID).getBytes("UTF-8"));
+
+            return Base64.encodeToString(hash, Base64.NO_WRAP);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /* Reads the lines of an HTTP header, up to the empty line, that ends it.*/
+    static String readHeader(InputStream in) throws IOException{
+        StringBuilder header = new StringBuilder();
+
+        int c;
+        while ((c = in.read()) != -1) {
+            header.append((char) c);
+
+            int length = header.length();
+            if(length >= 4 && header.charAt(length - 4) == '\r' && header.charAt(length - 3) == '\n'
+                    && header.charAt(length - 2) == '\r' && header.charAt(length - 1) == '\n'){
+                return header.toString();
+            }
+        }
+
+        throw new EOFException();
+    }
+
+    static String getHeaderValue(String header, String name){
+        for(String line : header.split("\r\n")){
+            int separator = line.indexOf(':');
+
+            if(separator > 0 && line.substring(0, separator).trim().equalsIgnoreCase(name)){
+                return line.substring(separator + 1).trim();
+            }
+        }
+
+        return null;
+    }
+
+
+    /* Clients must mask their frames, servers must not.*/
+    static void writeFrame(OutputStream out, int opcode, byte[] payload, boolean mask) throws IOException{
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(payload.length + 14);
+
+        frame.write(0x80 | opcode);
+
+        int maskBit = mask ? 0x80 : 0;
+
+        if(payload.length < 126){
+            frame.write(maskBit | payload.length);
+        } else if(payload.length <= 0xFFFF){
+            frame.write(maskBit | 126);
+            frame.write(payload.length >>> 8);
+            frame.write(payload.length);
+        } else {
+            frame.write(maskBit | 127);
+            for(int shift = 56; shift >= 0; shift -= 8){
+                frame.write((int) ((long) payload.length >>> shift));
+            }
+        }
+
+        if(mask){
+            byte[] maskKey = new byte[4];
+            random.nextBytes(maskKey);
+            frame.write(maskKey, 0, maskKey.length);
+
+            for(int i = 0; i < payload.length; i++){
+                frame.write(payload[i] ^ maskKey[i % 4]);
+            }
+        } else {
+            frame.write(payload, 0, payload.length);
+        }
+
+        out.write(frame.toByteArray());
+        out.flush();
+    }
+
+    private static int readByte(InputStream in) throws IOException{
+        int b = in.read();
+
+        if(b == -1){
+            throw new EOFException();
+        }
+
+        return b;
+    }
+
+    private static void readFully(InputStream in, byte[] buffer) throws IOException{
+        int offset = 0;
+
+        while (offset < buffer.length) {
+            int read = in.read(buffer, offset, buffer.length - offset);
+
+            if(read == -1){
+                throw new EOFException();
+            }
+
+            offset += read;
+        }
+    }
+
+
+    /* Reads the messages of one connection, joining fragmented frames. Control frames are returned as they
+     * arrive, even in between fragments, and the fragments read so far are kept for the next read().*/
+    static class MessageReader {
+        private final InputStream in;
+
+        private ByteArrayOutputStream fragments = null;
+        private int messageOpcode = OPCODE_CONTINUATION;
+
+        MessageReader(InputStream in){
+            this.in = in;
+        }
+
+        Message read() throws IOException{
+            while (true) {
+                int first = readByte(in);
+                int second = readByte(in);
+
+                boolean isFinal = (first & 0x80) != 0;
+                int opcode = first & 0x0F;
+                boolean isMasked = (second & 0x80) != 0;
+
+                long length = second & 0x7F;
+
+                if(length == 126){
+                    length = (readByte(in) << 8) | readByte(in);
+                } else if(length == 127){
+                    length = 0;
+                    for(int i = 0; i < 8; i++){
+                        length = (length << 8) | readByte(in);
+                    }
+                }
+
+                if(length > MAX_MESSAGE_LENGTH){
+                    throw new IOException("WebSocket frame too large.");
+                }
+
+                byte[] maskKey = null;
+                if(isMasked){
+                    maskKey = new byte[4];
+                    readFully(in, maskKey);
+                }
+
+                byte[] payload = new byte[(int) length];
+                readFully(in, payload);
+
+                if(maskKey != null){
+                    for(int i = 0; i < payload.length; i++){
+                        payload[i] ^= maskKey[i % 4];
+                    }
+                }
+
+                if(opcode >= OPCODE_CLOSE){
+                    return new Message(opcode, payload);
+                }
+
+                if(opcode != OPCODE_CONTINUATION){
+                    messageOpcode = opcode;
+                    fragments = new ByteArrayOutputStream();
+                } else if(fragments == null){
+                    throw new IOException("Unexpected WebSocket continuation frame.");
+                }
+
+                fragments.write(payload, 0, payload.length);
+
+                if(fragments.size() > MAX_MESSAGE_LENGTH){
+                    throw new IOException("WebSocket message too large.");
+                }
+
+                if(isFinal){
+                    Message message = new Message(messageOpcode, fragments.toByteArray());
+                    fragments = null;
+
+                    return message;
+                }
+            }
+        }
+    }
+
+    static class Message {
+        final int opcode;
+        final byte[] payload;
+
+        Message(int opcode, byte[] payload){
+            this.opcode = opcode;
+            this.payload = payload;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.rcprogrammer.remoteprogrammer.deploy;
+
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.view.MenuItem;
+import android.view.View;
+import android.widget.Button;
+import android.widget.EditText;
+import android.widget.Toast;
+
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.rcprogrammer.remoteprogrammer.R;
+import com.rcprogrammer.remoteprogrammer.connection.DeviceTransport;
+import com.rcprogrammer.remoteprogrammer.connection.DeviceTransports;
+import com.rcprogrammer.remoteprogrammer.connection.FunctionDeployer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/* Uploads the local functions to a list of devices at once, and shows the progress of each device.*/
+public class DeployActivity extends AppCompatActivity {
+
+    private static final int MAX_PARALLEL_DEPLOYMENTS = 4;
+
+    private EditText txtDeviceAddresses;
+    private Button btnDeploy;
+
+    private DeployRecyclerViewAdapter mAdapter;
+
+    private DeviceTransport transport;
+    private FunctionDeployer deployer;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_deploy);
+
+        getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+
+
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+
+        int connectionTimeout;
+
+        try{
+            connectionTimeout = Integer.parseInt(prefs.getString("connection_timeout", "3000"));
+        } catch(Exception e){
+            connectionTimeout = 3000;
+        }
+
+        transport = DeviceTransports.create(this, prefs.getString("connection_transport", DeviceTransports.VOLLEY));
+        deployer = new FunctionDeployer(this, transport, connectionTimeout, MAX_PARALLEL_DEPLOYMENTS);
+
+
+        txtDeviceAddresses = (EditText) findViewById(R.id.txtDeviceAddresses);
+        txtDeviceAddresses.setText(prefs.getString("deploy_device_addresses", ""));
+
+        RecyclerView mRecyclerView = (RecyclerView) findViewById(R.id.recyclerViewDeployDevices);
+        mRecyclerView.setLayoutManager(new LinearLayoutManager(this));
+
+        mAdapter = new DeployRecyclerViewAdapter();
+        mRecyclerView.setAdapter(mAdapter);
+
+
+        btnDeploy = (Button) findViewById(R.id.btnDeploy);
+
+        btnDeploy.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                if(deployer.isDeploying()){
+                    deployer.cancel();
+                    btnDeploy.setText(R.string.btn_deploy);
+                } else {
+                    deploy();
+                }
+            }
+        });
+    }
+
+
+    @Override
+    protected void onDestroy() {
+        deployer.cancel();
+        transport.shutdown();
+
+        super.onDestroy();
+    }
+
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            // Respond to the action bar's Up/Home button
+            case android.R.id.home:
+                finish();
+                return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+
+    private void deploy(){
+        String addresses = txtDeviceAddresses.getText().toString();
+
+        PreferenceManager.getDefaultSharedPreferences(this).edit().putString("deploy_device_addresses", addresses).apply();
+
+        List<String> deviceURLs = new ArrayList<>();
+
+        for(String address : addresses.split("\\s+")){
+            if(!address.isEmpty()){
+                deviceURLs.add(address.endsWith("/") ? address.substring(0, address.length() - 1) : address);
+            }
+        }
+
+        mAdapter.clear();
+        btnDeploy.setText(R.string.btn_Cancel);
+
+        deployer.deploy(deviceURLs, new FunctionDeployer.DeploymentListener() {
+            @Override
+            public void onDeviceProgress(String deviceURL, FunctionDeployer.DeviceState state, int uploaded, int failed, int total) {
+                mAdapter.setProgress(deviceURL, state, uploaded, failed, total);
+            }
+
+            @Override
+            public void onDeploymentFinished(int succeededDevices, int failedDevices) {
+                btnDeploy.setText(R.string.btn_deploy);
+
+                Toast.makeText(DeployActivity.this, getString(R.string.msg_deployment_finished, succeededDevices, failedDevices), Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+}
@@ -0,0 +1,130 @@
+package com.rcprogrammer.remoteprogrammer.deploy;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.rcprogrammer.remoteprogrammer.R;
+import com.rcprogrammer.remoteprogrammer.connection.FunctionDeployer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class DeployRecyclerViewAdapter extends RecyclerView.Adapter<DeployRecyclerViewAdapter.ViewHolder> {
+    private final List<DeviceProgress> mDataset = new ArrayList<>();
+
+    class ViewHolder extends RecyclerView.ViewHolder {
+        TextView txtDeviceAddress;
+        TextView txtDeviceState;
+        ProgressBar progBarDeployDevice;
+
+        ViewHolder(View v) {
+            super(v);
+
+            txtDeviceAddress = (TextView) v.findViewById(R.id.txtDeviceAddress);
+            txtDeviceState = (TextView) v.findViewById(R.id.txtDeviceState);
+            progBarDeployDevice = (ProgressBar) v.findViewById(R.id.progBarDeployDevice);
+        }
+    }
+
+    DeployRecyclerViewAdapter() {
+    }
+
+
+    void clear(){
+        mDataset.clear();
+        notifyDataSetChanged();
+    }
+
+    /* Adds the device, if it isn't in the list yet.*/
+    void setProgress(String deviceURL, FunctionDeployer.DeviceState state, int uploaded, int failed, int total){
+        for(int i = 0; i < mDataset.size(); i++){
+            DeviceProgress progress = mDataset.get(i);
+
+            if(progress.deviceURL.equals(deviceURL)){
+                progress.set(state, uploaded, failed, total);
+                notifyItemChanged(i);
+                return;
+            }
+        }
+
+        DeviceProgress progress = new DeviceProgress(deviceURL);
+        progress.set(state, uploaded, failed, total);
+
+        mDataset.add(progress);
+        notifyItemInserted(mDataset.size() - 1);
+    }
+
+
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View container = LayoutInflater.from(parent.getContext()).inflate(R.layout.list_item_deploy_device, parent, false);
+        return new ViewHolder(container);
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        DeviceProgress progress = mDataset.get(position);
+        Context context = holder.itemView.getContext();
+
+        holder.txtDeviceAddress.setText(progress.deviceURL);
+
+        switch (progress.state) {
+            case WAITING:
+                holder.txtDeviceState.setText(R.string.txt_deploy_state_waiting);
+                break;
+            case CONNECTING:
+                holder.txtDeviceState.setText(R.string.txt_deploy_state_connecting);
+                break;
+            case UPLOADING:
+                holder.txtDeviceState.setText(context.getString(R.string.txt_deploy_state_uploading, progress.uploaded + progress.failed, progress.total));
+                break;
+            case DONE:
+                holder.txtDeviceState.setText(context.getString(R.string.txt_deploy_state_done, progress.uploaded));
+                break;
+            case FAILED:
+                if(progress.total > 0){
+                    holder.txtDeviceState.setText(context.getString(R.string.txt_deploy_state_failed, progress.failed, progress.total));
+                } else {
+                    holder.txtDeviceState.setText(R.string.txt_deploy_state_unreachable);
+                }
+                break;
+        }
+
+        holder.progBarDeployDevice.setIndeterminate(progress.state == FunctionDeployer.DeviceState.CONNECTING
+                || (progress.state == FunctionDeployer.DeviceState.UPLOADING && progress.total == 0));
+        holder.progBarDeployDevice.setMax(Math.max(progress.total, 1));
+        holder.progBarDeployDevice.setProgress(progress.state == FunctionDeployer.DeviceState.DONE && progress.total == 0 ? 1 : progress.uploaded + progress.failed);
+    }
+
+    @Override
+    public int getItemCount() {
+        return mDataset.size();
+    }
+
+
+    private static class DeviceProgress {
+        final String deviceURL;
+
+        FunctionDeployer.DeviceState state;
+        int uploaded;
+        int failed;
+        int total;
+
+        DeviceProgress(String deviceURL){
+            this.deviceURL = deviceURL;
+        }
+
+        void set(FunctionDeployer.DeviceState state, int uploaded, int failed, int total){
+            this.state = state;
+            this.uploaded = uploaded;
+            this.failed = failed;
+            this.total = total;
+        }
+    }
+}
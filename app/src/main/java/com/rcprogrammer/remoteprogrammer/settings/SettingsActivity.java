@@ -1,7 +1,9 @@
 package com.rcprogrammer.remoteprogrammer.settings;
 
 import android.annotation.TargetApi;
+import android.app.AlertDialog;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.res.Configuration;
 import android.os.Build;
@@ -12,12 +14,18 @@ import android.preference.PreferenceActivity;
 import android.preference.PreferenceFragment;
 import android.preference.PreferenceManager;
 import android.view.MenuItem;
+import android.widget.ArrayAdapter;
 
 import androidx.appcompat.app.ActionBar;
 
 import com.rcprogrammer.remoteprogrammer.R;
 import com.rcprogrammer.remoteprogrammer.codeeditor.codeview.CodeFormat;
+import com.rcprogrammer.remoteprogrammer.connection.DeviceDiscovery;
+import com.rcprogrammer.remoteprogrammer.connection.DeviceTransports;
 
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 
@@ -152,6 +160,99 @@ public class SettingsActivity extends AppCompatPreferenceActivity {
 
             bindPreferenceSummaryToValue(findPreference("rc_device_address"));
             bindPreferenceSummaryToValue(findPreference("connection_timeout"));
+            bindPreferenceSummaryToValue(findPreference("connection_transport"));
+
+            findPreference("rc_device_discovery").setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+                @Override
+                public boolean onPreferenceClick(Preference preference) {
+                    showDeviceDiscovery();
+                    return true;
+                }
+            });
+        }
+
+        /* Searches the local network for robots, and lists them, the fastest first. Choosing one sets its address.*/
+        private void showDeviceDiscovery(){
+            final URLPreference addressPreference = (URLPreference) findPreference("rc_device_address");
+
+            final List<DeviceDiscovery.FoundDevice> foundDevices = new ArrayList<>();
+            final ArrayAdapter<String> arrayAdapter = new ArrayAdapter<>(getActivity(), android.R.layout.simple_list_item_1);
+
+            AlertDialog.Builder builder = new AlertDialog.Builder(getActivity());
+            builder.setTitle(R.string.txt_discovery_searching);
+
+            builder.setAdapter(arrayAdapter, new DialogInterface.OnClickListener() {
+                @Override
+                public void onClick(DialogInterface dialog, int index) {
+                    String url = foundDevices.get(index).getUrl();
+
+                    if(addressPreference.callChangeListener(url)){
+                        addressPreference.setText(url);
+                    }
+                }
+            });
+
+            builder.setNegativeButton(R.string.btn_Cancel, new DialogInterface.OnClickListener() {
+                @Override
+                public void onClick(DialogInterface dialog, int which) {
+                    dialog.dismiss();
+                }
+            });
+
+            final AlertDialog dialog = builder.create();
+
+            // Robots are searched on the port of the current address
+            final DeviceDiscovery discovery = new DeviceDiscovery(getPort(addressPreference.getText()), DeviceTransports.mainThreadExecutor(),
+                    new DeviceDiscovery.Listener() {
+                        @Override
+                        public void onDevicesChanged(List<DeviceDiscovery.FoundDevice> devicesByLatency) {
+                            showFoundDevices(devicesByLatency);
+                        }
+
+                        @Override
+                        public void onFinished(List<DeviceDiscovery.FoundDevice> devicesByLatency) {
+                            showFoundDevices(devicesByLatency);
+
+                            if(devicesByLatency.isEmpty()){
+                                dialog.setTitle(R.string.txt_discovery_none);
+                            } else {
+                                dialog.setTitle(getString(R.string.txt_discovery_found, devicesByLatency.size()));
+                            }
+                        }
+
+                        private void showFoundDevices(List<DeviceDiscovery.FoundDevice> devicesByLatency){
+                            foundDevices.clear();
+                            foundDevices.addAll(devicesByLatency);
+
+                            arrayAdapter.clear();
+
+                            for(DeviceDiscovery.FoundDevice device : devicesByLatency){
+                                arrayAdapter.add(getString(R.string.txt_discovery_entry, device.getUrl(), device.getLatency()));
+                            }
+                        }
+                    }
+            );
+
+            dialog.setOnDismissListener(new DialogInterface.OnDismissListener() {
+                @Override
+                public void onDismiss(DialogInterface dialogInterface) {
+                    discovery.cancel();
+                }
+            });
+
+            dialog.show();
+
+            discovery.start(DeviceDiscovery.getLocalSubnets());
+        }
+
+        private static int getPort(String url){
+            try {
+                int port = new URL(url).getPort();
+
+                return port >= 0 ? port : DeviceDiscovery.DEFAULT_PORT;
+            } catch (MalformedURLException e) {
+                return DeviceDiscovery.DEFAULT_PORT;
+            }
         }
 
         @Override
@@ -0,0 +1,179 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class BinaryASTTest {
+
+    private static final List<String> REGISTRY_IDS = Arrays.asList("drive", "if", "repeat", "turn");
+
+    private static final String FUNCTION = "["
+            + "{\"id\":\"drive\",\"params\":[\"10\"],\"blocks\":[]},"
+            + "{\"id\":\"repeat\",\"params\":[\"3\"],\"blocks\":[["
+            + "{\"id\":\"turn\",\"params\":[\"90\"],\"blocks\":[]},"
+            + "{\"id\":\"if\",\"params\":[{\"id\":\"obstacle\",\"params\":[],\"blocks\":[]}],\"blocks\":[["
+            + "{\"id\":\"print\",\"params\":[\"stop\"],\"blocks\":[]}"
+            + "],[]]}"
+            + "]]},"
+            + "{\"id\":\"print\",\"params\":[\"10\"],\"blocks\":[]}"
+            + "]";
+
+
+    @Test
+    public void decodesToTheSameFunction() throws Exception {
+        byte[] encoded = BinaryAST.encode(new JSONArray(FUNCTION), REGISTRY_IDS, 7);
+
+        Decoder decoder = new Decoder(encoded, REGISTRY_IDS);
+
+        assertEquals(7, decoder.registryVersion);
+        assertEquals(FunctionManifest.hash(new JSONArray(FUNCTION)), FunctionManifest.hash(decoder.function));
+    }
+
+    @Test
+    public void writesTheHeader() throws Exception {
+        byte[] encoded = BinaryAST.encode(new JSONArray("[]"), REGISTRY_IDS, 300);
+
+        // "RPA", version 1, and 300 as a varint
+        assertArrayEquals(new byte[]{'R', 'P', 'A', 1, (byte) 0xAC, 0x02, 0, 0}, encoded);
+    }
+
+    @Test
+    public void storesEachStringOnce() throws Exception {
+        Decoder decoder = new Decoder(BinaryAST.encode(new JSONArray(FUNCTION), REGISTRY_IDS, 1), REGISTRY_IDS);
+
+        // "print" and "obstacle" aren't in the registry, "10" is used twice
+        assertEquals(Arrays.asList("10", "3", "90", "obstacle", "print", "stop"), sorted(decoder.strings));
+    }
+
+    @Test
+    public void writesUnknownFormatsByName() throws Exception {
+        List<String> emptyRegistry = new ArrayList<>();
+
+        Decoder decoder = new Decoder(BinaryAST.encode(new JSONArray(FUNCTION), emptyRegistry, 1), emptyRegistry);
+
+        assertTrue(decoder.strings.contains("repeat"));
+        assertEquals(FunctionManifest.hash(new JSONArray(FUNCTION)), FunctionManifest.hash(decoder.function));
+    }
+
+
+    @Test
+    public void rejectsParamsThatAreNoStrings() throws Exception {
+        for(String param : new String[]{"null", "10", "true"}){
+            try {
+                BinaryAST.encode(new JSONArray("[{\"id\":\"drive\",\"params\":[" + param + "],\"blocks\":[]}]"), REGISTRY_IDS, 1);
+                fail(param + " was encoded like a string");
+            } catch (JSONException e) {
+                // The function has to be sent as JSON
+            }
+        }
+    }
+
+
+    private static List<String> sorted(List<String> strings){
+        List<String> sortedStrings = new ArrayList<>(strings);
+        Collections.sort(sortedStrings);
+
+        return sortedStrings;
+    }
+
+
+    /* Reads the format described in BinaryAST back into a function, the way a device does.*/
+    private static class Decoder {
+        final long registryVersion;
+        final List<String> strings = new ArrayList<>();
+        final JSONArray function;
+
+        private final ByteArrayInputStream in;
+        private final List<String> registryIds;
+
+        Decoder(byte[] encoded, List<String> registryIds) throws IOException, JSONException{
+            this.in = new ByteArrayInputStream(encoded);
+            this.registryIds = registryIds;
+
+            byte[] magic = new byte[3];
+            assertEquals(3, in.read(magic));
+            assertArrayEquals(new byte[]{'R', 'P', 'A'}, magic);
+            assertEquals(1, in.read());
+
+            registryVersion = readVarint();
+
+            long numOfStrings = readVarint();
+            for(int i = 0; i < numOfStrings; i++){
+                byte[] bytes = new byte[(int) readVarint()];
+                assertEquals(bytes.length, in.read(bytes, 0, bytes.length));
+
+                strings.add(new String(bytes, "UTF-8"));
+            }
+
+            function = readBlock();
+
+            assertEquals("trailing bytes", 0, in.available());
+        }
+
+        private JSONArray readBlock() throws IOException, JSONException{
+            JSONArray block = new JSONArray();
+
+            long length = readVarint();
+            for(int i = 0; i < length; i++){
+                block.put(readElement());
+            }
+
+            return block;
+        }
+
+        private JSONObject readElement() throws IOException, JSONException{
+            JSONObject element = new JSONObject();
+
+            long formatRef = readVarint();
+            element.put("id", formatRef == 0 ? strings.get((int) readVarint()) : registryIds.get((int) formatRef - 1));
+
+            JSONArray params = new JSONArray();
+            long numOfParams = readVarint();
+            for(int i = 0; i < numOfParams; i++){
+                long param = readVarint();
+
+                params.put(param == 0 ? readElement() : strings.get((int) param - 1));
+            }
+            element.put("params", params);
+
+            JSONArray blocks = new JSONArray();
+            long numOfBlocks = readVarint();
+            for(int i = 0; i < numOfBlocks; i++){
+                blocks.put(readBlock());
+            }
+            element.put("blocks", blocks);
+
+            return element;
+        }
+
+        private long readVarint(){
+            long value = 0;
+            int shift = 0;
+            int b;
+
+            do {
+                b = in.read();
+                assertTrue("unexpected end", b >= 0);
+
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+
+            return value;
+        }
+    }
+}
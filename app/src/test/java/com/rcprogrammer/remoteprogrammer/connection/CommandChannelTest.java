@@ -0,0 +1,140 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class CommandChannelTest {
+
+    private final LocalChannelServer server = new LocalChannelServer();
+    private CommandChannel channel;
+
+    private final List<JSONObject> messages = new ArrayList<>();
+    private final List<JSONObject> failedMessages = new ArrayList<>();
+    private boolean isClosed = false;
+
+
+    @Before
+    public void setUp() throws Exception {
+        server.start(0);
+
+        channel = new CommandChannel("http://127.0.0.1:" + server.getPort(), 3000, new CommandChannel.Listener() {
+            @Override
+            public void onMessage(JSONObject message) {
+                messages.add(message);
+            }
+
+            @Override
+            public void onSendFailed(JSONObject message) {
+                failedMessages.add(message);
+            }
+
+            @Override
+            public void onClosed(CommandChannel closedChannel) {
+                assertSame(channel, closedChannel);
+
+                isClosed = true;
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        channel.close();
+        server.stop();
+    }
+
+
+    @Test
+    public void receivesTheOutputOfACommand() throws Exception {
+        openChannel();
+
+        channel.send(command(7, "drive 10"));
+
+        MainLooper.runUntil(new MainLooper.Condition() {
+            @Override
+            public boolean isMet() {
+                return messages.size() >= 3;
+            }
+        });
+
+        assertEquals(CommandChannel.TYPE_OUTPUT, messages.get(0).getString("type"));
+        assertEquals("Running \"drive 10\"", messages.get(0).getString("text"));
+        assertEquals(CommandChannel.TYPE_OUTPUT, messages.get(1).getString("type"));
+        assertEquals(CommandChannel.TYPE_DONE, messages.get(2).getString("type"));
+
+        for(JSONObject message : messages){
+            assertEquals(7, message.getLong("id"));
+        }
+
+        assertTrue(failedMessages.isEmpty());
+    }
+
+    @Test
+    public void returnsMessagesThatCantBeSent() throws Exception {
+        openChannel();
+
+        channel.close();
+
+        MainLooper.runUntil(new MainLooper.Condition() {
+            @Override
+            public boolean isMet() {
+                return isClosed;
+            }
+        });
+
+        channel.send(command(8, "turn 90"));
+
+        MainLooper.runUntil(new MainLooper.Condition() {
+            @Override
+            public boolean isMet() {
+                return !failedMessages.isEmpty();
+            }
+        });
+
+        assertEquals(8, failedMessages.get(0).getLong("id"));
+        assertFalse(channel.isOpen());
+    }
+
+    @Test
+    public void closesWhenTheDeviceRefuses() throws Exception {
+        // Nothing listens on the port anymore
+        server.stop();
+
+        channel.open();
+
+        MainLooper.runUntil(new MainLooper.Condition() {
+            @Override
+            public boolean isMet() {
+                return isClosed;
+            }
+        });
+
+        assertFalse(channel.isOpen());
+    }
+
+
+    private void openChannel() throws InterruptedException{
+        channel.open();
+
+        MainLooper.runUntil(new MainLooper.Condition() {
+            @Override
+            public boolean isMet() {
+                return channel.isOpen();
+            }
+        });
+    }
+
+    private static JSONObject command(long id, String text) throws Exception{
+        return new JSONObject().put("type", CommandChannel.TYPE_COMMAND).put("id", id).put("text", text);
+    }
+}
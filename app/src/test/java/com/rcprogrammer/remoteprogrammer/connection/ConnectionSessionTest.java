@@ -0,0 +1,258 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import android.content.Context;
+
+import com.rcprogrammer.remoteprogrammer.codeeditor.codeview.CodeFormat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class ConnectionSessionTest {
+
+    private static final String DEVICE_URL = "http://robot";
+
+    private static final String INFO = "{\"format\":100,\"categories\":100,\"lang\":100,\"id\":\"robot-1\"}";
+
+    private static final String FORMATS = "["
+            + "{\"id\":\"drive\",\"name\":\"@drive\",\"category\":0,"
+            + "\"lines\":[[{\"type\":\"text\",\"value\":\"@drive\"},{\"type\":\"code\",\"value\":\"num_in\"},{\"type\":\"text\",\"value\":\"cm\"}]]},"
+            + "{\"id\":\"distance\",\"name\":\"@distance\",\"category\":1,\"returns\":\"num\","
+            + "\"lines\":[[{\"type\":\"text\",\"value\":\"@distance\"}]]}"
+            + "]";
+    private static final String TRANSLATIONS = "{"
+            + "\"default\":{\"drive\":\"drive\",\"distance\":\"distance\"},"
+            + "\"de\":{\"drive\":\"fahre\",\"distance\":\"Abstand\"}"
+            + "}";
+    private static final String FORMAT_DELTA = "{\"since\":100,"
+            + "\"added\":[{\"id\":\"turn\",\"name\":\"@turn\",\"category\":0,\"lines\":[[{\"type\":\"text\",\"value\":\"@turn\"}]]}],"
+            + "\"removed\":[\"distance\"]}";
+    private static final String CATEGORIES = "[{\"name\":\"Movement\",\"hue\":210},{\"name\":\"Sensors\",\"hue\":120}]";
+
+    private Context context;
+
+    private final SimulatedDevice device = new SimulatedDevice();
+    private DeviceTransport transport;
+
+    private Boolean result = null;
+
+
+    @Before
+    public void setUp() {
+        context = RuntimeEnvironment.getApplication();
+
+        CodeFormat.clearAll();
+
+        transport = new PriorityTransport(new InProcessTransport(device, MainLooper.EXECUTOR));
+    }
+
+    @After
+    public void tearDown() {
+        transport.shutdown();
+
+        CodeFormat.clearAll();
+    }
+
+
+    @Test
+    public void appliesTheDownloadedSyntax() throws Exception {
+        ConnectionSession session = newSession();
+        session.start();
+
+        runUntilFinished();
+
+        assertTrue(result);
+        assertEquals(100, session.getFormatChangeTime());
+
+        assertNotNull(CodeFormat.get("drive"));
+        assertNotNull(CodeFormat.get("distance"));
+        assertEquals(2, CodeFormat.getNumOfCategories());
+        assertTrue(CodeFormat.hasTranslationsFor("de"));
+
+        assertEquals(new HashSet<>(Arrays.asList("/info", "/code_syntax/format", "/code_syntax/lang", "/code_syntax/categories")),
+                new HashSet<>(device.getPaths()));
+    }
+
+    @Test
+    public void failedResourceLeavesTheRegistryAsItWas() throws Exception {
+        device.failingPaths.add("/code_syntax/categories");
+
+        newSession().start();
+
+        runUntilFinished();
+
+        assertFalse(result);
+
+        // The formats and translations arrived, but nothing is applied without the categories
+        assertNull(CodeFormat.get("drive"));
+        assertFalse(CodeFormat.hasTranslations());
+        assertEquals(0, CodeFormat.getNumOfCategories());
+    }
+
+    @Test
+    public void upToDateSyntaxIsNotDownloadedAgain() throws Exception {
+        newSession().start();
+
+        runUntilFinished();
+        assertTrue(result);
+
+        result = null;
+        device.clearPaths();
+
+        newSession().start();
+
+        runUntilFinished();
+
+        assertTrue(result);
+        assertEquals(Arrays.asList("/info"), device.getPaths());
+    }
+
+    @Test
+    public void requestsOnlyChangedFormats() throws Exception {
+        device.info = "{\"format\":100,\"categories\":100,\"lang\":100,\"id\":\"robot-1\",\"capabilities\":[\"format_delta\"]}";
+
+        newSession().start();
+
+        runUntilFinished();
+        assertTrue(result);
+
+        result = null;
+        device.clearPaths();
+        device.info = device.info.replace("\"format\":100", "\"format\":200");
+
+        newSession().start();
+
+        runUntilFinished();
+
+        assertTrue(result);
+        assertEquals(Arrays.asList("/info", "/code_syntax/format?since=100"), device.getPaths());
+
+        List<String> formatIds = new ArrayList<>();
+        for(CodeFormat format : CodeFormat.getAllFormats(true)){
+            formatIds.add(format.getId());
+        }
+        Collections.sort(formatIds);
+
+        // Removed formats are only deprecated
+        assertEquals(Arrays.asList("drive", "turn"), formatIds);
+        assertNotNull(CodeFormat.get("distance"));
+    }
+
+    @Test
+    public void cancelledSessionNeverFinishes() throws Exception {
+        ConnectionSession session = newSession();
+        session.start();
+        session.cancel();
+
+        // Requests are answered in order, so once this one is answered, the session's answers arrived as well
+        final boolean[] isAnswered = {false};
+
+        transport.send(new DeviceRequest<>(DeviceRequest.GET, DEVICE_URL + "/info", DeviceRequest.BYTES, new DeviceRequest.Listener<byte[]>() {
+            @Override
+            public void onResponse(byte[] response) {
+                isAnswered[0] = true;
+            }
+
+            @Override
+            public void onError(int statusCode, Exception cause) {
+                isAnswered[0] = true;
+            }
+        }));
+
+        MainLooper.runUntil(new MainLooper.Condition() {
+            @Override
+            public boolean isMet() {
+                return isAnswered[0];
+            }
+        });
+
+        assertNull(result);
+        assertTrue(session.isFinished());
+        assertFalse(device.getPaths().contains("/code_syntax/format"));
+        assertNull(CodeFormat.get("drive"));
+    }
+
+
+    private ConnectionSession newSession(){
+        return new ConnectionSession(context, DEVICE_URL, transport, 3000, SyncManifest.load(context), RegistryCache.load(context),
+                ResponseCache.load(context), null, new ConnectionSession.Listener() {
+            @Override
+            public void onSessionFinished(ConnectionSession session, boolean succeeded) {
+                result = succeeded;
+            }
+        });
+    }
+
+    private void runUntilFinished() throws InterruptedException{
+        MainLooper.runUntil(new MainLooper.Condition() {
+            @Override
+            public boolean isMet() {
+                return result != null;
+            }
+        });
+    }
+
+
+    /* Serves the syntax above, like the robot does, and fails the requests for failingPaths.*/
+    private static class SimulatedDevice implements InProcessTransport.Device {
+        final Set<String> failingPaths = new HashSet<>();
+
+        volatile String info = INFO;
+
+        private final List<String> paths = new ArrayList<>();
+
+        @Override
+        public DeviceResponse handle(String method, String path, DeviceRequest<?> request) throws Exception {
+            synchronized (this) {
+                paths.add(path);
+            }
+
+            if(failingPaths.contains(path)){
+                return respond(500, "");
+            }
+
+            if(path.equals("/code_syntax/format?since=100")){
+                return respond(200, FORMAT_DELTA);
+            }
+
+            switch(path){
+                case "/info":
+                    return respond(200, info);
+                case "/code_syntax/format":
+                    return respond(200, FORMATS);
+                case "/code_syntax/lang":
+                    return respond(200, TRANSLATIONS);
+                case "/code_syntax/categories":
+                    return respond(200, CATEGORIES);
+                default:
+                    return respond(404, "");
+            }
+        }
+
+        synchronized List<String> getPaths(){
+            return new ArrayList<>(paths);
+        }
+
+        synchronized void clearPaths(){
+            paths.clear();
+        }
+
+        private static DeviceResponse respond(int status, String body) throws Exception{
+            return new DeviceResponse(status, new HashMap<String, String>(), body.getBytes("UTF-8"));
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class FunctionManifestTest {
+
+    @Test
+    public void hashesTheCanonicalJson() throws JSONException {
+        String canonical = "[{\"id\":\"drive\",\"params\":[\"10\",1.5,null,true]}]";
+
+        // The SHA-256 of canonical, in lowercase hex
+        assertEquals("3a7cfa940871da18a87273e2d3a59922f0c8a09497fc92575f19cc2ef2dd984e", FunctionManifest.hash(new JSONArray(canonical)));
+    }
+
+    @Test
+    public void ignoresKeyOrderAndWhitespace() throws JSONException {
+        String function = "[{\"id\":\"drive\",\"params\":[\"10\"],\"blocks\":[]}]";
+        String reordered = "[ { \"blocks\" : [ ],\n \"params\" : [ \"10\" ], \"id\" : \"drive\" } ]";
+
+        assertEquals(FunctionManifest.hash(new JSONArray(function)), FunctionManifest.hash(new JSONArray(reordered)));
+    }
+
+    @Test
+    public void changesWithTheFunction() throws JSONException {
+        String function = "[{\"id\":\"drive\",\"params\":[\"10\"]}]";
+
+        assertNotEquals(FunctionManifest.hash(new JSONArray(function)), FunctionManifest.hash(new JSONArray("[{\"id\":\"drive\",\"params\":[\"11\"]}]")));
+        assertNotEquals(FunctionManifest.hash(new JSONArray(function)), FunctionManifest.hash(new JSONArray("[{\"id\":\"drive\",\"params\":[10]}]")));
+    }
+
+    @Test
+    public void rootHashIgnoresOrder() {
+        Map<String, String> hashes = new LinkedHashMap<>();
+        hashes.put("b", "2");
+        hashes.put("a", "1");
+
+        Map<String, String> reordered = new HashMap<>();
+        reordered.put("a", "1");
+        reordered.put("b", "2");
+
+        // The SHA-256 of "a:1\nb:2\n"
+        assertEquals("6408fdc5c36df5df57957e7b230e4b48c55b06ce849303e855d52f1356f2980e", FunctionManifest.rootHash(hashes));
+        assertEquals(FunctionManifest.rootHash(hashes), FunctionManifest.rootHash(reordered));
+    }
+
+    @Test
+    public void rootHashChangesWithAnyFunction() {
+        Map<String, String> hashes = new HashMap<>();
+        hashes.put("a", "1");
+        hashes.put("b", "2");
+
+        String rootHash = FunctionManifest.rootHash(hashes);
+
+        hashes.put("b", "3");
+        assertNotEquals(rootHash, FunctionManifest.rootHash(hashes));
+
+        hashes.put("b", "2");
+        hashes.put("c", "4");
+        assertNotEquals(rootHash, FunctionManifest.rootHash(hashes));
+
+        hashes.remove("c");
+        hashes.remove("b");
+        assertNotEquals(rootHash, FunctionManifest.rootHash(hashes));
+    }
+}
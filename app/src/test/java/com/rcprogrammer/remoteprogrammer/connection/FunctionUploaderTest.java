@@ -0,0 +1,285 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import android.content.Context;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class FunctionUploaderTest {
+
+    private static final String MAIN = "[{\"id\":\"drive\",\"params\":[\"10\"],\"blocks\":[]},{\"id\":\"turn\",\"params\":[\"90\"],\"blocks\":[]},"
+            + "{\"id\":\"drive\",\"params\":[\"20\"],\"blocks\":[]},{\"id\":\"turn\",\"params\":[\"-90\"],\"blocks\":[]},"
+            + "{\"id\":\"print\",\"params\":[\"done\"],\"blocks\":[]}]";
+    private static final String LOOP = "[{\"id\":\"repeat\",\"params\":[\"4\"],\"blocks\":[[{\"id\":\"turn\",\"params\":[\"90\"],\"blocks\":[]}]]}]";
+
+    private static int numOfDevices = 0;
+
+    private File functionsDir;
+    private String deviceURL;
+
+    private final SimulatedDevice device = new SimulatedDevice();
+    private DeviceTransport transport;
+    private FunctionUploader uploader;
+
+    private final Map<String, Boolean> uploadResults = new HashMap<>();
+    private int[] progress = null;
+
+
+    @Before
+    public void setUp() throws IOException {
+        Context context = RuntimeEnvironment.getApplication();
+
+        functionsDir = new File(context.getFilesDir(), "functions");
+        assertTrue(functionsDir.mkdirs());
+
+        writeFunction("main", MAIN);
+        writeFunction("loop", LOOP);
+
+        // The manifest is shared by the whole process, so every test uses a device of its own
+        numOfDevices++;
+        deviceURL = "http://robot" + numOfDevices;
+
+        transport = new InProcessTransport(device, MainLooper.EXECUTOR);
+
+        uploader = new FunctionUploader(functionsDir, FunctionManifest.load(context), FunctionVersionStore.open(context));
+        uploader.setListener(new FunctionUploader.UploadListener() {
+            @Override
+            public void onFunctionUploaded(String uploadedDeviceURL, String functionName, boolean succeeded) {
+                assertEquals(deviceURL, uploadedDeviceURL);
+
+                uploadResults.put(functionName, succeeded);
+            }
+        });
+        uploader.setProgressListener(new FunctionUploader.ProgressListener() {
+            @Override
+            public void onProgress(int finished, int failed, int total) {
+                progress = new int[]{finished, failed, total};
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        uploader.shutdown();
+        transport.shutdown();
+    }
+
+    @Test
+    public void uploadsEveryFunctionTheDeviceLacks() throws Exception {
+        uploader.syncAll(target(DeviceCapabilities.none()), new HashSet<String>(), null);
+
+        runUntilUploadsFinished(2);
+
+        assertEquals(Boolean.TRUE, uploadResults.get("main"));
+        assertEquals(Boolean.TRUE, uploadResults.get("loop"));
+
+        for(Upload upload : device.getUploads()){
+            String content = upload.functionName.equals("main") ? MAIN : LOOP;
+
+            assertArrayEquals(content.getBytes("UTF-8"), upload.body);
+            assertEquals(FunctionManifest.hash(new JSONArray(content)), upload.headers.get("X-Function-Hash"));
+        }
+
+        assertEquals(DeviceConnector.UploadState.ACKNOWLEDGED, uploader.getUploadState(deviceURL, "main"));
+        assertEquals(DeviceConnector.UploadState.ACKNOWLEDGED, uploader.getUploadState(deviceURL, "loop"));
+    }
+
+    @Test
+    public void skipsEverythingWhenTheRootHashesMatch() throws Exception {
+        Map<String, String> hashes = new HashMap<>();
+        hashes.put("main", FunctionManifest.hash(new JSONArray(MAIN)));
+        hashes.put("loop", FunctionManifest.hash(new JSONArray(LOOP)));
+
+        uploader.syncAll(target(capabilities(DeviceCapabilities.FUNCTION_HASHES)), null, FunctionManifest.rootHash(hashes));
+
+        MainLooper.runUntil(new MainLooper.Condition() {
+            @Override
+            public boolean isMet() {
+                return progress != null;
+            }
+        });
+
+        assertArrayEquals(new int[]{0, 0, 0}, progress);
+        assertTrue(device.getRequests().isEmpty());
+    }
+
+    @Test
+    public void uploadsOnlyFunctionsWithOtherHashes() throws Exception {
+        device.functionHashes.put("main", FunctionManifest.hash(new JSONArray(MAIN)));
+        device.functionHashes.put("loop", "outdated");
+
+        uploader.syncAll(target(capabilities(DeviceCapabilities.FUNCTION_HASHES)), null, "outdated");
+
+        runUntilUploadsFinished(1);
+
+        assertEquals(Collections.singletonList("loop"), new ArrayList<>(uploadResults.keySet()));
+        assertEquals(1, device.getUploads().size());
+    }
+
+    @Test
+    public void sendsChangesAsPatches() throws Exception {
+        uploader.syncAll(target(capabilities(DeviceCapabilities.JSON_PATCH)), new HashSet<String>(), null);
+
+        runUntilUploadsFinished(2);
+
+        String changedMain = MAIN.replace("\"20\"", "\"200\"");
+        writeFunction("main", changedMain);
+
+        uploadResults.clear();
+        uploader.syncAll(target(capabilities(DeviceCapabilities.JSON_PATCH)), new HashSet<>(Arrays.asList("main", "loop")), null);
+
+        runUntilUploadsFinished(1);
+
+        assertEquals(Collections.singletonList("main"), new ArrayList<>(uploadResults.keySet()));
+
+        List<Upload> uploads = device.getUploads();
+        Upload patchUpload = uploads.get(uploads.size() - 1);
+
+        assertEquals(JsonPatch.CONTENT_TYPE, patchUpload.contentType);
+        assertEquals(FunctionManifest.hash(new JSONArray(MAIN)), patchUpload.headers.get("X-Base-Hash"));
+        assertEquals(FunctionManifest.hash(new JSONArray(changedMain)), patchUpload.headers.get("X-Function-Hash"));
+
+        JSONArray patch = new JSONArray(new String(patchUpload.body, "UTF-8"));
+
+        assertEquals(1, patch.length());
+        assertEquals("/2/params/0", patch.getJSONObject(0).getString("path"));
+    }
+
+    @Test
+    public void pushesOnlyChangedFunctions() throws Exception {
+        uploader.syncAll(target(DeviceCapabilities.none()), new HashSet<String>(), null);
+
+        runUntilUploadsFinished(2);
+
+        writeFunction("loop", LOOP.replace("\"4\"", "\"5\""));
+
+        uploadResults.clear();
+        uploader.pushFunctions(Arrays.asList("main", "loop"));
+
+        runUntilUploadsFinished(1);
+
+        assertEquals(Collections.singletonList("loop"), new ArrayList<>(uploadResults.keySet()));
+        assertEquals(3, device.getUploads().size());
+    }
+
+    @Test
+    public void sendsFunctionsWithNullParamsAsJson() throws Exception {
+        String withNull = "[{\"id\":\"print\",\"params\":[null],\"blocks\":[]}]";
+        writeFunction("loop", withNull);
+
+        uploader.syncAll(new FunctionUploader.Target(deviceURL, capabilities(DeviceCapabilities.BINARY_AST), 1, transport, 3000),
+                new HashSet<String>(), null);
+
+        runUntilUploadsFinished(2);
+
+        for(Upload upload : device.getUploads()){
+            if(upload.functionName.equals("loop")){
+                assertArrayEquals(withNull.getBytes("UTF-8"), upload.body);
+            } else {
+                assertEquals(BinaryAST.CONTENT_TYPE, upload.contentType);
+            }
+        }
+
+        assertEquals(DeviceConnector.UploadState.ACKNOWLEDGED, uploader.getUploadState(deviceURL, "loop"));
+    }
+
+
+    private FunctionUploader.Target target(DeviceCapabilities capabilities){
+        return new FunctionUploader.Target(deviceURL, capabilities, -1, transport, 3000);
+    }
+
+    private static DeviceCapabilities capabilities(String... names) throws Exception{
+        return DeviceCapabilities.fromInfo(new JSONObject().put("capabilities", new JSONArray(names)));
+    }
+
+    private void runUntilUploadsFinished(final int numOfUploads) throws InterruptedException{
+        MainLooper.runUntil(new MainLooper.Condition() {
+            @Override
+            public boolean isMet() {
+                return uploadResults.size() >= numOfUploads;
+            }
+        });
+    }
+
+    private void writeFunction(String functionName, String content) throws IOException{
+        FileOutputStream out = new FileOutputStream(new File(functionsDir, functionName));
+
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+
+    /* Accepts every upload, and reports the hashes it was given as its own.*/
+    private static class SimulatedDevice implements InProcessTransport.Device {
+        final Map<String, String> functionHashes = new HashMap<>();
+
+        private final List<String> requests = new ArrayList<>();
+        private final List<Upload> uploads = new ArrayList<>();
+
+        @Override
+        public DeviceResponse handle(String method, String path, DeviceRequest<?> request) throws Exception {
+            synchronized (this) {
+                requests.add(method + " " + path);
+            }
+
+            if(method.equals(DeviceRequest.GET) && path.equals("/function_hashes")){
+                return new DeviceResponse(200, new HashMap<String, String>(), new JSONObject(functionHashes).toString().getBytes("UTF-8"));
+            }
+
+            if(method.equals(DeviceRequest.POST) && path.startsWith("/function/")){
+                synchronized (this) {
+                    uploads.add(new Upload(path.split("/")[2], request));
+                }
+
+                return new DeviceResponse(200, new HashMap<String, String>(), new byte[0]);
+            }
+
+            return new DeviceResponse(404, new HashMap<String, String>(), new byte[0]);
+        }
+
+        synchronized List<String> getRequests(){
+            return new ArrayList<>(requests);
+        }
+
+        synchronized List<Upload> getUploads(){
+            return new ArrayList<>(uploads);
+        }
+    }
+
+    private static class Upload {
+        final String functionName;
+        final Map<String, String> headers;
+        final String contentType;
+        final byte[] body;
+
+        Upload(String functionName, DeviceRequest<?> request){
+            this.functionName = functionName;
+            this.headers = new HashMap<>(request.getHeaders());
+            this.contentType = request.getContentType();
+            this.body = request.getBody();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class JsonPatchTest {
+
+    private static final String FUNCTION = "["
+            + "{\"id\":\"drive\",\"params\":[\"10\"]},"
+            + "{\"id\":\"repeat\",\"params\":[\"3\"],\"blocks\":[[{\"id\":\"turn\",\"params\":[\"90\"]},{\"id\":\"drive\",\"params\":[\"5\"]}]]},"
+            + "{\"id\":\"print\",\"params\":[\"done\"]}"
+            + "]";
+
+
+    @Test
+    public void equalFunctionsGiveAnEmptyPatch() throws JSONException {
+        assertEquals(0, JsonPatch.diff(new JSONArray(FUNCTION), new JSONArray(FUNCTION)).length());
+    }
+
+    @Test
+    public void insertingAnElementOnlyAddsIt() throws JSONException {
+        String target = "["
+                + "{\"id\":\"drive\",\"params\":[\"10\"]},"
+                + "{\"id\":\"turn\",\"params\":[\"45\"]},"
+                + "{\"id\":\"repeat\",\"params\":[\"3\"],\"blocks\":[[{\"id\":\"turn\",\"params\":[\"90\"]},{\"id\":\"drive\",\"params\":[\"5\"]}]]},"
+                + "{\"id\":\"print\",\"params\":[\"done\"]}"
+                + "]";
+
+        JSONArray patch = assertRoundTrip(FUNCTION, target);
+
+        assertEquals(1, patch.length());
+        assertEquals("add", patch.getJSONObject(0).getString("op"));
+        assertEquals("/1", patch.getJSONObject(0).getString("path"));
+    }
+
+    @Test
+    public void removingElementsOnlyRemovesThem() throws JSONException {
+        String target = "["
+                + "{\"id\":\"print\",\"params\":[\"done\"]}"
+                + "]";
+
+        JSONArray patch = assertRoundTrip(FUNCTION, target);
+
+        for(int i = 0; i < patch.length(); i++){
+            assertEquals("remove", patch.getJSONObject(i).getString("op"));
+        }
+    }
+
+    @Test
+    public void changesNestedValuesInPlace() throws JSONException {
+        String target = "["
+                + "{\"id\":\"drive\",\"params\":[\"10\"]},"
+                + "{\"id\":\"repeat\",\"params\":[\"4\"],\"blocks\":[[{\"id\":\"turn\",\"params\":[\"-90\"]},{\"id\":\"drive\",\"params\":[\"5\"]}]]},"
+                + "{\"id\":\"print\",\"params\":[\"done\"]}"
+                + "]";
+
+        JSONArray patch = assertRoundTrip(FUNCTION, target);
+
+        assertEquals(2, patch.length());
+        assertEquals("/1/params/0", patch.getJSONObject(0).getString("path"));
+        assertEquals("/1/blocks/0/0/params/0", patch.getJSONObject(1).getString("path"));
+    }
+
+    @Test
+    public void escapesKeys() throws JSONException {
+        JSONArray patch = assertRoundTrip("[{\"id\":\"a\",\"x/y\":1,\"m~n\":2}]", "[{\"id\":\"a\",\"x/y\":3,\"p\":null}]");
+
+        List<String> paths = new ArrayList<>();
+        for(int i = 0; i < patch.length(); i++){
+            paths.add(patch.getJSONObject(i).getString("path"));
+        }
+
+        assertTrue(paths.contains("/0/x~1y"));
+        assertTrue(paths.contains("/0/m~0n"));
+    }
+
+    @Test
+    public void replacesChangedTypes() throws JSONException {
+        assertRoundTrip("[{\"id\":\"a\",\"params\":[\"1\"]}]", "[{\"id\":\"a\",\"params\":[{\"id\":\"number\",\"params\":[\"1\"]}]}]");
+        assertRoundTrip("[{\"id\":\"a\",\"params\":[\"1\"]}]", "[]");
+        assertRoundTrip("[]", FUNCTION);
+    }
+
+
+    /* Applies the diff to the source, and checks that it gives the target.*/
+    private static JSONArray assertRoundTrip(String source, String target) throws JSONException{
+        JSONArray patch = JsonPatch.diff(new JSONArray(source), new JSONArray(target));
+
+        Object patched = new JSONArray(source);
+
+        for(int i = 0; i < patch.length(); i++){
+            patched = apply(patched, patch.getJSONObject(i));
+        }
+
+        assertEquals(FunctionManifest.hash(new JSONArray(target)), FunctionManifest.hash((JSONArray) patched));
+
+        return patch;
+    }
+
+    /* The operations of RFC 6902, that JsonPatch writes: "add", "remove" and "replace".*/
+    private static Object apply(Object document, JSONObject operation) throws JSONException{
+        List<String> tokens = new ArrayList<>();
+
+        for(String token : operation.getString("path").substring(1).split("/", -1)){
+            tokens.add(token.replace("~1", "/").replace("~0", "~"));
+        }
+
+        if(operation.getString("path").isEmpty()){
+            tokens.clear();
+        }
+
+        return apply(document, tokens, operation.getString("op"), operation.opt("value"));
+    }
+
+    private static Object apply(Object node, List<String> tokens, String op, Object value) throws JSONException{
+        if(tokens.isEmpty()){
+            return value;
+        }
+
+        String token = tokens.get(0);
+        List<String> remainingTokens = tokens.subList(1, tokens.size());
+
+        if(node instanceof JSONObject){
+            JSONObject object = (JSONObject) node;
+
+            if(!remainingTokens.isEmpty()){
+                object.put(token, apply(object.get(token), remainingTokens, op, value));
+            } else if(op.equals("remove")){
+                object.remove(token);
+            } else {
+                object.put(token, value);
+            }
+
+            return object;
+        }
+
+        JSONArray array = (JSONArray) node;
+        int index = token.equals("-") ? array.length() : Integer.parseInt(token);
+
+        if(!remainingTokens.isEmpty()){
+            array.put(index, apply(array.get(index), remainingTokens, op, value));
+            return array;
+        }
+
+        // org.json can't insert into an array, so it's copied
+        JSONArray result = new JSONArray();
+
+        for(int i = 0; i < array.length(); i++){
+            if(i == index && !op.equals("remove")){
+                result.put(value);
+            }
+
+            if(i != index || op.equals("add")){
+                result.put(array.get(i));
+            }
+        }
+
+        if(index == array.length() && op.equals("add")){
+            result.put(value);
+        }
+
+        return result;
+    }
+}
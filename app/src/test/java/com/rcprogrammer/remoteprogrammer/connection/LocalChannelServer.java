@@ -0,0 +1,140 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/* A stand-in for the "/channel" endpoint of a device, so the command channel can be tested without
+ * hardware. Every command is answered with two "output" messages, sent some time apart, and a
+ * "done" message. Open a CommandChannel to "http://127.0.0.1:<port>" to use it; port 0 picks a free one.*/
+class LocalChannelServer {
+
+    private static final long OUTPUT_DELAY = 200;
+
+    private ServerSocket serverSocket;
+
+
+    void start(int port) throws IOException{
+        serverSocket = new ServerSocket(port, 8, InetAddress.getByName("127.0.0.1"));
+
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        final Socket client = serverSocket.accept();
+
+                        Thread clientThread = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(client);
+                            }
+                        }, "LocalChannelServer client");
+
+                        clientThread.setDaemon(true);
+                        clientThread.start();
+                    } catch (IOException e) {
+                        // Server socket was closed
+                    }
+                }
+            }
+        }, "LocalChannelServer");
+
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    int getPort(){
+        return serverSocket.getLocalPort();
+    }
+
+    void stop(){
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+
+    private void serve(Socket client){
+        try {
+            InputStream in = new BufferedInputStream(client.getInputStream());
+            OutputStream out = client.getOutputStream();
+
+            String request = WebSocketFrames.readHeader(in);
+            String key = WebSocketFrames.getHeaderValue(request, "Sec-WebSocket-Key");
+
+            if(!request.startsWith("GET ") || key == null){
+                out.write("HTTP/1.1 400 Bad Request\r\nContent-Length: 0\r\n\r\n".getBytes("UTF-8"));
+                return;
+            }
+
+            String response = "HTTP/1.1 101 Switching Protocols\r\n" +
+                    "Upgrade: websocket\r\n" +
+                    "Connection: Upgrade\r\n" +
+                    "Sec-WebSocket-Accept: " + WebSocketFrames.acceptKey(key) + "\r\n" +
+                    "\r\n";
+
+            out.write(response.getBytes("UTF-8"));
+            out.flush();
+
+            WebSocketFrames.MessageReader reader = new WebSocketFrames.MessageReader(in);
+
+            while (true) {
+                WebSocketFrames.Message message = reader.read();
+
+                if(message.opcode == WebSocketFrames.OPCODE_CLOSE){
+                    WebSocketFrames.writeFrame(out, WebSocketFrames.OPCODE_CLOSE, new byte[0], false);
+                    return;
+                } else if(message.opcode == WebSocketFrames.OPCODE_PING){
+                    WebSocketFrames.writeFrame(out, WebSocketFrames.OPCODE_PONG, message.payload, false);
+                } else if(message.opcode == WebSocketFrames.OPCODE_TEXT){
+                    answerCommand(out, new JSONObject(new String(message.payload, "UTF-8")));
+                }
+            }
+        } catch (IOException | JSONException | InterruptedException e) {
+            // Client is gone, or sent something invalid
+        } finally {
+            try {
+                client.close();
+            } catch (IOException e) {
+                // Nothing left to clean up
+            }
+        }
+    }
+
+    private void answerCommand(OutputStream out, JSONObject command) throws IOException, JSONException, InterruptedException{
+        if(!CommandChannel.TYPE_COMMAND.equals(command.optString("type"))){
+            return;
+        }
+
+        Object id = command.get("id");
+        String text = command.optString("text");
+
+        sendMessage(out, CommandChannel.TYPE_OUTPUT, id, "Running \"" + text + "\"");
+        Thread.sleep(OUTPUT_DELAY);
+        sendMessage(out, CommandChannel.TYPE_OUTPUT, id, "Finished \"" + text + "\"");
+        sendMessage(out, CommandChannel.TYPE_DONE, id, null);
+    }
+
+    private void sendMessage(OutputStream out, String type, Object id, String text) throws IOException, JSONException{
+        JSONObject message = new JSONObject();
+
+        message.put("type", type);
+        message.put("id", id);
+
+        if(text != null){
+            message.put("text", text);
+        }
+
+        WebSocketFrames.writeFrame(out, WebSocketFrames.OPCODE_TEXT, message.toString().getBytes("UTF-8"), false);
+    }
+}
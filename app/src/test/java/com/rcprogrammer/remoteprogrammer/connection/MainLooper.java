@@ -0,0 +1,48 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.fail;
+import static org.robolectric.Shadows.shadowOf;
+
+/* Transports answer on their own threads, and hand the answers to the main thread, like they do in the app.
+ * Tests run on the main thread, so they run its looper, until what they wait for happened.*/
+final class MainLooper {
+
+    private static final long TIMEOUT = 5000;
+
+    static final Executor EXECUTOR = new Executor() {
+        private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+        @Override
+        public void execute(Runnable task) {
+            mainHandler.post(task);
+        }
+    };
+
+
+    private MainLooper(){
+    }
+
+
+    static void runUntil(Condition condition) throws InterruptedException{
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+
+        while (!condition.isMet()) {
+            if(System.currentTimeMillis() > deadline){
+                fail("Timed out waiting on the main looper");
+            }
+
+            shadowOf(Looper.getMainLooper()).idle();
+            Thread.sleep(5);
+        }
+    }
+
+
+    interface Condition {
+        boolean isMet();
+    }
+}
@@ -0,0 +1,165 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/* PriorityTransport only uses plain Java, so it runs on the JVM against a transport, that just collects the requests.*/
+public class PriorityTransportTest {
+
+    private static final String DEVICE_URL = "http://robot.local:5000";
+
+    private RecordingTransport recordingTransport;
+    private PriorityTransport transport;
+
+    private final List<String> delivered = new ArrayList<>();
+
+
+    @Before
+    public void setUp() {
+        recordingTransport = new RecordingTransport();
+        transport = new PriorityTransport(recordingTransport, PriorityTransport.DEFAULT_MAX_REQUESTS_PER_DEVICE);
+    }
+
+
+    @Test
+    public void keepsOneSlotForCommands() {
+        for(int i = 0; i < 5; i++){
+            transport.send(createRequest("/function/f" + i, DeviceRequest.Priority.BULK, null));
+        }
+
+        assertEquals(3, recordingTransport.sent.size());
+
+        transport.send(createRequest("/command", DeviceRequest.Priority.COMMAND, null));
+
+        assertEquals(4, recordingTransport.sent.size());
+        assertEquals(DEVICE_URL + "/command", recordingTransport.sent.get(3).getUrl());
+
+        // The device is busy with four requests now, so nothing else goes out
+        transport.send(createRequest("/command", DeviceRequest.Priority.COMMAND, null));
+
+        assertEquals(4, recordingTransport.sent.size());
+    }
+
+    @Test
+    public void sendsHigherLanesFirst() {
+        for(int i = 0; i < 3; i++){
+            transport.send(createRequest("/function/f" + i, DeviceRequest.Priority.BULK, null));
+        }
+
+        transport.send(createRequest("/function/f3", DeviceRequest.Priority.BULK, null));
+        transport.send(createRequest("/code_syntax/format", DeviceRequest.Priority.SYNTAX, null));
+
+        assertEquals(3, recordingTransport.sent.size());
+
+        recordingTransport.answer(0);
+
+        assertEquals(4, recordingTransport.sent.size());
+        assertEquals(DEVICE_URL + "/code_syntax/format", recordingTransport.sent.get(3).getUrl());
+
+        recordingTransport.answer(1);
+
+        assertEquals(5, recordingTransport.sent.size());
+        assertEquals(DEVICE_URL + "/function/f3", recordingTransport.sent.get(4).getUrl());
+    }
+
+    @Test
+    public void limitsEachDeviceSeparately() {
+        for(int i = 0; i < 3; i++){
+            transport.send(createRequest("/function/f" + i, DeviceRequest.Priority.BULK, null));
+        }
+
+        transport.send(new DeviceRequest<>(DeviceRequest.GET, "http://other.local:5000/info", DeviceRequest.BYTES, createListener("other")));
+
+        assertEquals(4, recordingTransport.sent.size());
+    }
+
+    @Test
+    public void deliversAnswersOfTheWrappedTransport() {
+        transport.send(createRequest("/info", DeviceRequest.Priority.SYNTAX, null));
+
+        recordingTransport.answer(0);
+
+        assertEquals(1, delivered.size());
+        assertEquals("/info", delivered.get(0));
+    }
+
+    @Test
+    public void cancelledRequestsKeepTheirSlotUntilAnswered() {
+        Object tag = new Object();
+
+        for(int i = 0; i < 5; i++){
+            transport.send(createRequest("/function/f" + i, DeviceRequest.Priority.BULK, tag));
+        }
+
+        transport.cancelAll(tag);
+        transport.send(createRequest("/info", DeviceRequest.Priority.BULK, null));
+
+        // The cancelled requests might still reach the device, so they still count
+        assertEquals(3, recordingTransport.sent.size());
+
+        recordingTransport.answer(0);
+
+        assertEquals(4, recordingTransport.sent.size());
+        assertEquals(DEVICE_URL + "/info", recordingTransport.sent.get(3).getUrl());
+
+        // Neither the running nor the queued requests, that were cancelled, are delivered
+        assertTrue(delivered.isEmpty());
+
+        for(DeviceRequest<?> request : recordingTransport.sent){
+            assertFalse(request.isCanceled());
+        }
+    }
+
+
+    private DeviceRequest<byte[]> createRequest(String path, DeviceRequest.Priority priority, Object tag){
+        DeviceRequest<byte[]> request = new DeviceRequest<>(DeviceRequest.GET, DEVICE_URL + path, DeviceRequest.BYTES, createListener(path));
+
+        request.setPriority(priority);
+        request.setTag(tag);
+
+        return request;
+    }
+
+    private DeviceRequest.Listener<byte[]> createListener(final String name){
+        return new DeviceRequest.Listener<byte[]>() {
+            @Override
+            public void onResponse(byte[] response) {
+                delivered.add(name);
+            }
+
+            @Override
+            public void onError(int statusCode, Exception cause) {
+                delivered.add(name);
+            }
+        };
+    }
+
+
+    /* Keeps the requests, until the test answers them.*/
+    private static class RecordingTransport implements DeviceTransport {
+        final List<DeviceRequest<?>> sent = new ArrayList<>();
+
+        @Override
+        public void send(DeviceRequest<?> request) {
+            sent.add(request);
+        }
+
+        @Override
+        public void cancelAll(Object tag) {
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @SuppressWarnings("unchecked")
+        void answer(int index){
+            ((DeviceRequest<byte[]>) sent.get(index)).deliverResponse(new byte[0]);
+        }
+    }
+}
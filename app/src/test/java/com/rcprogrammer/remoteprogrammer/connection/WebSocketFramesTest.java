@@ -0,0 +1,135 @@
+package com.rcprogrammer.remoteprogrammer.connection;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class WebSocketFramesTest {
+
+    @Test
+    public void acceptKeyMatchesRfcExample() {
+        // The example handshake of RFC 6455, section 1.3
+        assertEquals("s3pPLMBiTxaQ9kYGzzhZRbK+xOo=", WebSocketFrames.acceptKey("dGhlIHNhbXBsZSBub25jZQ=="));
+    }
+
+    @Test
+    public void readsHeaderValuesIgnoringCase() throws IOException {
+        String header = WebSocketFrames.readHeader(new ByteArrayInputStream(
+                "HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nsec-websocket-accept: abc=\r\n\r\n".getBytes("UTF-8")));
+
+        assertEquals("abc=", WebSocketFrames.getHeaderValue(header, "Sec-WebSocket-Accept"));
+        assertNull(WebSocketFrames.getHeaderValue(header, "Sec-WebSocket-Protocol"));
+    }
+
+    @Test
+    public void masksClientFrames() throws IOException {
+        byte[] payload = "{\"type\":\"command\",\"id\":1}".getBytes("UTF-8");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WebSocketFrames.writeFrame(out, WebSocketFrames.OPCODE_TEXT, payload, true);
+        byte[] frame = out.toByteArray();
+
+        assertEquals(0x80 | WebSocketFrames.OPCODE_TEXT, frame[0] & 0xFF);
+        assertEquals(0x80 | payload.length, frame[1] & 0xFF);
+        assertEquals(2 + 4 + payload.length, frame.length);
+
+        // The payload isn't sent as it is
+        assertFalse(Arrays.equals(payload, Arrays.copyOfRange(frame, 6, frame.length)));
+
+        WebSocketFrames.Message message = new WebSocketFrames.MessageReader(new ByteArrayInputStream(frame)).read();
+
+        assertEquals(WebSocketFrames.OPCODE_TEXT, message.opcode);
+        assertArrayEquals(payload, message.payload);
+    }
+
+    @Test
+    public void doesNotMaskServerFrames() throws IOException {
+        byte[] payload = "done".getBytes("UTF-8");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WebSocketFrames.writeFrame(out, WebSocketFrames.OPCODE_TEXT, payload, false);
+        byte[] frame = out.toByteArray();
+
+        assertEquals(payload.length, frame[1] & 0xFF);
+        assertArrayEquals(payload, Arrays.copyOfRange(frame, 2, frame.length));
+    }
+
+    @Test
+    public void encodesLongPayloadLengths() throws IOException {
+        for(int length : new int[]{125, 126, 0xFFFF, 0x10000}){
+            byte[] payload = new byte[length];
+            Arrays.fill(payload, (byte) 'x');
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            WebSocketFrames.writeFrame(out, WebSocketFrames.OPCODE_BINARY, payload, true);
+
+            WebSocketFrames.Message message = new WebSocketFrames.MessageReader(new ByteArrayInputStream(out.toByteArray())).read();
+
+            assertArrayEquals("length " + length, payload, message.payload);
+        }
+    }
+
+    @Test
+    public void joinsFragments() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        writeFrame(out, false, WebSocketFrames.OPCODE_TEXT, "Hel");
+        writeFrame(out, false, WebSocketFrames.OPCODE_CONTINUATION, "lo");
+        writeFrame(out, true, WebSocketFrames.OPCODE_CONTINUATION, "!");
+
+        WebSocketFrames.Message message = new WebSocketFrames.MessageReader(new ByteArrayInputStream(out.toByteArray())).read();
+
+        assertEquals(WebSocketFrames.OPCODE_TEXT, message.opcode);
+        assertEquals("Hello!", new String(message.payload, "UTF-8"));
+    }
+
+    @Test
+    public void joinsFragmentsAroundControlFrames() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        writeFrame(out, false, WebSocketFrames.OPCODE_TEXT, "Hel");
+        writeFrame(out, true, WebSocketFrames.OPCODE_PING, "p");
+        writeFrame(out, false, WebSocketFrames.OPCODE_CONTINUATION, "lo");
+        writeFrame(out, true, WebSocketFrames.OPCODE_CONTINUATION, "!");
+
+        WebSocketFrames.MessageReader reader = new WebSocketFrames.MessageReader(new ByteArrayInputStream(out.toByteArray()));
+
+        // Control frames are returned as they arrive, and the fragments before them aren't lost
+        WebSocketFrames.Message ping = reader.read();
+
+        assertEquals(WebSocketFrames.OPCODE_PING, ping.opcode);
+        assertEquals("p", new String(ping.payload, "UTF-8"));
+
+        WebSocketFrames.Message message = reader.read();
+
+        assertEquals(WebSocketFrames.OPCODE_TEXT, message.opcode);
+        assertEquals("Hello!", new String(message.payload, "UTF-8"));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsContinuationWithoutStart() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        writeFrame(out, true, WebSocketFrames.OPCODE_CONTINUATION, "lo");
+
+        new WebSocketFrames.MessageReader(new ByteArrayInputStream(out.toByteArray())).read();
+    }
+
+
+    /* An unmasked frame with a short payload, that may be a fragment, unlike the ones writeFrame() writes.*/
+    private static void writeFrame(ByteArrayOutputStream out, boolean isFinal, int opcode, String payload) throws IOException{
+        byte[] bytes = payload.getBytes("UTF-8");
+
+        out.write((isFinal ? 0x80 : 0) | opcode);
+        out.write(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,304 @@
+package com.rcprogrammer.devicesim;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/* Just enough JSON for the sync protocol, without depending on a library.
+ * Objects are parsed into LinkedHashMaps, arrays into ArrayLists, numbers into Longs or Doubles.*/
+final class Json {
+
+    private final String text;
+    private int pos = 0;
+
+
+    private Json(String text){
+        this.text = text;
+    }
+
+
+    static Object parse(String text){
+        Json json = new Json(text);
+
+        Object value = json.readValue();
+        json.skipWhitespace();
+
+        if(json.pos != text.length()){
+            throw json.error("Trailing characters");
+        }
+
+        return value;
+    }
+
+    /* Writes parsed values back as compact JSON.*/
+    static String write(Object value){
+        StringBuilder sb = new StringBuilder();
+        write(sb, value);
+        return sb.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void write(StringBuilder sb, Object value){
+        if(value instanceof Map){
+            sb.append('{');
+
+            boolean first = true;
+            for(Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()){
+                if(!first){
+                    sb.append(',');
+                }
+                first = false;
+
+                sb.append(quote(entry.getKey())).append(':');
+                write(sb, entry.getValue());
+            }
+
+            sb.append('}');
+        } else if(value instanceof List){
+            sb.append('[');
+
+            boolean first = true;
+            for(Object element : (List<Object>) value){
+                if(!first){
+                    sb.append(',');
+                }
+                first = false;
+
+                write(sb, element);
+            }
+
+            sb.append(']');
+        } else if(value instanceof String){
+            sb.append(quote((String) value));
+        } else {
+            sb.append(value);
+        }
+    }
+
+    static String quote(String str){
+        StringBuilder sb = new StringBuilder(str.length() + 2);
+        sb.append('"');
+
+        for(int i = 0; i < str.length(); i++){
+            char c = str.charAt(i);
+
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if(c < 0x20){
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+
+        sb.append('"');
+        return sb.toString();
+    }
+
+
+    private Object readValue(){
+        skipWhitespace();
+
+        if(pos >= text.length()){
+            throw error("Unexpected end");
+        }
+
+        char c = text.charAt(pos);
+
+        switch (c) {
+            case '{':
+                return readObject();
+            case '[':
+                return readArray();
+            case '"':
+                return readString();
+            case 't':
+                expect("true");
+                return Boolean.TRUE;
+            case 'f':
+                expect("false");
+                return Boolean.FALSE;
+            case 'n':
+                expect("null");
+                return null;
+            default:
+                return readNumber();
+        }
+    }
+
+    private Map<String, Object> readObject(){
+        Map<String, Object> object = new LinkedHashMap<>();
+        pos++;
+
+        skipWhitespace();
+        if(peek() == '}'){
+            pos++;
+            return object;
+        }
+
+        while (true) {
+            skipWhitespace();
+            String key = readString();
+
+            skipWhitespace();
+            if(peek() != ':'){
+                throw error("Expected ':'");
+            }
+            pos++;
+
+            object.put(key, readValue());
+
+            skipWhitespace();
+            char c = peek();
+            pos++;
+
+            if(c == '}'){
+                return object;
+            } else if(c != ','){
+                throw error("Expected ',' or '}'");
+            }
+        }
+    }
+
+    private List<Object> readArray(){
+        List<Object> array = new ArrayList<>();
+        pos++;
+
+        skipWhitespace();
+        if(peek() == ']'){
+            pos++;
+            return array;
+        }
+
+        while (true) {
+            array.add(readValue());
+
+            skipWhitespace();
+            char c = peek();
+            pos++;
+
+            if(c == ']'){
+                return array;
+            } else if(c != ','){
+                throw error("Expected ',' or ']'");
+            }
+        }
+    }
+
+    private String readString(){
+        if(peek() != '"'){
+            throw error("Expected a string");
+        }
+        pos++;
+
+        StringBuilder sb = new StringBuilder();
+
+        while (true) {
+            char c = peek();
+            pos++;
+
+            if(c == '"'){
+                return sb.toString();
+            } else if(c == '\\'){
+                char escaped = peek();
+                pos++;
+
+                switch (escaped) {
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'f':
+                        sb.append('\f');
+                        break;
+                    case 'u':
+                        if(pos + 4 > text.length()){
+                            throw error("Unexpected end");
+                        }
+                        sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default:
+                        sb.append(escaped);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+    }
+
+    private Number readNumber(){
+        int start = pos;
+
+        while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+            pos++;
+        }
+
+        String number = text.substring(start, pos);
+
+        if(number.isEmpty()){
+            throw error("Unexpected character");
+        }
+
+        try {
+            if(number.contains(".") || number.contains("e") || number.contains("E")){
+                return Double.parseDouble(number);
+            }
+
+            return Long.parseLong(number);
+        } catch (NumberFormatException e) {
+            throw error("Invalid number");
+        }
+    }
+
+    private void expect(String word){
+        if(!text.startsWith(word, pos)){
+            throw error("Expected " + word);
+        }
+
+        pos += word.length();
+    }
+
+    private char peek(){
+        if(pos >= text.length()){
+            throw error("Unexpected end");
+        }
+
+        return text.charAt(pos);
+    }
+
+    private void skipWhitespace(){
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private IllegalArgumentException error(String message){
+        return new IllegalArgumentException(message + " at position " + pos);
+    }
+}
@@ -0,0 +1,161 @@
+package com.rcprogrammer.devicesim;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/* Applies the "add", "remove" and "replace" operations of a JSON Patch (RFC 6902) to a document from Json.parse().*/
+final class JsonPatch {
+
+    private JsonPatch(){
+    }
+
+
+    /* Returns the patched document. The given document may be changed as well.*/
+    @SuppressWarnings("unchecked")
+    static Object apply(Object document, Object patch){
+        if(!(patch instanceof List)){
+            throw new IllegalArgumentException("A patch has to be a JSON array");
+        }
+
+        for(Object element : (List<Object>) patch){
+            Map<String, Object> operation = (Map<String, Object>) element;
+
+            String op = (String) operation.get("op");
+            List<String> path = parsePointer((String) operation.get("path"));
+
+            if("add".equals(op)){
+                document = add(document, path, operation.get("value"));
+            } else if("remove".equals(op)){
+                document = remove(document, path);
+            } else if("replace".equals(op)){
+                document = replace(document, path, operation.get("value"));
+            } else {
+                throw new IllegalArgumentException("Unsupported patch operation " + op);
+            }
+        }
+
+        return document;
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private static Object add(Object document, List<String> path, Object value){
+        if(path.isEmpty()){
+            return value;
+        }
+
+        Object parent = resolve(document, path.subList(0, path.size() - 1));
+        String key = path.get(path.size() - 1);
+
+        if(parent instanceof Map){
+            ((Map<String, Object>) parent).put(key, value);
+        } else if(parent instanceof List){
+            List<Object> list = (List<Object>) parent;
+
+            list.add(key.equals("-") ? list.size() : index(key, list.size() + 1), value);
+        } else {
+            throw new IllegalArgumentException("Can't add to " + key);
+        }
+
+        return document;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object remove(Object document, List<String> path){
+        if(path.isEmpty()){
+            return null;
+        }
+
+        Object parent = resolve(document, path.subList(0, path.size() - 1));
+        String key = path.get(path.size() - 1);
+
+        if(parent instanceof Map && ((Map<String, Object>) parent).containsKey(key)){
+            ((Map<String, Object>) parent).remove(key);
+        } else if(parent instanceof List){
+            List<Object> list = (List<Object>) parent;
+
+            list.remove(index(key, list.size()));
+        } else {
+            throw new IllegalArgumentException("Nothing to remove at " + key);
+        }
+
+        return document;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object replace(Object document, List<String> path, Object value){
+        if(path.isEmpty()){
+            return value;
+        }
+
+        Object parent = resolve(document, path.subList(0, path.size() - 1));
+        String key = path.get(path.size() - 1);
+
+        if(parent instanceof Map && ((Map<String, Object>) parent).containsKey(key)){
+            ((Map<String, Object>) parent).put(key, value);
+        } else if(parent instanceof List){
+            List<Object> list = (List<Object>) parent;
+
+            list.set(index(key, list.size()), value);
+        } else {
+            throw new IllegalArgumentException("Nothing to replace at " + key);
+        }
+
+        return document;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object resolve(Object document, List<String> path){
+        Object current = document;
+
+        for(String key : path){
+            if(current instanceof Map){
+                current = ((Map<String, Object>) current).get(key);
+            } else if(current instanceof List){
+                List<Object> list = (List<Object>) current;
+
+                current = list.get(index(key, list.size()));
+            } else {
+                throw new IllegalArgumentException("Invalid path element " + key);
+            }
+        }
+
+        return current;
+    }
+
+    /* Valid indices are 0 to size - 1.*/
+    private static int index(String key, int size){
+        int index;
+
+        try {
+            index = Integer.parseInt(key);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid array index " + key);
+        }
+
+        if(index < 0 || index >= size){
+            throw new IllegalArgumentException("Array index out of range: " + key);
+        }
+
+        return index;
+    }
+
+    private static List<String> parsePointer(String pointer){
+        List<String> path = new ArrayList<>();
+
+        if(pointer == null || pointer.isEmpty()){
+            return path;
+        }
+
+        if(!pointer.startsWith("/")){
+            throw new IllegalArgumentException("Invalid JSON pointer " + pointer);
+        }
+
+        for(String key : pointer.substring(1).split("/", -1)){
+            path.add(key.replace("~1", "/").replace("~0", "~"));
+        }
+
+        return path;
+    }
+}
@@ -0,0 +1,199 @@
+package com.rcprogrammer.devicesim;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/* Simulates a classroom of apps syncing with one device at the same time, and reports how long their
+ * connections and commands took. Without "--url", a ReferenceDevice is started in the same process.
+ *
+ *   --url <url>          device to test, instead of an embedded reference device
+ *   --clients <n>        number of apps connecting at the same time (30)
+ *   --functions <n>      functions each app holds (20)
+ *   --nodes <n>          code elements per function (30)
+ *   --rounds <n>         connections per app (5)
+ *   --edits <n>          functions each app changes between two connections (2)
+ *   --commands <n>       commands each app sends after every connection (1)
+ *   --threads <n>        request threads of the embedded device (4)
+ *   --delay <ms>         processing time the embedded device adds to every request (0)
+ *   --timeout <ms>       request timeout (10000)*/
+public class LoadGenerator {
+
+    private String url = null;
+    private int clients = 30;
+    private int functions = 20;
+    private int nodes = 30;
+    private int rounds = 5;
+    private int edits = 2;
+    private int commands = 1;
+    private int deviceThreads = 4;
+    private int deviceDelay = 0;
+    private int timeout = 10000;
+
+    private final List<Long> connectLatencies = Collections.synchronizedList(new ArrayList<Long>());
+    private final List<Long> commandLatencies = Collections.synchronizedList(new ArrayList<Long>());
+    private final List<Exception> failures = Collections.synchronizedList(new ArrayList<Exception>());
+
+
+    public static void main(String[] args) throws Exception{
+        LoadGenerator generator = new LoadGenerator();
+
+        for(int i = 0; i + 1 < args.length; i += 2){
+            generator.setOption(args[i], args[i + 1]);
+        }
+
+        generator.run();
+    }
+
+    private void setOption(String name, String value){
+        switch (name) {
+            case "--url":
+                url = value;
+                break;
+            case "--clients":
+                clients = Integer.parseInt(value);
+                break;
+            case "--functions":
+                functions = Integer.parseInt(value);
+                break;
+            case "--nodes":
+                nodes = Integer.parseInt(value);
+                break;
+            case "--rounds":
+                rounds = Integer.parseInt(value);
+                break;
+            case "--edits":
+                edits = Integer.parseInt(value);
+                break;
+            case "--commands":
+                commands = Integer.parseInt(value);
+                break;
+            case "--threads":
+                deviceThreads = Integer.parseInt(value);
+                break;
+            case "--delay":
+                deviceDelay = Integer.parseInt(value);
+                break;
+            case "--timeout":
+                timeout = Integer.parseInt(value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option " + name);
+        }
+    }
+
+    private void run() throws Exception{
+        ReferenceDevice device = null;
+        String baseURL = url;
+
+        if(baseURL == null){
+            device = new ReferenceDevice(0, deviceThreads);
+            device.setProcessingDelay(deviceDelay);
+            device.start();
+
+            baseURL = device.getBaseURL();
+        }
+
+        System.out.println("Device: " + baseURL + (device != null ? " (embedded, " + deviceThreads + " threads, " + deviceDelay + " ms delay)" : ""));
+        System.out.println("Clients: " + clients + ", functions per client: " + functions + ", nodes per function: " + nodes
+                + ", rounds: " + rounds + ", edits per round: " + edits + ", commands per round: " + commands);
+
+        ExecutorService clientExecutor = Executors.newFixedThreadPool(clients);
+        ExecutorService requestExecutor = Executors.newCachedThreadPool();
+
+        List<SimulatedClient> simulatedClients = new ArrayList<>();
+        for(int i = 0; i < clients; i++){
+            simulatedClients.add(new SimulatedClient(i, baseURL, timeout, functions, nodes, requestExecutor));
+        }
+
+        long startTime = System.nanoTime();
+
+        List<Future<?>> runs = new ArrayList<>();
+        for(final SimulatedClient client : simulatedClients){
+            runs.add(clientExecutor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    runClient(client);
+                    return null;
+                }
+            }));
+        }
+
+        for(Future<?> run : runs){
+            run.get();
+        }
+
+        long duration = (System.nanoTime() - startTime) / 1000000;
+
+        clientExecutor.shutdown();
+        requestExecutor.shutdown();
+
+        long requests = 0;
+        for(SimulatedClient client : simulatedClients){
+            requests += client.getRequestCount();
+        }
+
+        System.out.println();
+        System.out.println("Duration: " + duration + " ms");
+        printLatencies("Connect latency", connectLatencies);
+        printLatencies("Command latency", commandLatencies);
+
+        double seconds = Math.max(duration, 1) / 1000.0;
+        System.out.println(String.format("Throughput: %.1f connects/s, %.1f requests/s", connectLatencies.size() / seconds, requests / seconds));
+
+        if(device != null){
+            System.out.println(String.format("Device traffic: %d requests, %.1f kB received, %.1f kB sent",
+                    device.getRequestCount(), device.getBytesReceived() / 1024.0, device.getBytesSent() / 1024.0));
+
+            device.stop();
+        }
+
+        System.out.println("Failures: " + failures.size());
+
+        if(!failures.isEmpty()){
+            System.out.println("First failure: " + failures.get(0));
+        }
+    }
+
+    private void runClient(SimulatedClient client){
+        for(int round = 0; round < rounds; round++){
+            if(round > 0){
+                client.editFunctions(edits);
+            }
+
+            try {
+                connectLatencies.add(client.connect());
+
+                for(int i = 0; i < commands; i++){
+                    commandLatencies.add(client.sendCommand("drive 10"));
+                }
+            } catch (Exception e) {
+                failures.add(e);
+            }
+        }
+    }
+
+    private static void printLatencies(String title, List<Long> latencies){
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+
+        if(sorted.isEmpty()){
+            System.out.println(title + ": no samples");
+            return;
+        }
+
+        System.out.println(String.format("%s (%d samples): p50 %d ms, p90 %d ms, p99 %d ms, max %d ms",
+                title, sorted.size(), percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99), sorted.get(sorted.size() - 1)));
+    }
+
+    /* Nearest rank percentile of sorted values.*/
+    private static long percentile(List<Long> sorted, int percent){
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.size());
+
+        return sorted.get(Math.max(0, rank - 1));
+    }
+}
@@ -0,0 +1,631 @@
+package com.rcprogrammer.devicesim;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/* A reference implementation of the device side of the sync protocol, that can be embedded in tests and benchmarks.
+ *
+ *   GET  /info                     id of the device, change times of the syntax, languages, stored functions and capabilities
+ *   GET  /code_syntax/format       all code formats, or with "?since=<time>" the ones, that changed since ("format_delta")
+ *   GET  /code_syntax/lang         translations of all languages, or with "?langs=<lang>,.." only of these ("lang_select")
+ *   GET  /code_syntax/categories   format categories
+ *   POST /function/<name>/<time>   stores one function, or applies a JSON Patch to it ("json_patch")
+ *   POST /functions                stores a batch of functions ("batch_upload")
+ *   POST /command                  executes a chat command, unless one with the same "id" was executed recently
+ *
+ * The complete syntax resources are sent with an "ETag" and "Last-Modified", and conditional requests for a body,
+ * that the client already has, are answered with "304 Not Modified".
+ *
+ * A patch is only applied, if its "X-Base-Hash" header equals the "X-Function-Hash", the stored version was sent with.
+ * Otherwise the device answers 409, and the client has to send the whole function.
+ *
+ * Requests with "Content-Encoding: gzip" are inflated ("gzip_upload"), and responses are compressed for
+ * clients sending "Accept-Encoding: gzip". A processing delay simulates the speed of a slower device.*/
+public class ReferenceDevice {
+
+    public static final int DEFAULT_PORT = 5000;
+
+    private static final String[] CAPABILITIES = {"batch_upload", "gzip_upload", "json_patch", "format_delta", "lang_select"};
+
+    private static final int MIN_COMPRESSED_SIZE = 1024;
+
+    private static final int MAX_REMEMBERED_COMMANDS = 1000;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    // Identifies the device, even if another one is reachable under the same address later
+    private volatile String id = UUID.randomUUID().toString();
+
+    private volatile String formats = SampleSyntax.FORMATS;
+    private volatile String translations = SampleSyntax.TRANSLATIONS;
+    private volatile String categories = SampleSyntax.CATEGORIES;
+
+    private volatile long formatChangeTime;
+
+    // When each format was added, changed and removed, to answer "since" queries. Guarded by the device.
+    private final Map<String, FormatVersion> formatVersions = new LinkedHashMap<>();
+    private final long formatHistoryStart;
+    private volatile long langChangeTime;
+    private volatile long categoryChangeTime;
+
+    private volatile int processingDelay = 0;
+
+    private final Map<String, StoredFunction> functions = new ConcurrentHashMap<>();
+
+    // Answers of the latest commands by id, so a command that is sent again isn't executed twice
+    private final Map<Object, String> commandResponses = new LinkedHashMap<Object, String>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, String> eldest) {
+            return size() > MAX_REMEMBERED_COMMANDS;
+        }
+    };
+
+    private final AtomicLong commandCount = new AtomicLong();
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+
+
+    /* port 0 picks any free port. threads is the number of requests, that are handled at the same time.*/
+    public ReferenceDevice(int port, int threads) throws IOException{
+        long now = System.currentTimeMillis() / 1000;
+        formatChangeTime = now;
+        langChangeTime = now;
+        categoryChangeTime = now;
+
+        formatHistoryStart = now;
+        updateFormatVersions(formats, now);
+
+        server = HttpServer.create(new InetSocketAddress(port), 64);
+        executor = Executors.newFixedThreadPool(threads);
+
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                handleExchange(exchange);
+            }
+        });
+    }
+
+
+    public void start(){
+        server.start();
+    }
+
+    public void stop(){
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public int getPort(){
+        return server.getAddress().getPort();
+    }
+
+    public String getBaseURL(){
+        return "http://127.0.0.1:" + getPort();
+    }
+
+
+    public void setId(String id){
+        this.id = id;
+    }
+
+    public synchronized void setFormats(String formats){
+        this.formats = formats;
+        formatChangeTime = nextChangeTime(formatChangeTime);
+
+        updateFormatVersions(formats, formatChangeTime);
+    }
+
+    public void setTranslations(String translations){
+        this.translations = translations;
+        langChangeTime = nextChangeTime(langChangeTime);
+    }
+
+    public void setCategories(String categories){
+        this.categories = categories;
+        categoryChangeTime = nextChangeTime(categoryChangeTime);
+    }
+
+    /* delay is in ms, and is added to every request.*/
+    public void setProcessingDelay(int delay){
+        this.processingDelay = delay;
+    }
+
+
+    public int getNumOfFunctions(){
+        return functions.size();
+    }
+
+    public String getFunction(String name){
+        StoredFunction function = functions.get(name);
+
+        return function != null ? function.code : null;
+    }
+
+    public void clearFunctions(){
+        functions.clear();
+    }
+
+    /* Number of commands, that were executed. Commands sent again with the same id are only counted once.*/
+    public long getCommandCount(){
+        return commandCount.get();
+    }
+
+    public long getRequestCount(){
+        return requestCount.get();
+    }
+
+    public long getBytesReceived(){
+        return bytesReceived.get();
+    }
+
+    public long getBytesSent(){
+        return bytesSent.get();
+    }
+
+
+    private void handleExchange(HttpExchange exchange) throws IOException{
+        requestCount.incrementAndGet();
+
+        try {
+            byte[] requestBody = readBody(exchange);
+            bytesReceived.addAndGet(requestBody.length);
+
+            if(processingDelay > 0){
+                Thread.sleep(processingDelay);
+            }
+
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath();
+
+            if(method.equals("GET") && path.equals("/info")){
+                respond(exchange, 200, getInfo());
+            } else if(method.equals("GET") && path.equals("/code_syntax/format")){
+                String query = exchange.getRequestURI().getQuery();
+
+                if(query != null && query.startsWith("since=")){
+                    respond(exchange, 200, getFormatDelta(Long.parseLong(query.substring("since=".length()))));
+                } else {
+                    respondCacheable(exchange, formats, formatChangeTime);
+                }
+            } else if(method.equals("GET") && path.equals("/code_syntax/lang")){
+                String query = exchange.getRequestURI().getQuery();
+
+                if(query != null && query.startsWith("langs=")){
+                    respondCacheable(exchange, getTranslations(query.substring("langs=".length()).split(",")), langChangeTime);
+                } else {
+                    respondCacheable(exchange, translations, langChangeTime);
+                }
+            } else if(method.equals("GET") && path.equals("/code_syntax/categories")){
+                respondCacheable(exchange, categories, categoryChangeTime);
+            } else if(method.equals("POST") && path.startsWith("/function/")){
+                respond(exchange, 200, storeFunction(path, new String(requestBody, "UTF-8"), exchange));
+            } else if(method.equals("POST") && path.equals("/functions")){
+                respond(exchange, 200, storeFunctions(new String(requestBody, "UTF-8")));
+            } else if(method.equals("POST") && path.equals("/command")){
+                respond(exchange, 200, executeCommand(new String(requestBody, "UTF-8")));
+            } else {
+                respond(exchange, 404, "{\"error\":\"Unknown request\"}");
+            }
+        } catch (IllegalStateException e) {
+            respond(exchange, 409, "{\"error\":" + Json.quote(String.valueOf(e.getMessage())) + "}");
+        } catch (IllegalArgumentException | ClassCastException | NullPointerException | IndexOutOfBoundsException e) {
+            respond(exchange, 400, "{\"error\":" + Json.quote(String.valueOf(e.getMessage())) + "}");
+        } catch (InterruptedException e) {
+            exchange.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private String getInfo(){
+        StringBuilder info = new StringBuilder();
+
+        info.append("{\"id\":").append(Json.quote(id))
+                .append(",\"format\":").append(formatChangeTime)
+                .append(",\"categories\":").append(categoryChangeTime)
+                .append(",\"lang\":").append(langChangeTime)
+                .append(",\"languages\":[");
+
+        boolean firstLanguage = true;
+        for(String language : ((Map<String, Object>) Json.parse(translations)).keySet()){
+            if(language.equalsIgnoreCase("default")){
+                continue;
+            }
+
+            if(!firstLanguage){
+                info.append(',');
+            }
+            firstLanguage = false;
+
+            info.append(Json.quote(language));
+        }
+
+        info.append("],\"capabilities\":[");
+
+        for(int i = 0; i < CAPABILITIES.length; i++){
+            if(i > 0){
+                info.append(',');
+            }
+
+            info.append(Json.quote(CAPABILITIES[i]));
+        }
+
+        info.append("],\"functions\":{");
+
+        boolean first = true;
+        for(Map.Entry<String, StoredFunction> entry : functions.entrySet()){
+            if(!first){
+                info.append(',');
+            }
+            first = false;
+
+            info.append(Json.quote(entry.getKey())).append(':').append(entry.getValue().time);
+        }
+
+        info.append("}}");
+
+        return info.toString();
+    }
+
+    /* The translations of the given languages. Languages, that the device doesn't have, are left out.*/
+    @SuppressWarnings("unchecked")
+    private String getTranslations(String[] languages){
+        Map<String, Object> allTranslations = (Map<String, Object>) Json.parse(translations);
+        Map<String, Object> selectedTranslations = new LinkedHashMap<>();
+
+        for(String language : languages){
+            if(allTranslations.containsKey(language)){
+                selectedTranslations.put(language, allTranslations.get(language));
+            }
+        }
+
+        return Json.write(selectedTranslations);
+    }
+
+    /* path is "/function/<name>/<time>".*/
+    private String storeFunction(String path, String body, HttpExchange exchange){
+        String[] parts = path.split("/");
+
+        if(parts.length != 4 || parts[2].isEmpty()){
+            throw new IllegalArgumentException("Expected /function/<name>/<time>");
+        }
+
+        long time;
+
+        try {
+            time = Long.parseLong(parts[3]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid time " + parts[3]);
+        }
+
+        String hash = exchange.getRequestHeaders().getFirst("X-Function-Hash");
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+
+        if(contentType != null && contentType.startsWith("application/json-patch+json")){
+            StoredFunction storedFunction = functions.get(parts[2]);
+            String baseHash = exchange.getRequestHeaders().getFirst("X-Base-Hash");
+
+            if(storedFunction == null || storedFunction.hash == null || !storedFunction.hash.equals(baseHash)){
+                throw new IllegalStateException("The stored version of " + parts[2] + " differs from the patch's base");
+            }
+
+            body = Json.write(JsonPatch.apply(Json.parse(storedFunction.code), Json.parse(body)));
+        }
+
+        if(!(Json.parse(body) instanceof List)){
+            throw new IllegalArgumentException("A function has to be a JSON array");
+        }
+
+        functions.put(parts[2], new StoredFunction(body, time, hash));
+
+        return "[]";
+    }
+
+    @SuppressWarnings("unchecked")
+    private String storeFunctions(String body){
+        Map<String, Object> batch = (Map<String, Object>) Json.parse(body);
+
+        long time = ((Number) batch.get("time")).longValue();
+        List<Object> batchFunctions = (List<Object>) batch.get("functions");
+
+        Map<String, Object> results = new LinkedHashMap<>();
+
+        for(Object element : batchFunctions){
+            Map<String, Object> function = (Map<String, Object>) element;
+
+            String name = (String) function.get("name");
+            Object code = function.get("code");
+
+            if(name != null && code instanceof List){
+                functions.put(name, new StoredFunction(Json.write(code), time, (String) function.get("hash")));
+                results.put(name, Boolean.TRUE);
+            } else if(name != null){
+                results.put(name, Boolean.FALSE);
+            }
+        }
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("results", results);
+
+        return Json.write(response);
+    }
+
+    @SuppressWarnings("unchecked")
+    private String executeCommand(String body){
+        Map<String, Object> command = (Map<String, Object>) Json.parse(body);
+        Object id = command.get("id");
+
+        synchronized (commandResponses) {
+            if(id != null && commandResponses.containsKey(id)){
+                return commandResponses.get(id);
+            }
+
+            commandCount.incrementAndGet();
+
+            Map<String, Object> response = new LinkedHashMap<>();
+            response.put("text", "Executed: " + command.get("text"));
+
+            if(id != null){
+                response.put("id", id);
+            }
+
+            String responseText = Json.write(response);
+
+            if(id != null){
+                commandResponses.put(id, responseText);
+            }
+
+            return responseText;
+        }
+    }
+
+
+    private void respond(HttpExchange exchange, int statusCode, String body) throws IOException{
+        byte[] data = body.getBytes("UTF-8");
+
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+
+        if(acceptEncoding != null && acceptEncoding.contains("gzip") && data.length >= MIN_COMPRESSED_SIZE){
+            data = compress(data);
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(statusCode, data.length);
+
+        OutputStream out = exchange.getResponseBody();
+        out.write(data);
+        out.close();
+
+        bytesSent.addAndGet(data.length);
+    }
+
+    /* Sends an "ETag", the hash of the body, and the change time of the resource as "Last-Modified". A client, that
+     * already has this body, gets "304 Not Modified" without it. The ETag is checked first, like RFC 7232 says.*/
+    private void respondCacheable(HttpExchange exchange, String body, long changeTime) throws IOException{
+        String eTag = "\"" + hash(body) + "\"";
+
+        exchange.getResponseHeaders().set("ETag", eTag);
+        exchange.getResponseHeaders().set("Last-Modified", formatHttpDate(changeTime));
+
+        String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+
+        boolean isNotModified = false;
+
+        if(ifNoneMatch != null){
+            isNotModified = ifNoneMatch.equals(eTag) || ifNoneMatch.equals("*");
+        } else if(ifModifiedSince != null){
+            try {
+                isNotModified = createHttpDateFormat().parse(ifModifiedSince).getTime() / 1000 >= changeTime;
+            } catch (ParseException e) {
+                // Invalid dates are ignored
+            }
+        }
+
+        if(isNotModified){
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+
+        respond(exchange, 200, body);
+    }
+
+    private static String hash(String text) throws IOException{
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder();
+
+            for(int i = 0; i < 16; i++){
+                hex.append(String.format("%02x", digest[i]));
+            }
+
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /* changeTime is in seconds.*/
+    private static String formatHttpDate(long changeTime){
+        return createHttpDateFormat().format(new Date(changeTime * 1000));
+    }
+
+    private static SimpleDateFormat createHttpDateFormat(){
+        SimpleDateFormat dateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+        return dateFormat;
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException{
+        InputStream in = exchange.getRequestBody();
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int length;
+
+        while ((length = in.read(buffer)) > 0) {
+            outputStream.write(buffer, 0, length);
+        }
+
+        in.close();
+
+        byte[] body = outputStream.toByteArray();
+
+        if("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))){
+            GZIPInputStream gzipStream = new GZIPInputStream(new ByteArrayInputStream(body));
+            outputStream = new ByteArrayOutputStream(body.length * 4);
+
+            while ((length = gzipStream.read(buffer)) > 0) {
+                outputStream.write(buffer, 0, length);
+            }
+
+            gzipStream.close();
+            body = outputStream.toByteArray();
+        }
+
+        return body;
+    }
+
+    private static byte[] compress(byte[] data) throws IOException{
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(data.length / 4 + 64);
+        GZIPOutputStream gzipStream = new GZIPOutputStream(outputStream);
+
+        gzipStream.write(data);
+        gzipStream.close();
+
+        return outputStream.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private synchronized void updateFormatVersions(String formats, long changeTime){
+        Map<String, String> newFormats = new LinkedHashMap<>();
+
+        for(Object format : (List<Object>) Json.parse(formats)){
+            newFormats.put((String) ((Map<String, Object>) format).get("id"), Json.write(format));
+        }
+
+        for(Map.Entry<String, FormatVersion> entry : formatVersions.entrySet()){
+            FormatVersion version = entry.getValue();
+
+            if(!newFormats.containsKey(entry.getKey()) && version.removedAt < 0){
+                version.removedAt = changeTime;
+            }
+        }
+
+        for(Map.Entry<String, String> entry : newFormats.entrySet()){
+            FormatVersion version = formatVersions.get(entry.getKey());
+
+            if(version == null || version.removedAt >= 0){
+                formatVersions.put(entry.getKey(), new FormatVersion(entry.getValue(), changeTime));
+            } else if(!version.json.equals(entry.getValue())){
+                version.json = entry.getValue();
+                version.changedAt = changeTime;
+            }
+        }
+    }
+
+    /* The formats, that changed after the given change time. Older times than the device knows get all formats.*/
+    private synchronized String getFormatDelta(long since){
+        if(since < formatHistoryStart){
+            return formats;
+        }
+
+        List<String> added = new ArrayList<>();
+        List<String> changed = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+
+        for(Map.Entry<String, FormatVersion> entry : formatVersions.entrySet()){
+            FormatVersion version = entry.getValue();
+
+            if(version.removedAt >= 0){
+                // Formats, that were added and removed again since then, were never seen by the client
+                if(version.removedAt > since && version.addedAt <= since){
+                    removed.add(Json.quote(entry.getKey()));
+                }
+            } else if(version.addedAt > since){
+                added.add(version.json);
+            } else if(version.changedAt > since){
+                changed.add(version.json);
+            }
+        }
+
+        return "{\"since\":" + since + ",\"added\":" + added + ",\"changed\":" + changed + ",\"removed\":" + removed + "}";
+    }
+
+    /* Change times are in seconds, so two changes within one second still need different times.*/
+    private static long nextChangeTime(long previous){
+        return Math.max(System.currentTimeMillis() / 1000, previous + 1);
+    }
+
+
+    private static class FormatVersion {
+        String json;
+        final long addedAt;
+        long changedAt;
+        long removedAt = -1;
+
+        FormatVersion(String json, long addedAt){
+            this.json = json;
+            this.addedAt = addedAt;
+            this.changedAt = addedAt;
+        }
+    }
+
+    private static class StoredFunction {
+        final String code;
+        final long time;
+        final String hash;
+
+        StoredFunction(String code, long time, String hash){
+            this.code = code;
+            this.time = time;
+            this.hash = hash;
+        }
+    }
+
+
+    /* Runs a reference device until the process is stopped. Arguments: [port] [threads]*/
+    public static void main(String[] args) throws IOException{
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+        ReferenceDevice device = new ReferenceDevice(port, threads);
+        device.start();
+
+        System.out.println("Reference device listening on port " + device.getPort() + " with " + threads + " threads, capabilities " + Arrays.toString(CAPABILITIES));
+    }
+}
@@ -0,0 +1,46 @@
+package com.rcprogrammer.devicesim;
+
+/* A small code syntax in the layout the app expects, that the reference device serves by default.*/
+final class SampleSyntax {
+
+    static final String FORMATS = "["
+            + "{\"id\":\"repeat\",\"name\":\"@repeat\",\"category\":0,"
+            + "\"lines\":[[{\"type\":\"text\",\"value\":\"@repeat\"},{\"type\":\"code\",\"value\":\"num_in\"},{\"type\":\"text\",\"value\":\"@times\"}],[]],"
+            + "\"desc\":\"@repeat_desc\"},"
+            + "{\"id\":\"if\",\"name\":\"@if\",\"category\":0,"
+            + "\"lines\":[[{\"type\":\"text\",\"value\":\"@if\"},{\"type\":\"code\",\"value\":\"bool_in\"}],[]]},"
+            + "{\"id\":\"drive\",\"name\":\"@drive\",\"category\":1,"
+            + "\"lines\":[[{\"type\":\"text\",\"value\":\"@drive\"},{\"type\":\"code\",\"value\":\"num_in\"},{\"type\":\"text\",\"value\":\"cm\"}]],"
+            + "\"desc\":\"@drive_desc\",\"descParams\":[{\"type\":\"num\",\"desc\":\"@drive_distance\"}]},"
+            + "{\"id\":\"turn\",\"name\":\"@turn\",\"category\":1,"
+            + "\"lines\":[[{\"type\":\"text\",\"value\":\"@turn\"},{\"type\":\"code\",\"value\":\"num_in\"},{\"type\":\"text\",\"value\":\"\u00b0\"}]]},"
+            + "{\"id\":\"distance\",\"name\":\"@distance\",\"category\":2,\"returns\":\"num\","
+            + "\"lines\":[[{\"type\":\"text\",\"value\":\"@distance\"}]]},"
+            + "{\"id\":\"obstacle\",\"name\":\"@obstacle\",\"category\":2,\"returns\":\"bool\","
+            + "\"lines\":[[{\"type\":\"text\",\"value\":\"@obstacle\"}]]},"
+            + "{\"id\":\"number\",\"name\":\"@number\",\"category\":3,\"takes\":\"num\",\"returns\":\"num\","
+            + "\"lines\":[[{\"type\":\"code\",\"value\":\"num_in\"}]]},"
+            + "{\"id\":\"print\",\"name\":\"@print\",\"category\":3,"
+            + "\"lines\":[[{\"type\":\"text\",\"value\":\"@print\"},{\"type\":\"code\",\"value\":\"text_in\"}]]}"
+            + "]";
+
+    static final String TRANSLATIONS = "{"
+            + "\"default\":{\"repeat\":\"repeat\",\"times\":\"times\",\"repeat_desc\":\"Runs the inner block several times.\","
+            + "\"if\":\"if\",\"drive\":\"drive\",\"drive_desc\":\"Drives straight ahead.\",\"drive_distance\":\"Distance in cm\","
+            + "\"turn\":\"turn\",\"distance\":\"distance\",\"obstacle\":\"obstacle ahead\",\"number\":\"number\",\"print\":\"print\"},"
+            + "\"de\":{\"repeat\":\"wiederhole\",\"times\":\"mal\",\"repeat_desc\":\"F\u00fchrt den inneren Block mehrmals aus.\","
+            + "\"if\":\"falls\",\"drive\":\"fahre\",\"drive_desc\":\"F\u00e4hrt geradeaus.\",\"drive_distance\":\"Strecke in cm\","
+            + "\"turn\":\"drehe\",\"distance\":\"Abstand\",\"obstacle\":\"Hindernis voraus\",\"number\":\"Zahl\",\"print\":\"gib aus\"}"
+            + "}";
+
+    static final String CATEGORIES = "["
+            + "{\"name\":\"Control\",\"hue\":40},"
+            + "{\"name\":\"Movement\",\"hue\":210},"
+            + "{\"name\":\"Sensors\",\"hue\":120},"
+            + "{\"name\":\"Values\",\"hue\":280}"
+            + "]";
+
+
+    private SampleSyntax(){
+    }
+}
@@ -0,0 +1,305 @@
+package com.rcprogrammer.devicesim;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/* Talks to a device the way DeviceConnector does: "/info" first, then every syntax resource whose change time
+ * differs from the one it last applied, all at once, and finally the functions the device doesn't have in their
+ * current version, in batches if the device supports it.*/
+class SimulatedClient {
+
+    private static final int MAX_FUNCTIONS_PER_BATCH = 50;
+    private static final int MAX_PARALLEL_UPLOADS = 4;
+    private static final int MIN_COMPRESSED_SIZE = 1024;
+
+    private static final String[] SYNTAX_RESOURCES = {"format", "lang", "categories"};
+
+    private final String baseURL;
+    private final int timeout;
+    private final int nodesPerFunction;
+    private final ExecutorService requestExecutor;
+    private final Random random;
+
+    private final Map<String, Long> appliedChangeTimes = new HashMap<>();
+
+    private final Map<String, String> functions = new HashMap<>();
+    private final Map<String, String> acknowledgedFunctions = new HashMap<>();
+
+    private final List<String> functionNames = new ArrayList<>();
+
+    private long requestCount = 0;
+
+
+    SimulatedClient(int clientId, String baseURL, int timeout, int numOfFunctions, int nodesPerFunction, ExecutorService requestExecutor){
+        this.baseURL = baseURL;
+        this.timeout = timeout;
+        this.nodesPerFunction = nodesPerFunction;
+        this.requestExecutor = requestExecutor;
+        this.random = new Random(clientId);
+
+        for(int i = 0; i < numOfFunctions; i++){
+            String name = "client" + clientId + "_function" + i;
+
+            functionNames.add(name);
+            functions.put(name, createFunction(nodesPerFunction));
+        }
+    }
+
+
+    /* Changes the given number of functions, like a student editing them between two runs.*/
+    void editFunctions(int count){
+        for(int i = 0; i < count && !functionNames.isEmpty(); i++){
+            String name = functionNames.get(random.nextInt(functionNames.size()));
+
+            functions.put(name, createFunction(nodesPerFunction));
+        }
+    }
+
+    /* Runs one complete connection, and returns how many ms it took.*/
+    @SuppressWarnings("unchecked")
+    long connect() throws Exception{
+        long startTime = System.nanoTime();
+
+        final Map<String, Object> info = (Map<String, Object>) Json.parse(request("GET", "/info", null));
+
+        List<Object> capabilityList = (List<Object>) info.get("capabilities");
+        boolean batchUpload = capabilityList != null && capabilityList.contains("batch_upload");
+        boolean gzipUpload = capabilityList != null && capabilityList.contains("gzip_upload");
+
+        // All outdated syntax resources are requested at once
+        List<Future<String>> syntaxRequests = new ArrayList<>();
+        List<String> requestedResources = new ArrayList<>();
+
+        for(final String resource : SYNTAX_RESOURCES){
+            long changeTime = ((Number) info.get(resource)).longValue();
+            Long appliedChangeTime = appliedChangeTimes.get(resource);
+
+            if(appliedChangeTime == null || appliedChangeTime != changeTime){
+                requestedResources.add(resource);
+                syntaxRequests.add(requestExecutor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return request("GET", "/code_syntax/" + resource, null);
+                    }
+                }));
+            }
+        }
+
+        for(int i = 0; i < syntaxRequests.size(); i++){
+            // Parsing stands in for applying the syntax to the registry
+            Json.parse(syntaxRequests.get(i).get());
+
+            String resource = requestedResources.get(i);
+            appliedChangeTimes.put(resource, ((Number) info.get(resource)).longValue());
+        }
+
+        Map<String, Object> functionsOnDevice = (Map<String, Object>) info.get("functions");
+
+        List<String> changedFunctions = new ArrayList<>();
+
+        for(Map.Entry<String, String> entry : functions.entrySet()){
+            boolean isOnDevice = functionsOnDevice != null && functionsOnDevice.containsKey(entry.getKey());
+
+            if(!isOnDevice || !entry.getValue().equals(acknowledgedFunctions.get(entry.getKey()))){
+                changedFunctions.add(entry.getKey());
+            }
+        }
+
+        long updateTime = System.currentTimeMillis() / 1000;
+
+        if(batchUpload){
+            for(int i = 0; i < changedFunctions.size(); i += MAX_FUNCTIONS_PER_BATCH){
+                uploadBatch(changedFunctions.subList(i, Math.min(i + MAX_FUNCTIONS_PER_BATCH, changedFunctions.size())), updateTime, gzipUpload);
+            }
+        } else {
+            uploadEach(changedFunctions, updateTime, gzipUpload);
+        }
+
+        return (System.nanoTime() - startTime) / 1000000;
+    }
+
+    /* Sends a command, and returns how many ms it took until the answer arrived.*/
+    long sendCommand(String text) throws IOException{
+        long startTime = System.nanoTime();
+
+        request("POST", "/command", "{\"lang\":\"en\",\"text\":" + Json.quote(text) + ",\"id\":" + random.nextInt(Integer.MAX_VALUE) + "}");
+
+        return (System.nanoTime() - startTime) / 1000000;
+    }
+
+    long getRequestCount(){
+        return requestCount;
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private void uploadBatch(List<String> names, long updateTime, boolean compress) throws IOException{
+        StringBuilder body = new StringBuilder();
+        body.append("{\"time\":").append(updateTime).append(",\"functions\":[");
+
+        for(int i = 0; i < names.size(); i++){
+            if(i > 0){
+                body.append(',');
+            }
+
+            body.append("{\"name\":").append(Json.quote(names.get(i))).append(",\"code\":").append(functions.get(names.get(i))).append('}');
+        }
+
+        body.append("]}");
+
+        Map<String, Object> response = (Map<String, Object>) Json.parse(request("POST", "/functions", body.toString(), compress));
+        Map<String, Object> results = (Map<String, Object>) response.get("results");
+
+        for(String name : names){
+            if(results == null || Boolean.TRUE.equals(results.get(name))){
+                acknowledgedFunctions.put(name, functions.get(name));
+            }
+        }
+    }
+
+    private void uploadEach(List<String> names, final long updateTime, final boolean compress) throws Exception{
+        // Like Volley, at most a few uploads run at the same time
+        for(int i = 0; i < names.size(); i += MAX_PARALLEL_UPLOADS){
+            List<Future<String>> uploads = new ArrayList<>();
+            List<String> uploadedNames = names.subList(i, Math.min(i + MAX_PARALLEL_UPLOADS, names.size()));
+
+            for(final String name : uploadedNames){
+                final String code = functions.get(name);
+
+                uploads.add(requestExecutor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return request("POST", "/function/" + name + "/" + updateTime, code, compress);
+                    }
+                }));
+            }
+
+            for(int j = 0; j < uploads.size(); j++){
+                uploads.get(j).get();
+
+                acknowledgedFunctions.put(uploadedNames.get(j), functions.get(uploadedNames.get(j)));
+            }
+        }
+    }
+
+
+    private String request(String method, String path, String body) throws IOException{
+        return request(method, path, body, false);
+    }
+
+    private String request(String method, String path, String body, boolean compress) throws IOException{
+        synchronized (this) {
+            requestCount++;
+        }
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseURL + path).openConnection();
+
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(timeout);
+        connection.setReadTimeout(timeout);
+        connection.setRequestProperty("Accept-Encoding", "gzip");
+
+        if(body != null){
+            byte[] data = body.getBytes("UTF-8");
+
+            if(compress && data.length >= MIN_COMPRESSED_SIZE){
+                data = compress(data);
+                connection.setRequestProperty("Content-Encoding", "gzip");
+            }
+
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(data.length);
+            connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+
+            OutputStream out = connection.getOutputStream();
+            out.write(data);
+            out.close();
+        }
+
+        int statusCode = connection.getResponseCode();
+
+        InputStream in = statusCode >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        byte[] data = in != null ? readFully(in) : new byte[0];
+
+        if("gzip".equalsIgnoreCase(connection.getContentEncoding())){
+            data = readFully(new GZIPInputStream(new ByteArrayInputStream(data)));
+        }
+
+        if(statusCode < 200 || statusCode > 299){
+            throw new IOException("Unexpected response code " + statusCode + " for " + method + " " + path);
+        }
+
+        return new String(data, "UTF-8");
+    }
+
+    /* Builds a function with about the given number of nodes, from the formats of SampleSyntax.*/
+    private String createFunction(int nodes){
+        StringBuilder function = new StringBuilder("[");
+
+        for(int i = 0; i < nodes; i++){
+            if(i > 0){
+                function.append(',');
+            }
+
+            switch (random.nextInt(4)) {
+                case 0:
+                    function.append("{\"id\":\"drive\",\"params\":[{\"id\":\"number\",\"params\":[\"").append(random.nextInt(100)).append("\"]}]}");
+                    break;
+                case 1:
+                    function.append("{\"id\":\"turn\",\"params\":[\"").append(random.nextInt(360)).append("\"]}");
+                    break;
+                case 2:
+                    function.append("{\"id\":\"if\",\"params\":[{\"id\":\"obstacle\"}],\"blocks\":[[{\"id\":\"print\",\"params\":[\"Obstacle ")
+                            .append(i).append("\"]}]]}");
+                    break;
+                default:
+                    function.append("{\"id\":\"repeat\",\"params\":[\"").append(1 + random.nextInt(5))
+                            .append("\"],\"blocks\":[[{\"id\":\"drive\",\"params\":[\"10\"]},{\"id\":\"turn\",\"params\":[\"90\"]}]]}");
+            }
+        }
+
+        return function.append(']').toString();
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException{
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        try {
+            byte[] buffer = new byte[8192];
+            int length;
+
+            while ((length = in.read(buffer)) > 0) {
+                outputStream.write(buffer, 0, length);
+            }
+        } finally {
+            in.close();
+        }
+
+        return outputStream.toByteArray();
+    }
+
+    private static byte[] compress(byte[] data) throws IOException{
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(data.length / 4 + 64);
+        GZIPOutputStream gzipStream = new GZIPOutputStream(outputStream);
+
+        gzipStream.write(data);
+        gzipStream.close();
+
+        return outputStream.toByteArray();
+    }
+}